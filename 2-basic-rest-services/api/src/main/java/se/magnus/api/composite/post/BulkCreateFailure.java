@@ -0,0 +1,35 @@
+package se.magnus.api.composite.post;
+
+public class BulkCreateFailure {
+	private final long index;
+	private final int postId;
+	private final String message;
+
+	public BulkCreateFailure() {
+		index = 0;
+		postId = 0;
+		message = null;
+	}
+
+	public BulkCreateFailure(long index, int postId, String message) {
+		this.index = index;
+		this.postId = postId;
+		this.message = message;
+	}
+
+	/**
+	 * @return the position of the failed record in the request, starting at 0
+	 */
+	public long getIndex() {
+		return index;
+	}
+
+	public int getPostId() {
+		return postId;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+}
@@ -0,0 +1,42 @@
+package se.magnus.api.composite.post;
+
+import java.util.List;
+
+public class BulkCreateResult {
+	private final long received;
+	private final long created;
+	private final List<BulkCreateFailure> failures;
+
+	public BulkCreateResult() {
+		received = 0;
+		created = 0;
+		failures = null;
+	}
+
+	public BulkCreateResult(long received, long created, List<BulkCreateFailure> failures) {
+		this.received = received;
+		this.created = created;
+		this.failures = failures;
+	}
+
+	public long getReceived() {
+		return received;
+	}
+
+	/**
+	 * @return the number of records whose events were published and, with
+	 *         publisher confirms, confirmed by the broker
+	 */
+	public long getCreated() {
+		return created;
+	}
+
+	/**
+	 * @return the records that could not be created, in the order of the
+	 *         request
+	 */
+	public List<BulkCreateFailure> getFailures() {
+		return failures;
+	}
+
+}
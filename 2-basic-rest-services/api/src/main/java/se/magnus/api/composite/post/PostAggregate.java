@@ -1,7 +1,10 @@
 package se.magnus.api.composite.post;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import java.time.LocalDate;
 import java.util.List;
+import java.util.Map;
 
 public class PostAggregate {
 	private final int postId;
@@ -11,7 +14,11 @@ public class PostAggregate {
 	private final List<ReactionSummary> reactions;
 	private final List<CommentSummary> comments;
 	private final List<ImageSummary> images;
+	private final Map<String, Long> reactionCounts;
+	private final String reactionsCursor;
+	private final String commentsCursor;
 	private final ServiceAddresses serviceAddresses;
+	private final String eTag;
 
 	public PostAggregate() {
 		postId = 0;
@@ -21,12 +28,17 @@ public class PostAggregate {
 		reactions = null;
 		comments = null;
 		images = null;
+		reactionCounts = null;
+		reactionsCursor = null;
+		commentsCursor = null;
 		serviceAddresses = null;
+		eTag = null;
 	}
 
 	public PostAggregate(int postId, String typeOfPost, String postCaption, LocalDate postedOn,
 			List<ReactionSummary> reactions, List<CommentSummary> comments, List<ImageSummary> images,
-			ServiceAddresses serviceAddresses) {
+			Map<String, Long> reactionCounts, String reactionsCursor, String commentsCursor, ServiceAddresses serviceAddresses,
+			String eTag) {
 
 		this.postId = postId;
 		this.typeOfPost = typeOfPost;
@@ -35,7 +47,11 @@ public class PostAggregate {
 		this.reactions = reactions;
 		this.comments = comments;
 		this.images = images;
+		this.reactionCounts = reactionCounts;
+		this.reactionsCursor = reactionsCursor;
+		this.commentsCursor = commentsCursor;
 		this.serviceAddresses = serviceAddresses;
+		this.eTag = eTag;
 	}
 
 	public int getPostId() {
@@ -66,8 +82,43 @@ public class PostAggregate {
 		return images;
 	}
 
+	/**
+	 * @return the number of reactions per type of reaction, null unless the
+	 *         reactionCounts section is included
+	 */
+	public Map<String, Long> getReactionCounts() {
+		return reactionCounts;
+	}
+
+	/**
+	 * @return the cursor to pass to get the next page of reactions, null if
+	 *         there are no more reactions
+	 */
+	public String getReactionsCursor() {
+		return reactionsCursor;
+	}
+
+	/**
+	 * @return the cursor to pass to get the next page of comments, null if
+	 *         there are no more comments
+	 */
+	public String getCommentsCursor() {
+		return commentsCursor;
+	}
+
 	public ServiceAddresses getServiceAddresses() {
 		return serviceAddresses;
 	}
 
+	/**
+	 * @return the entity tag of the aggregate, a hash of the contents of its
+	 *         sections, counts and cursors, null for an aggregate that is not
+	 *         built by the composite service. It is sent in the ETag header, not
+	 *         in the body.
+	 */
+	@JsonIgnore
+	public String getETag() {
+		return eTag;
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,103 @@
+package se.magnus.api.composite.post;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * One section of a streamed composite post. The POST section carries the post
+ * information and is always sent first, the REACTIONS, COMMENTS and IMAGES
+ * sections follow in the order they become available. The REACTIONS and
+ * COMMENTS sections hold the first page of their items and the cursor to get
+ * the next page from the non streaming composite view. Fields that do not
+ * belong to the section are null.
+ */
+public class PostAggregateSection {
+
+	public enum Type {
+		POST, REACTIONS, COMMENTS, IMAGES
+	}
+
+	private final Type section;
+	private final int postId;
+	private final String typeOfPost;
+	private final String postCaption;
+	private final LocalDate postedOn;
+	private final List<ReactionSummary> reactions;
+	private final List<CommentSummary> comments;
+	private final List<ImageSummary> images;
+	private final String cursor;
+	private final String serviceAddress;
+
+	public PostAggregateSection() {
+		section = null;
+		postId = 0;
+		typeOfPost = null;
+		postCaption = null;
+		postedOn = null;
+		reactions = null;
+		comments = null;
+		images = null;
+		cursor = null;
+		serviceAddress = null;
+	}
+
+	public PostAggregateSection(Type section, int postId, String typeOfPost, String postCaption, LocalDate postedOn,
+			List<ReactionSummary> reactions, List<CommentSummary> comments, List<ImageSummary> images, String cursor,
+			String serviceAddress) {
+
+		this.section = section;
+		this.postId = postId;
+		this.typeOfPost = typeOfPost;
+		this.postCaption = postCaption;
+		this.postedOn = postedOn;
+		this.reactions = reactions;
+		this.comments = comments;
+		this.images = images;
+		this.cursor = cursor;
+		this.serviceAddress = serviceAddress;
+	}
+
+	public Type getSection() {
+		return section;
+	}
+
+	public int getPostId() {
+		return postId;
+	}
+
+	public String getTypeOfPost() {
+		return typeOfPost;
+	}
+
+	public String getPostCaption() {
+		return postCaption;
+	}
+
+	public LocalDate getPostedOn() {
+		return postedOn;
+	}
+
+	public List<ReactionSummary> getReactions() {
+		return reactions;
+	}
+
+	public List<CommentSummary> getComments() {
+		return comments;
+	}
+
+	public List<ImageSummary> getImages() {
+		return images;
+	}
+
+	/**
+	 * @return the reactionsCursor or commentsCursor to pass to get the next page
+	 *         of the section, null if there are no more items
+	 */
+	public String getCursor() {
+		return cursor;
+	}
+
+	public String getServiceAddress() {
+		return serviceAddress;
+	}
+}
@@ -5,7 +5,12 @@ import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import org.springframework.web.server.ServerWebExchange;
 import reactor.core.publisher.Mono;
+import springfox.documentation.annotations.ApiIgnore;
+
+import java.util.List;
 
 @Api(description = "REST API for composite post information.")
 public interface PostCompositeService {
@@ -27,13 +32,42 @@ public interface PostCompositeService {
 	Mono<Void> createCompositePost(@RequestBody PostAggregate body);
 
 	/**
-	 * Sample usage: curl $HOST:$PORT/post-composite/1
+	 * Sample usage:
+	 *
+	 * curl -X POST $HOST:$PORT/post-composite/bulk \ -H "Content-Type:
+	 * application/x-ndjson" --data-binary @posts.ndjson
+	 *
+	 * @param body the composite posts, one JSON object per line
+	 * @return the number of received and created composite posts, and the
+	 *         records that could not be created
+	 */
+	@ApiOperation(value = "${api.post-composite.create-composite-posts.description}", notes = "${api.post-composite.create-composite-posts.notes}")
+	@ApiResponses(value = {
+			@ApiResponse(code = 400, message = "Bad Request, invalid format of the request. See response message for more information.") })
+	@PostMapping(value = "/post-composite/bulk", consumes = { "application/x-ndjson",
+			"application/stream+json" }, produces = "application/json")
+	Mono<BulkCreateResult> createCompositePosts(@RequestBody Flux<PostAggregate> body);
+
+	/**
+	 * Sample usage: curl $HOST:$PORT/post-composite/1?include=reactions,images
 	 *
 	 * @param postId
+	 * @param include         the reactions, comments and images sections to
+	 *                        include, all of them if not specified
+	 * @param limit           the max number of reactions and of comments to
+	 *                        return
+	 * @param reactionsCursor the reactionsCursor of the previous page, to get the
+	 *                        next page of reactions
+	 * @param commentsCursor  the commentsCursor of the previous page, to get the
+	 *                        next page of comments
+	 * @param exchange        to answer a request with an If-None-Match header
+	 *                        that matches the ETag of the composite post with
+	 *                        304, Not Modified
 	 * @return the composite post info, if found, else null
 	 */
 	@ApiOperation(value = "${api.post-composite.get-composite-post.description}", notes = "${api.post-composite.get-composite-post.notes}")
 	@ApiResponses(value = {
+			@ApiResponse(code = 304, message = "Not Modified, the composite post matches the ETag in the If-None-Match header."),
 			@ApiResponse(code = 400, message = "Bad Request, invalid format of the request. See response message for more information."),
 			@ApiResponse(code = 404, message = "Not found, the specified id does not exist."),
 			@ApiResponse(code = 422, message = "Unprocessable entity, input parameters caused the processing to fail. See response message for more information.") })
@@ -41,7 +75,52 @@ public interface PostCompositeService {
 	Mono<PostAggregate> getCompositePost(
 	        @PathVariable int postId,
 	        @RequestParam(value = "delay", required = false, defaultValue = "0") int delay,
-	        @RequestParam(value = "faultPercent", required = false, defaultValue = "0") int faultPercent
+	        @RequestParam(value = "faultPercent", required = false, defaultValue = "0") int faultPercent,
+	        @RequestParam(value = "include", required = false) List<String> include,
+	        @RequestParam(value = "limit", required = false) Integer limit,
+	        @RequestParam(value = "reactionsCursor", required = false) String reactionsCursor,
+	        @RequestParam(value = "commentsCursor", required = false) String commentsCursor,
+	        @ApiIgnore ServerWebExchange exchange
+	    );
+
+	/**
+	 * Sample usage: curl -H "Accept: application/stream+json"
+	 * $HOST:$PORT/post-composite/1/stream
+	 *
+	 * @param postId
+	 * @param limit  the max number of reactions and of comments to return
+	 * @return the composite post info as a stream of sections, the post section
+	 *         first and then the reactions, comments and images sections as soon
+	 *         as each of them is available
+	 */
+	@ApiOperation(value = "${api.post-composite.get-composite-post-stream.description}", notes = "${api.post-composite.get-composite-post-stream.notes}")
+	@ApiResponses(value = {
+			@ApiResponse(code = 400, message = "Bad Request, invalid format of the request. See response message for more information."),
+			@ApiResponse(code = 404, message = "Not found, the specified id does not exist."),
+			@ApiResponse(code = 422, message = "Unprocessable entity, input parameters caused the processing to fail. See response message for more information.") })
+	@GetMapping(value = "/post-composite/{postId}/stream", produces = { "application/stream+json", "text/event-stream" })
+	Flux<PostAggregateSection> getCompositePostStream(
+	        @PathVariable int postId,
+	        @RequestParam(value = "limit", required = false) Integer limit
+	    );
+
+	/**
+	 * Sample usage: curl $HOST:$PORT/post-composite?postIds=1,2,3
+	 *
+	 * @param postIds
+	 * @param limit   the max number of reactions and of comments to return per
+	 *                post
+	 * @return the composite post info for the posts that were found, in the
+	 *         requested order
+	 */
+	@ApiOperation(value = "${api.post-composite.get-composite-posts.description}", notes = "${api.post-composite.get-composite-posts.notes}")
+	@ApiResponses(value = {
+			@ApiResponse(code = 400, message = "Bad Request, invalid format of the request. See response message for more information."),
+			@ApiResponse(code = 422, message = "Unprocessable entity, input parameters caused the processing to fail. See response message for more information.") })
+	@GetMapping(value = "/post-composite", produces = "application/json")
+	Flux<PostAggregate> getCompositePosts(
+	        @RequestParam(value = "postIds", required = true) List<Integer> postIds,
+	        @RequestParam(value = "limit", required = false) Integer limit
 	    );
 
 	/**
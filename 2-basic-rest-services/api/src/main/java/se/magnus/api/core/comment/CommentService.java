@@ -3,10 +3,14 @@ package se.magnus.api.core.comment;
 import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Flux;
 
+import java.util.List;
+
 public interface CommentService {
 
     Comment createComment(@RequestBody Comment body);
 
+    List<Comment> createComments(@RequestBody List<Comment> body);
+
     /**
      * Sample usage: curl $HOST:$PORT/comment?postId=1
      *
@@ -15,8 +19,52 @@ public interface CommentService {
      */
     @GetMapping(
         value    = "/comment",
-        produces = "application/json")
+        produces = { "application/json", "application/x-jackson-smile" })
     Flux<Comment> getComments(@RequestParam(value = "postId", required = true) int postId);
 
+    /**
+     * Sample usage: curl "$HOST:$PORT/comment?postId=1&limit=100&after=42"
+     *
+     * @param postId
+     * @param limit the max number of comments to return
+     * @param after the commentId to continue after, from the first comment if not specified
+     * @return the comments ordered by commentId
+     */
+    @GetMapping(
+        value    = "/comment",
+        params   = "limit",
+        produces = { "application/json", "application/x-jackson-smile" })
+    Flux<Comment> getComments(
+        @RequestParam(value = "postId", required = true) int postId,
+        @RequestParam(value = "limit", required = true) int limit,
+        @RequestParam(value = "after", required = false) Integer after);
+
+    /**
+     * Sample usage: curl $HOST:$PORT/comment?postIds=1,2,3
+     *
+     * @param postIds
+     * @return
+     */
+    @GetMapping(
+        value    = "/comment",
+        params   = "postIds",
+        produces = { "application/json", "application/x-jackson-smile" })
+    Flux<Comment> getComments(@RequestParam(value = "postIds", required = true) List<Integer> postIds);
+
+    /**
+     * Sample usage: curl "$HOST:$PORT/comment?postIds=1,2,3&limit=100"
+     *
+     * @param postIds
+     * @param limit the max number of comments to return for each post
+     * @return the first comments of each post, ordered by postId and commentId
+     */
+    @GetMapping(
+        value    = "/comment",
+        params   = { "postIds", "limit" },
+        produces = { "application/json", "application/x-jackson-smile" })
+    Flux<Comment> getComments(
+        @RequestParam(value = "postIds", required = true) List<Integer> postIds,
+        @RequestParam(value = "limit", required = true) int limit);
+
     void deleteComments(@RequestParam(value = "postId", required = true)  int postId);
 }
@@ -3,10 +3,14 @@ package se.magnus.api.core.image;
 import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Flux;
 
+import java.util.List;
+
 public interface ImageService {
 
     Image createImage(@RequestBody Image body);
 
+    List<Image> createImages(@RequestBody List<Image> body);
+
     /**
      * Sample usage: curl $HOST:$PORT/image?postId=1
      *
@@ -15,8 +19,20 @@ public interface ImageService {
      */
     @GetMapping(
         value    = "/image",
-        produces = "application/json")
+        produces = { "application/json", "application/x-jackson-smile" })
     Flux<Image> getImages(@RequestParam(value = "postId", required = true) int postId);
 
+    /**
+     * Sample usage: curl $HOST:$PORT/image?postIds=1,2,3
+     *
+     * @param postIds
+     * @return
+     */
+    @GetMapping(
+        value    = "/image",
+        params   = "postIds",
+        produces = { "application/json", "application/x-jackson-smile" })
+    Flux<Image> getImages(@RequestParam(value = "postIds", required = true) List<Integer> postIds);
+
     void deleteImages(@RequestParam(value = "postId", required = true)  int postId);
 }
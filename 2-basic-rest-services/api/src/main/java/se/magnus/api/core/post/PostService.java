@@ -1,8 +1,11 @@
 package se.magnus.api.core.post;
 
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.List;
+
 public interface PostService {
 
 	Post createPost(@RequestBody Post body);
@@ -13,10 +16,19 @@ public interface PostService {
 	 * @param postId
 	 * @return the post, if found, else null
 	 */
-	@GetMapping(value = "/post/{postId}", produces = "application/json")
+	@GetMapping(value = "/post/{postId}", produces = { "application/json", "application/x-jackson-smile" })
 	Mono<Post> getPost(@PathVariable int postId,
 			@RequestParam(value = "delay", required = false, defaultValue = "0") int delay,
 			@RequestParam(value = "faultPercent", required = false, defaultValue = "0") int faultPercent);
 
+	/**
+	 * Sample usage: curl $HOST:$PORT/post?postIds=1,2,3
+	 *
+	 * @param postIds
+	 * @return the posts that were found, unknown postIds are skipped
+	 */
+	@GetMapping(value = "/post", produces = { "application/json", "application/x-jackson-smile" })
+	Flux<Post> getPosts(@RequestParam(value = "postIds", required = true) List<Integer> postIds);
+
 	void deletePost(@PathVariable int postId);
 }
@@ -0,0 +1,48 @@
+package se.magnus.api.core.reaction;
+
+import java.util.Map;
+
+public class ReactionCounts {
+	private int postId;
+	private Map<String, Long> counts;
+	private String serviceAddress;
+
+	public ReactionCounts() {
+		this.postId = 0;
+		this.counts = null;
+		this.serviceAddress = null;
+	}
+
+	public ReactionCounts(int postId, Map<String, Long> counts, String serviceAddress) {
+		this.postId = postId;
+		this.counts = counts;
+		this.serviceAddress = serviceAddress;
+	}
+
+	public int getPostId() {
+		return postId;
+	}
+
+	public void setPostId(int postId) {
+		this.postId = postId;
+	}
+
+	/**
+	 * @return the number of reactions per type of reaction
+	 */
+	public Map<String, Long> getCounts() {
+		return counts;
+	}
+
+	public void setCounts(Map<String, Long> counts) {
+		this.counts = counts;
+	}
+
+	public String getServiceAddress() {
+		return serviceAddress;
+	}
+
+	public void setServiceAddress(String serviceAddress) {
+		this.serviceAddress = serviceAddress;
+	}
+}
@@ -2,11 +2,16 @@ package se.magnus.api.core.reaction;
 
 import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
 
 public interface ReactionService {
 
     Reaction createReaction(@RequestBody Reaction body);
 
+    List<Reaction> createReactions(@RequestBody List<Reaction> body);
+
     /**
      * Sample usage:
      *
@@ -17,8 +22,65 @@ public interface ReactionService {
      */
     @GetMapping(
         value    = "/reaction",
-        produces = "application/json")
+        produces = { "application/json", "application/x-jackson-smile" })
     Flux<Reaction> getReactions(@RequestParam(value = "postId", required = true) int postId);
 
+    /**
+     * Sample usage:
+     *
+     * curl "$HOST:$PORT/reaction?postId=1&limit=100&after=42"
+     *
+     * @param postId
+     * @param limit the max number of reactions to return
+     * @param after the reactionId to continue after, from the first reaction if not specified
+     * @return the reactions ordered by reactionId
+     */
+    @GetMapping(
+        value    = "/reaction",
+        params   = "limit",
+        produces = { "application/json", "application/x-jackson-smile" })
+    Flux<Reaction> getReactions(
+        @RequestParam(value = "postId", required = true) int postId,
+        @RequestParam(value = "limit", required = true) int limit,
+        @RequestParam(value = "after", required = false) Integer after);
+
+    /**
+     * Sample usage: curl $HOST:$PORT/reaction?postIds=1,2,3
+     *
+     * @param postIds
+     * @return
+     */
+    @GetMapping(
+        value    = "/reaction",
+        params   = "postIds",
+        produces = { "application/json", "application/x-jackson-smile" })
+    Flux<Reaction> getReactions(@RequestParam(value = "postIds", required = true) List<Integer> postIds);
+
+    /**
+     * Sample usage: curl "$HOST:$PORT/reaction?postIds=1,2,3&limit=100"
+     *
+     * @param postIds
+     * @param limit the max number of reactions to return for each post
+     * @return the first reactions of each post, ordered by postId and reactionId
+     */
+    @GetMapping(
+        value    = "/reaction",
+        params   = { "postIds", "limit" },
+        produces = { "application/json", "application/x-jackson-smile" })
+    Flux<Reaction> getReactions(
+        @RequestParam(value = "postIds", required = true) List<Integer> postIds,
+        @RequestParam(value = "limit", required = true) int limit);
+
+    /**
+     * Sample usage: curl $HOST:$PORT/reaction/count?postId=1
+     *
+     * @param postId
+     * @return the number of reactions of each type for the post
+     */
+    @GetMapping(
+        value    = "/reaction/count",
+        produces = { "application/json", "application/x-jackson-smile" })
+    Mono<ReactionCounts> getReactionCounts(@RequestParam(value = "postId", required = true) int postId);
+
     void deleteReactions(@RequestParam(value = "postId", required = true)  int postId);
 }
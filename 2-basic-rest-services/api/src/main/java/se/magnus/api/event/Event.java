@@ -1,32 +1,58 @@
 package se.magnus.api.event;
 
 import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
 
 import static java.time.LocalDateTime.now;
 
 public class Event<K, T> {
 
-    public enum Type {CREATE, DELETE}
+    public enum Type {CREATE, DELETE, BULK_CREATE}
 
+    private String eventId;
     private Event.Type eventType;
     private K key;
     private T data;
+    private List<T> dataList;
     private LocalDateTime eventCreatedAt;
 
     public Event() {
+        this.eventId = null;
         this.eventType = null;
         this.key = null;
         this.data = null;
+        this.dataList = null;
         this.eventCreatedAt = null;
     }
 
     public Event(Type eventType, K key, T data) {
+        this.eventId = UUID.randomUUID().toString();
         this.eventType = eventType;
         this.key = key;
         this.data = data;
         this.eventCreatedAt = now();
     }
 
+    /**
+     * Creates a BULK_CREATE event, carrying all entities of one type that
+     * belong to the same key, to be stored in one bulk write.
+     */
+    public static <K, T> Event<K, T> bulkCreate(K key, List<T> dataList) {
+        Event<K, T> event = new Event<>(Type.BULK_CREATE, key, null);
+        event.dataList = dataList;
+        return event;
+    }
+
+    /**
+     * A unique ID of the event, kept when the event is redelivered, that lets
+     * the consumers skip events they have already processed. Events from
+     * producers that do not set it have no ID.
+     */
+    public String getEventId() {
+        return eventId;
+    }
+
     public Type getEventType() {
         return eventType;
     }
@@ -39,6 +65,10 @@ public class Event<K, T> {
         return data;
     }
 
+    public List<T> getDataList() {
+        return dataList;
+    }
+
     public LocalDateTime getEventCreatedAt() {
         return eventCreatedAt;
     }
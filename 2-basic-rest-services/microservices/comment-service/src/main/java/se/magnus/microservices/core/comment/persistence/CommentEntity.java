@@ -8,7 +8,14 @@ import javax.persistence.*;
 @Table(name = "comments", indexes = { @Index(name = "comments_unique_idx", unique = true, columnList = "postId,commentId") })
 public class CommentEntity {
 
-    @Id @GeneratedValue
+    static final String ID_GENERATOR_TABLE = "id_generator";
+    static final int ID_ALLOCATION_SIZE = 50;
+
+    // Ids are reserved from a table in blocks of 50, an IDENTITY column would disable the batching of inserts
+    @Id
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "comment_id")
+    @TableGenerator(name = "comment_id", table = ID_GENERATOR_TABLE, pkColumnName = "sequence_name",
+        valueColumnName = "next_val", pkColumnValue = "comments", allocationSize = ID_ALLOCATION_SIZE)
     private int id;
 
     @Version
@@ -0,0 +1,24 @@
+package se.magnus.microservices.core.comment.persistence;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import se.magnus.util.persistence.IdGeneratorSeeder;
+
+import javax.persistence.EntityManagerFactory;
+
+import static se.magnus.microservices.core.comment.persistence.CommentEntity.ID_ALLOCATION_SIZE;
+import static se.magnus.microservices.core.comment.persistence.CommentEntity.ID_GENERATOR_TABLE;
+
+/**
+ * Raises the "comments" row of the id_generator table above the ids in the
+ * comments table at startup, before any comment is inserted.
+ */
+@Component
+public class CommentIdGeneratorSeeder extends IdGeneratorSeeder {
+
+    @Autowired
+    public CommentIdGeneratorSeeder(JdbcTemplate jdbcTemplate, EntityManagerFactory entityManagerFactory) {
+        super(jdbcTemplate, entityManagerFactory, "comments", ID_GENERATOR_TABLE, "comments", ID_ALLOCATION_SIZE);
+    }
+}
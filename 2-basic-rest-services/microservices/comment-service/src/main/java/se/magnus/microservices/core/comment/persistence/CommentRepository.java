@@ -1,12 +1,48 @@
 package se.magnus.microservices.core.comment.persistence;
 
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.List;
 
 public interface CommentRepository extends CrudRepository<CommentEntity, Integer> {
 
     @Transactional(readOnly = true)
     List<CommentEntity> findByPostId(int postId);
-}
\ No newline at end of file
+
+    @Transactional(readOnly = true)
+    List<CommentEntity> findByPostIdIn(Collection<Integer> postIds);
+
+    // Keyset pagination, served by the unique (postId, commentId) index
+    @Transactional(readOnly = true)
+    List<CommentEntity> findByPostIdOrderByCommentIdAsc(int postId, Pageable pageable);
+
+    @Transactional(readOnly = true)
+    List<CommentEntity> findByPostIdAndCommentIdGreaterThanOrderByCommentIdAsc(int postId, int commentId, Pageable pageable);
+
+    // Set-based deletes, one statement instead of loading the entities and deleting them one by one
+    @Modifying
+    @Transactional
+    @Query("delete from CommentEntity c where c.postId = :postId")
+    int deleteByPostId(@Param("postId") int postId);
+
+    @Modifying
+    @Transactional
+    @Query("delete from CommentEntity c where c.postId in :postIds")
+    int deleteByPostIdIn(@Param("postIds") Collection<Integer> postIds);
+
+    // A chunk of the ids of a post, to delete a large post in several short transactions
+    @Transactional(readOnly = true)
+    @Query("select c.id from CommentEntity c where c.postId = :postId order by c.id")
+    List<Integer> findIdsByPostId(@Param("postId") int postId, Pageable pageable);
+
+    @Modifying
+    @Transactional
+    @Query("delete from CommentEntity c where c.id in :ids")
+    int deleteByIdIn(@Param("ids") Collection<Integer> ids);
+}
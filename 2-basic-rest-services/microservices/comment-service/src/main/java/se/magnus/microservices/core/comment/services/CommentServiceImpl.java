@@ -4,7 +4,10 @@ import org.reactivestreams.Publisher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.web.bind.annotation.RestController;
 import reactor.core.publisher.Flux;
 import reactor.core.scheduler.Scheduler;
@@ -15,10 +18,13 @@ import se.magnus.microservices.core.comment.persistence.CommentRepository;
 import se.magnus.util.exceptions.InvalidInputException;
 import se.magnus.util.http.ServiceUtil;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.TreeSet;
 import java.util.function.Supplier;
 
 import static java.util.logging.Level.FINE;
+import static java.util.stream.Collectors.toList;
 
 @RestController
 public class CommentServiceImpl implements CommentService {
@@ -33,9 +39,13 @@ public class CommentServiceImpl implements CommentService {
 
     private final Scheduler scheduler;
 
+    private final int deleteChunkSize;
+
     @Autowired
-    public CommentServiceImpl(Scheduler scheduler, CommentRepository repository, CommentMapper mapper, ServiceUtil serviceUtil) {
+    public CommentServiceImpl(Scheduler scheduler, CommentRepository repository, CommentMapper mapper, ServiceUtil serviceUtil,
+        @Value("${app.bulk-delete.chunkSize:0}") int deleteChunkSize) {
         this.scheduler = scheduler;
+        this.deleteChunkSize = deleteChunkSize;
         this.repository = repository;
         this.mapper = mapper;
         this.serviceUtil = serviceUtil;
@@ -56,6 +66,23 @@ public class CommentServiceImpl implements CommentService {
 		}
 	}
 	
+	@Override
+	public List<Comment> createComments(List<Comment> body) {
+		try {
+			// saveAll stores all comments in one transaction, the inserts are sent in JDBC batches
+			List<CommentEntity> entities = body.stream().map(mapper::apiToEntity).collect(toList());
+			List<CommentEntity> newEntities = new ArrayList<>();
+			repository.saveAll(entities).forEach(newEntities::add);
+
+			LOG.debug("createComments: created {} comment entities", newEntities.size());
+			return mapper.entityListToApiList(newEntities);
+
+		} catch (DataIntegrityViolationException dive) {
+			throw new InvalidInputException("Duplicate key, Post Id: " + body.get(0).getPostId() + ", Comment Ids:"
+					+ body.stream().map(Comment::getCommentId).collect(toList()));
+		}
+	}
+
 	@Override
     public Flux<Comment> getComments(int postId) {
 
@@ -74,13 +101,102 @@ public class CommentServiceImpl implements CommentService {
 
         LOG.debug("getComments: response size: {}", list.size());
 
+        return list;
+    }
+
+	@Override
+    public Flux<Comment> getComments(int postId, int limit, Integer after) {
+
+        if (postId < 1) throw new InvalidInputException("Invalid postId: " + postId);
+
+        if (limit < 1) throw new InvalidInputException("Invalid limit: " + limit);
+
+        LOG.info("Will get at most {} comments for post with id={} after commentId={}", limit, postId, after);
+
+        return asyncFlux(() -> Flux.fromIterable(getPageByPostId(postId, limit, after))).log(null, FINE);
+    }
+
+	protected List<Comment> getPageByPostId(int postId, int limit, Integer after) {
+
+        Pageable page = PageRequest.of(0, limit);
+        List<CommentEntity> entityList = (after == null) ? repository.findByPostIdOrderByCommentIdAsc(postId, page)
+            : repository.findByPostIdAndCommentIdGreaterThanOrderByCommentIdAsc(postId, after, page);
+        List<Comment> list = mapper.entityListToApiList(entityList);
+        list.forEach(e -> e.setServiceAddress(serviceUtil.getServiceAddress()));
+
+        LOG.debug("getComments: response size: {}", list.size());
+
+        return list;
+    }
+
+	@Override
+    public Flux<Comment> getComments(List<Integer> postIds) {
+
+        postIds.forEach(postId -> {
+            if (postId < 1) throw new InvalidInputException("Invalid postId: " + postId);
+        });
+
+        LOG.info("Will get comments for posts with ids={}", postIds);
+
+        return asyncFlux(() -> Flux.fromIterable(getByPostIds(postIds))).log(null, FINE);
+    }
+
+	protected List<Comment> getByPostIds(List<Integer> postIds) {
+
+        List<CommentEntity> entityList = repository.findByPostIdIn(postIds);
+        List<Comment> list = mapper.entityListToApiList(entityList);
+        list.forEach(e -> e.setServiceAddress(serviceUtil.getServiceAddress()));
+
+        LOG.debug("getComments: response size: {}", list.size());
+
+        return list;
+    }
+
+	@Override
+    public Flux<Comment> getComments(List<Integer> postIds, int limit) {
+
+        postIds.forEach(postId -> {
+            if (postId < 1) throw new InvalidInputException("Invalid postId: " + postId);
+        });
+
+        if (limit < 1) throw new InvalidInputException("Invalid limit: " + limit);
+
+        LOG.info("Will get at most {} comments for each of the posts with ids={}", limit, postIds);
+
+        return asyncFlux(() -> Flux.fromIterable(getPagesByPostIds(postIds, limit))).log(null, FINE);
+    }
+
+	// One keyset query per post, so that each post returns its first page and not all of its comments
+	protected List<Comment> getPagesByPostIds(List<Integer> postIds, int limit) {
+
+        Pageable page = PageRequest.of(0, limit);
+        List<CommentEntity> entityList = new ArrayList<>();
+        new TreeSet<>(postIds).forEach(postId -> entityList.addAll(repository.findByPostIdOrderByCommentIdAsc(postId, page)));
+        List<Comment> list = mapper.entityListToApiList(entityList);
+        list.forEach(e -> e.setServiceAddress(serviceUtil.getServiceAddress()));
+
+        LOG.debug("getComments: response size: {}", list.size());
+
         return list;
     }
 
 	@Override
 	public void deleteComments(int postId) {
 		LOG.debug("deleteComments: tries to delete comments for the post with postId: {}", postId);
-		repository.deleteAll(repository.findByPostId(postId));
+
+		if (deleteChunkSize < 1) {
+			int deleted = repository.deleteByPostId(postId);
+			LOG.debug("deleteComments: deleted {} comments", deleted);
+			return;
+		}
+
+		// Each chunk is deleted in its own transaction, so that the table is not locked for the whole post
+		int deleted = 0;
+		List<Integer> ids;
+		while (!(ids = repository.findIdsByPostId(postId, PageRequest.of(0, deleteChunkSize))).isEmpty()) {
+			deleted += repository.deleteByIdIn(ids);
+		}
+		LOG.debug("deleteComments: deleted {} comments in chunks of {}", deleted, deleteChunkSize);
 	}
 	
 	private <T> Flux<T> asyncFlux(Supplier<Publisher<T>> publisherSupplier) {
@@ -3,24 +3,32 @@ package se.magnus.microservices.core.comment.services;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cloud.stream.annotation.EnableBinding;
 import org.springframework.cloud.stream.annotation.StreamListener;
 import org.springframework.cloud.stream.messaging.Sink;
 import se.magnus.api.core.comment.Comment;
 import se.magnus.api.core.comment.CommentService;
 import se.magnus.api.event.Event;
+import se.magnus.util.events.EventDeduplicator;
 import se.magnus.util.exceptions.EventProcessingException;
 
+import java.util.List;
+
 @EnableBinding(Sink.class)
 public class MessageProcessor {
 
     private static final Logger LOG = LoggerFactory.getLogger(MessageProcessor.class);
 
     private final CommentService commentService;
+    private final EventDeduplicator deduplicator;
 
     @Autowired
-    public MessageProcessor(CommentService commentService) {
+    public MessageProcessor(CommentService commentService,
+        @Value("${app.event-deduplication.maxSize:10000}") int maxSize,
+        @Value("${app.event-deduplication.ttlSeconds:3600}") long ttlSeconds) {
         this.commentService = commentService;
+        this.deduplicator = new EventDeduplicator(maxSize, ttlSeconds);
     }
 
     @StreamListener(target = Sink.INPUT)
@@ -28,6 +36,12 @@ public class MessageProcessor {
 
         LOG.info("Process message created at {}...", event.getEventCreatedAt());
 
+        // A redelivered event is acknowledged without touching the database
+        if (deduplicator.isProcessed(event.getEventId())) {
+            LOG.info("Skip event with ID: {}, it is already processed", event.getEventId());
+            return;
+        }
+
         switch (event.getEventType()) {
 
         case CREATE:
@@ -36,6 +50,12 @@ public class MessageProcessor {
             commentService.createComment(comment);
             break;
 
+        case BULK_CREATE:
+            List<Comment> comments = event.getDataList();
+            LOG.info("Create {} comments with PostID: {}", comments.size(), event.getKey());
+            commentService.createComments(comments);
+            break;
+
         case DELETE:
             int postId = event.getKey();
             LOG.info("Delete comments with PostID: {}", postId);
@@ -43,11 +63,12 @@ public class MessageProcessor {
             break;
 
         default:
-            String errorMessage = "Incorrect event type: " + event.getEventType() + ", expected a CREATE or DELETE event";
+            String errorMessage = "Incorrect event type: " + event.getEventType() + ", expected a CREATE, BULK_CREATE or DELETE event";
             LOG.warn(errorMessage);
             throw new EventProcessingException(errorMessage);
         }
 
+        deduplicator.markProcessed(event.getEventId());
         LOG.info("Message processing done!");
     }
 }
\ No newline at end of file
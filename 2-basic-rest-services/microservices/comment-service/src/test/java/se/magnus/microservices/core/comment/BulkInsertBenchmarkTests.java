@@ -0,0 +1,102 @@
+package se.magnus.microservices.core.comment;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.annotation.Transactional;
+import se.magnus.microservices.core.comment.persistence.CommentEntity;
+import se.magnus.microservices.core.comment.persistence.CommentRepository;
+
+import javax.persistence.EntityManagerFactory;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.transaction.annotation.Propagation.NOT_SUPPORTED;
+
+/**
+ * Compares the rows per second of inserting comments into H2 one by one, as
+ * createComment does, and with saveAll in JDBC batches, as createComments
+ * does. The results are logged, only the number of JDBC statements is
+ * asserted as timings vary between machines.
+ */
+@RunWith(SpringRunner.class)
+@DataJpaTest(properties = { "spring.cloud.config.enabled=false",
+		"spring.jpa.properties.hibernate.jdbc.batch_size=50", "spring.jpa.properties.hibernate.order_inserts=true",
+		"spring.jpa.properties.hibernate.generate_statistics=true" })
+@Transactional(propagation = NOT_SUPPORTED)
+public class BulkInsertBenchmarkTests {
+
+	private static final Logger LOG = LoggerFactory.getLogger(BulkInsertBenchmarkTests.class);
+
+	private static final int ROWS = 2000;
+
+	@Autowired
+	private CommentRepository repository;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	private Statistics statistics;
+
+	@Before
+	public void setupDb() {
+		repository.deleteAll();
+		statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+		// Warms up the repository and reserves the first block of ids
+		repository.saveAll(comments(1, 100));
+		repository.deleteAll();
+	}
+
+	@Test
+	public void saveAllInsertsInBatches() {
+
+		statistics.clear();
+		long singleNanos = time(() -> comments(1, ROWS).forEach(repository::save));
+		long singleStatements = statistics.getPrepareStatementCount();
+
+		repository.deleteAll();
+
+		statistics.clear();
+		long batchedNanos = time(() -> repository.saveAll(comments(1, ROWS)));
+		long batchedStatements = statistics.getPrepareStatementCount();
+
+		LOG.info("{} comments: one by one {} rows/s with {} statements - saveAll {} rows/s with {} statements", ROWS,
+				rowsPerSecond(singleNanos), singleStatements, rowsPerSecond(batchedNanos), batchedStatements);
+
+		assertEquals(ROWS, repository.count());
+		assertTrue("Expected at least " + ROWS + " statements, got " + singleStatements, singleStatements >= ROWS);
+
+		// The batches reuse their prepared insert, so the inserts are batched if there are many rows per statement
+		long rowsPerStatement = ROWS / Math.max(batchedStatements, 1);
+		assertTrue("Expected batched inserts, got " + rowsPerStatement + " rows per statement",
+				rowsPerStatement >= 10);
+	}
+
+	private List<CommentEntity> comments(int postId, int count) {
+		return IntStream.rangeClosed(1, count)
+				.mapToObj(i -> new CommentEntity(postId, i, "Nice video, thanks for sharing it!", LocalDate.of(2020, 8, 1)))
+				.collect(Collectors.toList());
+	}
+
+	private long time(Runnable runnable) {
+		long start = System.nanoTime();
+		runnable.run();
+		return System.nanoTime() - start;
+	}
+
+	private long rowsPerSecond(long nanos) {
+		return ROWS * 1_000_000_000L / Math.max(nanos, 1);
+	}
+}
@@ -0,0 +1,102 @@
+package se.magnus.microservices.core.comment;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import se.magnus.util.chaos.ChaosProperties;
+import se.magnus.util.chaos.ChaosWebFilter;
+
+import java.nio.charset.StandardCharsets;
+
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
+import static org.springframework.http.HttpStatus.SERVICE_UNAVAILABLE;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = RANDOM_PORT, properties = { "eureka.client.enabled=false",
+		"spring.datasource.url=jdbc:h2:mem:comment-db", "spring.cloud.config.enabled=false",
+		"app.chaos.enabled=true", "app.chaos.rules[0].method=GET", "app.chaos.rules[0].path=/comment",
+		"app.chaos.rules[0].delayMs=500" })
+public class ChaosTests {
+
+	private static final int DELAY_MS = 500;
+
+	@LocalServerPort
+	private int port;
+
+	@Test
+	public void delaysDoNotBlockTheEventLoop() {
+
+		WebClient client = WebClient.create("http://localhost:" + port);
+		getComments(client).block();
+
+		// Four times as many requests as there are event loop threads, blocking them would take at least 4 delays
+		int requests = 4 * Math.max(Runtime.getRuntime().availableProcessors(), 4);
+
+		long start = System.currentTimeMillis();
+		Long responses = Flux.range(0, requests).flatMap(i -> getComments(client), requests).count().block();
+		long elapsedMs = System.currentTimeMillis() - start;
+
+		assertEquals(requests, responses.intValue());
+		assertTrue("Took " + elapsedMs + " ms", elapsedMs >= DELAY_MS && elapsedMs < 2 * DELAY_MS);
+	}
+
+	@Test
+	public void injectsErrors() {
+
+		ChaosProperties.Rule rule = new ChaosProperties.Rule();
+		rule.setPath("/comment");
+		rule.setErrorPercent(100);
+		rule.setErrorStatus(SERVICE_UNAVAILABLE.value());
+
+		MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/comment?postId=1"));
+
+		StepVerifier.create(filter(rule).filter(exchange, respondWith("[]")))
+				.expectErrorMatches(ex -> ex instanceof ResponseStatusException
+						&& ((ResponseStatusException) ex).getStatus() == SERVICE_UNAVAILABLE)
+				.verify();
+	}
+
+	@Test
+	public void injectsPartialResponses() {
+
+		ChaosProperties.Rule rule = new ChaosProperties.Rule();
+		rule.setPath("/comment");
+		rule.setPartialResponsePercent(100);
+
+		MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/comment?postId=1"));
+
+		StepVerifier.create(filter(rule).filter(exchange, respondWith("[{\"commentId\":1}]")))
+				.expectError(IllegalStateException.class).verify();
+
+		assertEquals("[{\"comme", exchange.getResponse().getBodyAsString().block());
+	}
+
+	private Mono<String> getComments(WebClient client) {
+		return client.get().uri("/comment?postId=1").retrieve().bodyToMono(String.class);
+	}
+
+	private ChaosWebFilter filter(ChaosProperties.Rule rule) {
+		ChaosProperties properties = new ChaosProperties();
+		properties.setRules(singletonList(rule));
+		return new ChaosWebFilter(properties);
+	}
+
+	private WebFilterChain respondWith(String body) {
+		return exchange -> exchange.getResponse().writeWith(Mono.just(
+				new DefaultDataBufferFactory().wrap(body.getBytes(StandardCharsets.UTF_8))));
+	}
+}
@@ -7,6 +7,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.cloud.stream.messaging.Sink;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
 import org.springframework.integration.channel.AbstractMessageChannel;
 import org.springframework.messaging.MessagingException;
 import org.springframework.messaging.support.GenericMessage;
@@ -18,6 +20,8 @@ import se.magnus.api.event.Event;
 import se.magnus.microservices.core.comment.persistence.CommentRepository;
 import se.magnus.util.exceptions.InvalidInputException;
 
+import static java.util.Arrays.stream;
+import static java.util.stream.Collectors.toList;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
@@ -26,7 +30,9 @@ import static org.springframework.http.MediaType.APPLICATION_JSON;
 import static se.magnus.api.event.Event.Type.CREATE;
 import static se.magnus.api.event.Event.Type.DELETE;
 
+import java.io.IOException;
 import java.time.LocalDate;
+import java.util.List;
 
 @RunWith(SpringRunner.class)
 @SpringBootTest(webEnvironment = RANDOM_PORT, properties = { "logging.level.se.magnus=DEBUG",
@@ -68,6 +74,68 @@ public class CommentServiceApplicationTests {
 				.isEqualTo(postId).jsonPath("$[2].commentId").isEqualTo(3);
 	}
 
+	@Test
+	public void getCommentsByPostIds() {
+
+		sendCreateCommentEvent(1, 1);
+		sendCreateCommentEvent(1, 2);
+		sendCreateCommentEvent(2, 1);
+		sendCreateCommentEvent(3, 1);
+
+		client.get().uri("/comment?postIds=1,2").accept(APPLICATION_JSON).exchange().expectStatus().isEqualTo(OK)
+				.expectHeader().contentType(APPLICATION_JSON).expectBody().jsonPath("$.length()").isEqualTo(3);
+	}
+
+	@Test
+	public void getCommentsByPostIdsPageByPage() {
+
+		sendCreateCommentEvent(1, 3);
+		sendCreateCommentEvent(1, 1);
+		sendCreateCommentEvent(1, 2);
+		sendCreateCommentEvent(2, 1);
+
+		client.get().uri("/comment?postIds=2,1&limit=2").accept(APPLICATION_JSON).exchange().expectStatus()
+				.isEqualTo(OK).expectBody().jsonPath("$.length()").isEqualTo(3).jsonPath("$[0].postId").isEqualTo(1)
+				.jsonPath("$[0].commentId").isEqualTo(1).jsonPath("$[1].commentId").isEqualTo(2).jsonPath("$[2].postId")
+				.isEqualTo(2);
+
+		client.get().uri("/comment?postIds=1&limit=0").accept(APPLICATION_JSON).exchange().expectStatus()
+				.isEqualTo(UNPROCESSABLE_ENTITY).expectBody().jsonPath("$.message").isEqualTo("Invalid limit: 0");
+	}
+
+	@Test
+	public void getCommentsPageByPage() {
+
+		int postId = 1;
+
+		sendCreateCommentEvent(postId, 3);
+		sendCreateCommentEvent(postId, 1);
+		sendCreateCommentEvent(postId, 2);
+
+		getAndVerifyCommentsByPostId("?postId=" + postId + "&limit=2", OK).jsonPath("$.length()").isEqualTo(2)
+				.jsonPath("$[0].commentId").isEqualTo(1).jsonPath("$[1].commentId").isEqualTo(2);
+
+		getAndVerifyCommentsByPostId("?postId=" + postId + "&limit=2&after=2", OK).jsonPath("$.length()")
+				.isEqualTo(1).jsonPath("$[0].commentId").isEqualTo(3);
+	}
+
+	@Test
+	public void getCommentsAsSmile() throws IOException {
+
+		int postId = 1;
+
+		sendCreateCommentEvent(postId, 1);
+		sendCreateCommentEvent(postId, 2);
+
+		MediaType smile = MediaType.valueOf("application/x-jackson-smile");
+		byte[] body = client.get().uri("/comment?postId=" + postId).accept(smile).exchange().expectStatus()
+				.isEqualTo(OK).expectHeader().contentType(smile).expectBody().returnResult().getResponseBody();
+
+		Comment[] comments = Jackson2ObjectMapperBuilder.smile().build().readValue(body, Comment[].class);
+		assertEquals(2, comments.length);
+		assertEquals(2, comments[1].getCommentId());
+	}
+
 	@Test
 	public void duplicateError() {
 
@@ -95,6 +163,45 @@ public class CommentServiceApplicationTests {
 		assertEquals(1, repository.count());
 	}
 
+	@Test
+	public void redeliveredEventIsSkipped() {
+
+		int postId = 1;
+
+		Comment comment = new Comment(postId, 1, "Comment Text", LocalDate.now(), "SA");
+		Event<Integer, Comment> event = new Event(CREATE, postId, comment);
+		input.send(new GenericMessage<>(event));
+		assertEquals(1, repository.count());
+
+		// Processing the same event again would fail with a duplicate key error
+		input.send(new GenericMessage<>(event));
+		assertEquals(1, repository.count());
+	}
+
+	@Test
+	public void createCommentsInBulk() {
+
+		int postId = 1;
+
+		sendBulkCreateCommentEvent(postId, 1, 2, 3);
+		assertEquals(3, repository.findByPostId(postId).size());
+
+		// A duplicate rolls back the whole bulk write
+		try {
+			sendBulkCreateCommentEvent(postId, 4, 3);
+			fail("Expected a MessagingException here!");
+		} catch (MessagingException me) {
+			if (me.getCause() instanceof InvalidInputException) {
+				InvalidInputException iie = (InvalidInputException) me.getCause();
+				assertEquals("Duplicate key, Post Id: 1, Comment Ids:[4, 3]", iie.getMessage());
+			} else {
+				fail("Expected a InvalidInputException as the root cause!");
+			}
+		}
+
+		assertEquals(3, repository.findByPostId(postId).size());
+	}
+
 	@Test
 	public void deleteComments() {
 
@@ -158,4 +265,12 @@ public class CommentServiceApplicationTests {
 		Event<Integer, Post> event = new Event(DELETE, postId, null);
 		input.send(new GenericMessage<>(event));
 	}
+
+	private void sendBulkCreateCommentEvent(int postId, int... commentIds) {
+		List<Comment> comments = stream(commentIds)
+				.mapToObj(commentId -> new Comment(postId, commentId, "Comment Text", LocalDate.now(), "SA"))
+				.collect(toList());
+		Event<Integer, Comment> event = Event.bulkCreate(postId, comments);
+		input.send(new GenericMessage<>(event));
+	}
 }
\ No newline at end of file
@@ -7,14 +7,19 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.transaction.annotation.Transactional;
 import se.magnus.microservices.core.comment.persistence.CommentEntity;
 import se.magnus.microservices.core.comment.persistence.CommentRepository;
+import se.magnus.microservices.core.comment.persistence.CommentIdGeneratorSeeder;
 
+import javax.persistence.EntityManagerFactory;
 import java.time.LocalDate;
 import java.util.List;
 
+import static java.util.Arrays.asList;
 import static org.hamcrest.Matchers.hasSize;
 import static org.junit.Assert.*;
 import static org.springframework.transaction.annotation.Propagation.NOT_SUPPORTED;
@@ -27,6 +32,12 @@ public class PersistenceTests {
 	@Autowired
 	private CommentRepository repository;
 
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
 	private CommentEntity savedEntity;
 
 	@Before
@@ -67,6 +78,54 @@ public class PersistenceTests {
 		assertFalse(repository.existsById(savedEntity.getId()));
 	}
 
+	@Test
+	public void deleteByPostIds() {
+		repository.save(new CommentEntity(2, 1, "Comment text", LocalDate.now()));
+		repository.save(new CommentEntity(3, 1, "Comment text", LocalDate.now()));
+
+		assertEquals(2, repository.deleteByPostIdIn(asList(savedEntity.getPostId(), 2)));
+		assertEquals(1, repository.count());
+		assertEquals(1, repository.deleteByPostId(3));
+		assertEquals(0, repository.count());
+	}
+
+	@Test
+	public void deleteByPostIdInChunks() {
+		for (int commentId = 3; commentId <= 7; commentId++) {
+			repository.save(new CommentEntity(1, commentId, "Comment text", LocalDate.now()));
+		}
+
+		int chunks = 0;
+		List<Integer> ids;
+		while (!(ids = repository.findIdsByPostId(savedEntity.getPostId(), PageRequest.of(0, 2))).isEmpty()) {
+			assertEquals(ids.size(), repository.deleteByIdIn(ids));
+			chunks++;
+		}
+
+		assertEquals(3, chunks);
+		assertEquals(0, repository.count());
+	}
+
+	@Test
+	public void seedsTheIdGeneratorAboveTheExistingIds() {
+
+		// A comment with an id from hibernate_sequence, in the range of the next blocks of id_generator
+		long legacyId = jdbcTemplate.queryForObject(
+				"select next_val from id_generator where sequence_name = 'comments'", Long.class) + 1;
+		jdbcTemplate.update("insert into comments (id, version, post_id, comment_id, comment_text, comment_date)"
+				+ " values (?, 0, 2, 1, 'Comment text', ?)",
+				legacyId, LocalDate.now());
+
+		new CommentIdGeneratorSeeder(jdbcTemplate, entityManagerFactory).seed();
+
+		// Uses up the block that is reserved already, and reserves the next ones
+		for (int commentId = 3; commentId < 3 + 3 * 50; commentId++) {
+			repository.save(new CommentEntity(1, commentId, "Comment text", LocalDate.now()));
+		}
+
+		assertEquals(2 + 3 * 50, repository.count());
+	}
+
 	@Test
 	public void getByPostId() {
 		List<CommentEntity> entityList = repository.findByPostId(savedEntity.getPostId());
@@ -8,7 +8,14 @@ import javax.persistence.*;
 @Table(name = "images", indexes = { @Index(name = "images_unique_idx", unique = true, columnList = "postId,imageId") })
 public class ImageEntity {
 
-    @Id @GeneratedValue
+    static final String ID_GENERATOR_TABLE = "id_generator";
+    static final int ID_ALLOCATION_SIZE = 50;
+
+    // Ids are reserved from a table in blocks of 50, an IDENTITY column would disable the batching of inserts
+    @Id
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "image_id")
+    @TableGenerator(name = "image_id", table = ID_GENERATOR_TABLE, pkColumnName = "sequence_name",
+        valueColumnName = "next_val", pkColumnValue = "images", allocationSize = ID_ALLOCATION_SIZE)
     private int id;
 
     @Version
@@ -0,0 +1,24 @@
+package se.magnus.microservices.core.image.persistence;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import se.magnus.util.persistence.IdGeneratorSeeder;
+
+import javax.persistence.EntityManagerFactory;
+
+import static se.magnus.microservices.core.image.persistence.ImageEntity.ID_ALLOCATION_SIZE;
+import static se.magnus.microservices.core.image.persistence.ImageEntity.ID_GENERATOR_TABLE;
+
+/**
+ * Raises the "images" row of the id_generator table above the ids in the
+ * images table at startup, before any image is inserted.
+ */
+@Component
+public class ImageIdGeneratorSeeder extends IdGeneratorSeeder {
+
+    @Autowired
+    public ImageIdGeneratorSeeder(JdbcTemplate jdbcTemplate, EntityManagerFactory entityManagerFactory) {
+        super(jdbcTemplate, entityManagerFactory, "images", ID_GENERATOR_TABLE, "images", ID_ALLOCATION_SIZE);
+    }
+}
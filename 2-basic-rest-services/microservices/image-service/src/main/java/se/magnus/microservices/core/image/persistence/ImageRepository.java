@@ -1,12 +1,41 @@
 package se.magnus.microservices.core.image.persistence;
 
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.List;
 
 public interface ImageRepository extends CrudRepository<ImageEntity, Integer> {
 
     @Transactional(readOnly = true)
     List<ImageEntity> findByPostId(int postId);
+
+    @Transactional(readOnly = true)
+    List<ImageEntity> findByPostIdIn(Collection<Integer> postIds);
+
+    // Set-based deletes, one statement instead of loading the entities and deleting them one by one
+    @Modifying
+    @Transactional
+    @Query("delete from ImageEntity i where i.postId = :postId")
+    int deleteByPostId(@Param("postId") int postId);
+
+    @Modifying
+    @Transactional
+    @Query("delete from ImageEntity i where i.postId in :postIds")
+    int deleteByPostIdIn(@Param("postIds") Collection<Integer> postIds);
+
+    // A chunk of the ids of a post, to delete a large post in several short transactions
+    @Transactional(readOnly = true)
+    @Query("select i.id from ImageEntity i where i.postId = :postId order by i.id")
+    List<Integer> findIdsByPostId(@Param("postId") int postId, Pageable pageable);
+
+    @Modifying
+    @Transactional
+    @Query("delete from ImageEntity i where i.id in :ids")
+    int deleteByIdIn(@Param("ids") Collection<Integer> ids);
 }
@@ -4,7 +4,9 @@ import org.reactivestreams.Publisher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.web.bind.annotation.RestController;
 import reactor.core.publisher.Flux;
 import reactor.core.scheduler.Scheduler;
@@ -16,10 +18,12 @@ import se.magnus.microservices.core.image.persistence.ImageRepository;
 import se.magnus.util.exceptions.InvalidInputException;
 import se.magnus.util.http.ServiceUtil;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Supplier;
 
 import static java.util.logging.Level.FINE;
+import static java.util.stream.Collectors.toList;
 
 @RestController
 public class ImageServiceImpl implements ImageService {
@@ -34,9 +38,13 @@ public class ImageServiceImpl implements ImageService {
 
     private final Scheduler scheduler;
 
+    private final int deleteChunkSize;
+
     @Autowired
-    public ImageServiceImpl(Scheduler scheduler, ImageRepository repository, ImageMapper mapper, ServiceUtil serviceUtil) {
+    public ImageServiceImpl(Scheduler scheduler, ImageRepository repository, ImageMapper mapper, ServiceUtil serviceUtil,
+        @Value("${app.bulk-delete.chunkSize:0}") int deleteChunkSize) {
         this.scheduler = scheduler;
+        this.deleteChunkSize = deleteChunkSize;
         this.repository = repository;
         this.mapper = mapper;
         this.serviceUtil = serviceUtil;
@@ -56,6 +64,23 @@ public class ImageServiceImpl implements ImageService {
         }
     }
 
+    @Override
+    public List<Image> createImages(List<Image> body) {
+        try {
+            // saveAll stores all images in one transaction, the inserts are sent in JDBC batches
+            List<ImageEntity> entities = body.stream().map(mapper::apiToEntity).collect(toList());
+            List<ImageEntity> newEntities = new ArrayList<>();
+            repository.saveAll(entities).forEach(newEntities::add);
+
+            LOG.debug("createImages: created {} image entities", newEntities.size());
+            return mapper.entityListToApiList(newEntities);
+
+        } catch (DataIntegrityViolationException dive) {
+            throw new InvalidInputException("Duplicate key, Post Id: " + body.get(0).getPostId() + ", Image Ids:"
+                + body.stream().map(Image::getImageId).collect(toList()));
+        }
+    }
+
     @Override
     public Flux<Image> getImages(int postId) {
 
@@ -77,10 +102,46 @@ public class ImageServiceImpl implements ImageService {
         return list;
     }
 
+    @Override
+    public Flux<Image> getImages(List<Integer> postIds) {
+
+        postIds.forEach(postId -> {
+            if (postId < 1) throw new InvalidInputException("Invalid postId: " + postId);
+        });
+
+        LOG.info("Will get images for posts with ids={}", postIds);
+
+        return asyncFlux(() -> Flux.fromIterable(getByPostIds(postIds))).log(null, FINE);
+    }
+
+	protected List<Image> getByPostIds(List<Integer> postIds) {
+
+        List<ImageEntity> entityList = repository.findByPostIdIn(postIds);
+        List<Image> list = mapper.entityListToApiList(entityList);
+        list.forEach(e -> e.setServiceAddress(serviceUtil.getServiceAddress()));
+
+        LOG.debug("getImages: response size: {}", list.size());
+
+        return list;
+    }
+
     @Override
     public void deleteImages(int postId) {
         LOG.debug("deleteImages: tries to delete images for the post with postId: {}", postId);
-        repository.deleteAll(repository.findByPostId(postId));
+
+        if (deleteChunkSize < 1) {
+            int deleted = repository.deleteByPostId(postId);
+            LOG.debug("deleteImages: deleted {} images", deleted);
+            return;
+        }
+
+        // Each chunk is deleted in its own transaction, so that the table is not locked for the whole post
+        int deleted = 0;
+        List<Integer> ids;
+        while (!(ids = repository.findIdsByPostId(postId, PageRequest.of(0, deleteChunkSize))).isEmpty()) {
+            deleted += repository.deleteByIdIn(ids);
+        }
+        LOG.debug("deleteImages: deleted {} images in chunks of {}", deleted, deleteChunkSize);
     }
     
     private <T> Flux<T> asyncFlux(Supplier<Publisher<T>> publisherSupplier) {
@@ -3,24 +3,32 @@ package se.magnus.microservices.core.image.services;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cloud.stream.annotation.EnableBinding;
 import org.springframework.cloud.stream.annotation.StreamListener;
 import org.springframework.cloud.stream.messaging.Sink;
 import se.magnus.api.core.image.Image;
 import se.magnus.api.core.image.ImageService;
 import se.magnus.api.event.Event;
+import se.magnus.util.events.EventDeduplicator;
 import se.magnus.util.exceptions.EventProcessingException;
 
+import java.util.List;
+
 @EnableBinding(Sink.class)
 public class MessageProcessor {
 
     private static final Logger LOG = LoggerFactory.getLogger(MessageProcessor.class);
 
     private final ImageService imageService;
+    private final EventDeduplicator deduplicator;
 
     @Autowired
-    public MessageProcessor(ImageService imageService) {
+    public MessageProcessor(ImageService imageService,
+        @Value("${app.event-deduplication.maxSize:10000}") int maxSize,
+        @Value("${app.event-deduplication.ttlSeconds:3600}") long ttlSeconds) {
         this.imageService = imageService;
+        this.deduplicator = new EventDeduplicator(maxSize, ttlSeconds);
     }
 
     @StreamListener(target = Sink.INPUT)
@@ -28,6 +36,12 @@ public class MessageProcessor {
 
         LOG.info("Process message created at {}...", event.getEventCreatedAt());
 
+        // A redelivered event is acknowledged without touching the database
+        if (deduplicator.isProcessed(event.getEventId())) {
+            LOG.info("Skip event with ID: {}, it is already processed", event.getEventId());
+            return;
+        }
+
         switch (event.getEventType()) {
 
         case CREATE:
@@ -36,6 +50,12 @@ public class MessageProcessor {
             imageService.createImage(image);
             break;
 
+        case BULK_CREATE:
+            List<Image> images = event.getDataList();
+            LOG.info("Create {} images with PostID: {}", images.size(), event.getKey());
+            imageService.createImages(images);
+            break;
+
         case DELETE:
             int postId = event.getKey();
             LOG.info("Delete images with PostID: {}", postId);
@@ -43,11 +63,12 @@ public class MessageProcessor {
             break;
 
         default:
-            String errorMessage = "Incorrect event type: " + event.getEventType() + ", expected a CREATE or DELETE event";
+            String errorMessage = "Incorrect event type: " + event.getEventType() + ", expected a CREATE, BULK_CREATE or DELETE event";
             LOG.warn(errorMessage);
             throw new EventProcessingException(errorMessage);
         }
 
+        deduplicator.markProcessed(event.getEventId());
         LOG.info("Message processing done!");
     }
 }
\ No newline at end of file
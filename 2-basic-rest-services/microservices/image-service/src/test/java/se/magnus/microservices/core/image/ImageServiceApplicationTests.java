@@ -18,6 +18,8 @@ import se.magnus.api.event.Event;
 import se.magnus.microservices.core.image.persistence.ImageRepository;
 import se.magnus.util.exceptions.InvalidInputException;
 
+import static java.util.Arrays.stream;
+import static java.util.stream.Collectors.toList;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
@@ -27,6 +29,7 @@ import static se.magnus.api.event.Event.Type.CREATE;
 import static se.magnus.api.event.Event.Type.DELETE;
 
 import java.time.LocalDate;
+import java.util.List;
 
 @RunWith(SpringRunner.class)
 @SpringBootTest(webEnvironment = RANDOM_PORT, properties = { "logging.level.se.magnus=DEBUG",
@@ -68,6 +71,18 @@ public class ImageServiceApplicationTests {
 				.isEqualTo(postId).jsonPath("$[2].imageId").isEqualTo(3);
 	}
 
+	@Test
+	public void getImagesByPostIds() {
+
+		sendCreateImageEvent(1, 1);
+		sendCreateImageEvent(1, 2);
+		sendCreateImageEvent(2, 1);
+		sendCreateImageEvent(3, 1);
+
+		client.get().uri("/image?postIds=1,2").accept(APPLICATION_JSON).exchange().expectStatus().isEqualTo(OK)
+				.expectHeader().contentType(APPLICATION_JSON).expectBody().jsonPath("$.length()").isEqualTo(3);
+	}
+
 	@Test
 	public void duplicateError() {
 
@@ -95,6 +110,45 @@ public class ImageServiceApplicationTests {
 		assertEquals(1, repository.count());
 	}
 
+	@Test
+	public void redeliveredEventIsSkipped() {
+
+		int postId = 1;
+
+		Image image = new Image(postId, 1, "Image Url", LocalDate.now(), "SA");
+		Event<Integer, Image> event = new Event(CREATE, postId, image);
+		input.send(new GenericMessage<>(event));
+		assertEquals(1, repository.count());
+
+		// Processing the same event again would fail with a duplicate key error
+		input.send(new GenericMessage<>(event));
+		assertEquals(1, repository.count());
+	}
+
+	@Test
+	public void createImagesInBulk() {
+
+		int postId = 1;
+
+		sendBulkCreateImageEvent(postId, 1, 2, 3);
+		assertEquals(3, repository.findByPostId(postId).size());
+
+		// A duplicate rolls back the whole bulk write
+		try {
+			sendBulkCreateImageEvent(postId, 4, 3);
+			fail("Expected a MessagingException here!");
+		} catch (MessagingException me) {
+			if (me.getCause() instanceof InvalidInputException) {
+				InvalidInputException iie = (InvalidInputException) me.getCause();
+				assertEquals("Duplicate key, Post Id: 1, Image Ids:[4, 3]", iie.getMessage());
+			} else {
+				fail("Expected a InvalidInputException as the root cause!");
+			}
+		}
+
+		assertEquals(3, repository.findByPostId(postId).size());
+	}
+
 	@Test
 	public void deleteImages() {
 
@@ -158,4 +212,11 @@ public class ImageServiceApplicationTests {
 		Event<Integer, Post> event = new Event(DELETE, postId, null);
 		input.send(new GenericMessage<>(event));
 	}
+
+	private void sendBulkCreateImageEvent(int postId, int... imageIds) {
+		List<Image> images = stream(imageIds)
+				.mapToObj(imageId -> new Image(postId, imageId, "Image Url", LocalDate.now(), "SA")).collect(toList());
+		Event<Integer, Image> event = Event.bulkCreate(postId, images);
+		input.send(new GenericMessage<>(event));
+	}
 }
\ No newline at end of file
@@ -7,14 +7,18 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.transaction.annotation.Transactional;
 import se.magnus.microservices.core.image.persistence.ImageEntity;
 import se.magnus.microservices.core.image.persistence.ImageRepository;
+import se.magnus.microservices.core.image.persistence.ImageIdGeneratorSeeder;
 
+import javax.persistence.EntityManagerFactory;
 import java.time.LocalDate;
 import java.util.List;
 
+import static java.util.Arrays.asList;
 import static org.hamcrest.Matchers.hasSize;
 import static org.junit.Assert.*;
 import static org.springframework.transaction.annotation.Propagation.NOT_SUPPORTED;
@@ -27,6 +31,12 @@ public class PersistenceTests {
 	@Autowired
 	private ImageRepository repository;
 
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
 	private ImageEntity savedEntity;
 
 	@Before
@@ -67,6 +77,37 @@ public class PersistenceTests {
 		assertFalse(repository.existsById(savedEntity.getId()));
 	}
 
+	@Test
+	public void deleteByPostIds() {
+		repository.save(new ImageEntity(2, 1, "Image URL", LocalDate.now()));
+		repository.save(new ImageEntity(3, 1, "Image URL", LocalDate.now()));
+
+		assertEquals(2, repository.deleteByPostIdIn(asList(savedEntity.getPostId(), 2)));
+		assertEquals(1, repository.count());
+		assertEquals(1, repository.deleteByPostId(3));
+		assertEquals(0, repository.count());
+	}
+
+	@Test
+	public void seedsTheIdGeneratorAboveTheExistingIds() {
+
+		// A image with an id from hibernate_sequence, in the range of the next blocks of id_generator
+		long legacyId = jdbcTemplate.queryForObject(
+				"select next_val from id_generator where sequence_name = 'images'", Long.class) + 1;
+		jdbcTemplate.update("insert into images (id, version, post_id, image_id, image_url, upload_date)"
+				+ " values (?, 0, 2, 1, 'Image URL', ?)",
+				legacyId, LocalDate.now());
+
+		new ImageIdGeneratorSeeder(jdbcTemplate, entityManagerFactory).seed();
+
+		// Uses up the block that is reserved already, and reserves the next ones
+		for (int imageId = 3; imageId < 3 + 3 * 50; imageId++) {
+			repository.save(new ImageEntity(1, imageId, "Image URL", LocalDate.now()));
+		}
+
+		assertEquals(2 + 3 * 50, repository.count());
+	}
+
 	@Test
 	public void getByPostId() {
 		List<ImageEntity> entityList = repository.findByPostId(savedEntity.getPostId());
@@ -0,0 +1,32 @@
+package se.magnus.microservices.composite.post;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerCodecConfigurer;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import org.springframework.web.reactive.config.WebFluxConfigurer;
+
+/**
+ * Decodes newline delimited JSON, "application/x-ndjson", for the bulk
+ * endpoint. The Jackson decoder reads a stream of JSON objects one at a time
+ * when asked for a Flux, regardless of the line breaks between them.
+ */
+@Configuration
+public class NdjsonCodecConfiguration implements WebFluxConfigurer {
+
+	public static final MediaType APPLICATION_NDJSON = MediaType.valueOf("application/x-ndjson");
+
+	private final ObjectMapper mapper;
+
+	@Autowired
+	public NdjsonCodecConfiguration(ObjectMapper mapper) {
+		this.mapper = mapper;
+	}
+
+	@Override
+	public void configureHttpMessageCodecs(ServerCodecConfigurer configurer) {
+		configurer.customCodecs().register(new Jackson2JsonDecoder(mapper, APPLICATION_NDJSON));
+	}
+}
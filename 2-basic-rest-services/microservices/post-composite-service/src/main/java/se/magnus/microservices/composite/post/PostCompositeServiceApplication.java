@@ -6,10 +6,14 @@ import org.springframework.boot.SpringApplication;
 import org.springframework.boot.actuate.health.*;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cloud.client.loadbalancer.LoadBalanced;
+import org.springframework.cloud.netflix.ribbon.RibbonClient;
+import org.springframework.cloud.netflix.ribbon.RibbonClients;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
+import org.springframework.http.codec.json.Jackson2SmileDecoder;
 import org.springframework.web.reactive.function.client.WebClient;
 import se.magnus.microservices.composite.post.services.PostCompositeIntegration;
+import se.magnus.microservices.composite.post.services.PowerOfTwoChoicesConfiguration;
 import springfox.documentation.builders.PathSelectors;
 import springfox.documentation.service.ApiInfo;
 import springfox.documentation.service.Contact;
@@ -24,6 +28,10 @@ import static springfox.documentation.spi.DocumentationType.SWAGGER_2;
 
 @SpringBootApplication
 @ComponentScan("se.magnus")
+@RibbonClients({ @RibbonClient(name = "post", configuration = PowerOfTwoChoicesConfiguration.class),
+		@RibbonClient(name = "reaction", configuration = PowerOfTwoChoicesConfiguration.class),
+		@RibbonClient(name = "comment", configuration = PowerOfTwoChoicesConfiguration.class),
+		@RibbonClient(name = "image", configuration = PowerOfTwoChoicesConfiguration.class) })
 public class PostCompositeServiceApplication {
 
 	@Value("${api.common.version}")
@@ -64,7 +72,9 @@ public class PostCompositeServiceApplication {
 	@Bean
 	@LoadBalanced
 	public WebClient.Builder loadBalancedWebClientBuilder() {
-		final WebClient.Builder builder = WebClient.builder();
+		// Lets the core services answer with Smile, see PostCompositeIntegration
+		final WebClient.Builder builder = WebClient.builder()
+				.codecs(codecs -> codecs.customCodecs().register(new Jackson2SmileDecoder()));
 		return builder;
 	}
 
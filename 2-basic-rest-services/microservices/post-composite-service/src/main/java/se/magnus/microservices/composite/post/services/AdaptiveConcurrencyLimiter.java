@@ -0,0 +1,100 @@
+package se.magnus.microservices.composite.post.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An AIMD (additive increase, multiplicative decrease) limit on the number of
+ * concurrent requests.
+ *
+ * The limit grows by one for each request that completes within the latency
+ * threshold while at least half of the limit is in use, and is multiplied by
+ * the backoff ratio for each request that is slower or fails. Under overload
+ * the limit shrinks to what the core services can answer in time, instead of
+ * letting the latency climb until the calls to them time out.
+ *
+ * The current limit, the number of requests in flight and the number of
+ * rejected requests are exposed through the actuator metrics endpoint as
+ * "concurrency.limit", "concurrency.inflight" and "concurrency.rejected".
+ */
+public class AdaptiveConcurrencyLimiter {
+
+	private static final Logger LOG = LoggerFactory.getLogger(AdaptiveConcurrencyLimiter.class);
+
+	private final int minLimit;
+	private final int maxLimit;
+	private final double backoffRatio;
+	private final long latencyThresholdNanos;
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private volatile double limit;
+
+	private final Counter rejected;
+
+	public AdaptiveConcurrencyLimiter(MeterRegistry meterRegistry, int initialLimit, int minLimit, int maxLimit,
+			double backoffRatio, Duration latencyThreshold) {
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.backoffRatio = backoffRatio;
+		this.latencyThresholdNanos = latencyThreshold.toNanos();
+		this.limit = initialLimit;
+
+		meterRegistry.gauge("concurrency.limit", this, AdaptiveConcurrencyLimiter::getLimit);
+		meterRegistry.gauge("concurrency.inflight", inFlight);
+		this.rejected = meterRegistry.counter("concurrency.rejected");
+	}
+
+	public int getLimit() {
+		return (int) limit;
+	}
+
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	/**
+	 * @return true if the request may proceed, in which case one of the
+	 *         release methods must be called when it completes
+	 */
+	public boolean tryAcquire() {
+		if (inFlight.incrementAndGet() > getLimit()) {
+			inFlight.decrementAndGet();
+			rejected.increment();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Releases a request that completed, and adjusts the limit to its latency.
+	 */
+	public void release(long latencyNanos, boolean failed) {
+		int current = inFlight.getAndDecrement();
+
+		synchronized (this) {
+			if (failed || latencyNanos > latencyThresholdNanos) {
+				double decreased = Math.max(minLimit, limit * backoffRatio);
+				if ((int) decreased < (int) limit) {
+					LOG.debug("Decreases the concurrency limit to {}, latency: {} ms, failed: {}", (int) decreased,
+							Duration.ofNanos(latencyNanos).toMillis(), failed);
+				}
+				limit = decreased;
+			} else if (current * 2 >= limit) {
+				// Only grow the limit when it is actually used, or it grows without bounds while the load is low
+				limit = Math.min(maxLimit, limit + 1);
+			}
+		}
+	}
+
+	/**
+	 * Releases a request that was cancelled, without adjusting the limit.
+	 */
+	public void release() {
+		inFlight.decrementAndGet();
+	}
+}
@@ -0,0 +1,128 @@
+package se.magnus.microservices.composite.post.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.springframework.http.HttpStatus.SERVICE_UNAVAILABLE;
+
+/**
+ * Sheds the requests to the composite API that exceed the adaptive
+ * concurrency limit with a 503, Service Unavailable, before they reach the
+ * core services. Requests that fail with a 5xx status count as slow requests.
+ *
+ * The streaming endpoints, the NDJSON bulk create and the stream of a
+ * composite post, stay open as long as the client sends or reads, so their
+ * duration says nothing about overload. They are kept out of the adaptive
+ * limit, and get a fixed limit of streamLimit concurrent streams instead.
+ *
+ * Other requests, e.g. to the actuator endpoints, are never limited, so that
+ * the health checks still answer under overload.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class ConcurrencyLimitFilter implements WebFilter {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ConcurrencyLimitFilter.class);
+
+	private static final String LIMITED_PATH = "/post-composite";
+	private static final String BULK_PATH = LIMITED_PATH + "/bulk";
+	private static final String STREAM_SUFFIX = "/stream";
+
+	private final boolean enabled;
+
+	private final AdaptiveConcurrencyLimiter limiter;
+
+	private final int streamLimit;
+	private final AtomicInteger streamsInFlight = new AtomicInteger();
+	private final Counter streamsRejected;
+
+	@Autowired
+	public ConcurrencyLimitFilter(MeterRegistry meterRegistry,
+			@Value("${app.post-composite.concurrency.enabled}") boolean enabled,
+			@Value("${app.post-composite.concurrency.initialLimit}") int initialLimit,
+			@Value("${app.post-composite.concurrency.minLimit}") int minLimit,
+			@Value("${app.post-composite.concurrency.maxLimit}") int maxLimit,
+			@Value("${app.post-composite.concurrency.backoffRatio}") double backoffRatio,
+			@Value("${app.post-composite.concurrency.latencyThresholdMs}") int latencyThresholdMs,
+			@Value("${app.post-composite.concurrency.streamLimit}") int streamLimit) {
+
+		LOG.info(
+				"Creates a concurrency limit filter, enabled: {}, initialLimit: {}, minLimit: {}, maxLimit: {}, backoffRatio: {}, latencyThresholdMs: {}, streamLimit: {}",
+				enabled, initialLimit, minLimit, maxLimit, backoffRatio, latencyThresholdMs, streamLimit);
+
+		this.enabled = enabled;
+		this.limiter = new AdaptiveConcurrencyLimiter(meterRegistry, initialLimit, minLimit, maxLimit, backoffRatio,
+				Duration.ofMillis(latencyThresholdMs));
+
+		this.streamLimit = streamLimit;
+		meterRegistry.gauge("concurrency.streams.inflight", streamsInFlight);
+		this.streamsRejected = meterRegistry.counter("concurrency.streams.rejected");
+	}
+
+	public AdaptiveConcurrencyLimiter getLimiter() {
+		return limiter;
+	}
+
+	@Override
+	public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+
+		String path = exchange.getRequest().getPath().value();
+		if (!enabled || !path.startsWith(LIMITED_PATH)) {
+			return chain.filter(exchange);
+		}
+
+		if (path.equals(BULK_PATH) || path.endsWith(STREAM_SUFFIX)) {
+			return filterStream(exchange, chain);
+		}
+
+		if (!limiter.tryAcquire()) {
+			LOG.debug("Rejects a request, {} requests in flight, limit: {}", limiter.getInFlight(),
+					limiter.getLimit());
+			return reject(exchange);
+		}
+
+		long start = System.nanoTime();
+		return chain.filter(exchange).doFinally(signal -> {
+			if (signal == SignalType.CANCEL) {
+				limiter.release();
+			} else {
+				HttpStatus status = exchange.getResponse().getStatusCode();
+				limiter.release(System.nanoTime() - start,
+						signal == SignalType.ON_ERROR || (status != null && status.is5xxServerError()));
+			}
+		});
+	}
+
+	private Mono<Void> filterStream(ServerWebExchange exchange, WebFilterChain chain) {
+
+		if (streamsInFlight.incrementAndGet() > streamLimit) {
+			streamsInFlight.decrementAndGet();
+			streamsRejected.increment();
+			LOG.debug("Rejects a stream, stream limit: {}", streamLimit);
+			return reject(exchange);
+		}
+
+		return chain.filter(exchange).doFinally(signal -> streamsInFlight.decrementAndGet());
+	}
+
+	private Mono<Void> reject(ServerWebExchange exchange) {
+		exchange.getResponse().setStatusCode(SERVICE_UNAVAILABLE);
+		return exchange.getResponse().setComplete();
+	}
+}
@@ -0,0 +1,148 @@
+package se.magnus.microservices.composite.post.services;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.integration.annotation.ServiceActivator;
+import org.springframework.integration.context.IntegrationContextUtils;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import se.magnus.api.event.Event;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Publishes events without blocking the caller.
+ *
+ * The blocking MessageChannel.send calls run on a dedicated bounded scheduler,
+ * publishing fails fast when both its threads and its queue are used up. With
+ * publisher confirms enabled, the returned Mono completes only when the broker
+ * has acknowledged the event. The acks are routed to the "publisherConfirms"
+ * channel and the nacks to the error channel, and are correlated to the
+ * pending event by its publishId header.
+ *
+ * The number of events that are waiting for or running on the scheduler, and
+ * the number of events that are waiting for a confirm, are exposed through
+ * the actuator metrics endpoint as "events.publish.inflight" and
+ * "events.publish.unconfirmed".
+ */
+@Component
+public class EventPublisher {
+
+	private static final Logger LOG = LoggerFactory.getLogger(EventPublisher.class);
+
+	public static final String CONFIRM_CHANNEL = "publisherConfirms";
+
+	public static final String PUBLISH_ID_HEADER = "publishId";
+
+	private final boolean confirms;
+
+	private final Duration confirmTimeout;
+
+	private final Scheduler scheduler;
+
+	private final Map<String, MonoSink<Void>> unconfirmed = new ConcurrentHashMap<>();
+
+	private final AtomicInteger inFlight;
+
+	@Autowired
+	public EventPublisher(MeterRegistry meterRegistry,
+			@Value("${app.post-composite.publisher.confirms}") boolean confirms,
+			@Value("${app.post-composite.publisher.confirmTimeoutSec}") int confirmTimeoutSec,
+			@Value("${app.post-composite.publisher.threadCap}") int threadCap,
+			@Value("${app.post-composite.publisher.queuedTaskCap}") int queuedTaskCap) {
+
+		LOG.info("Creates an event publisher, confirms: {}, confirmTimeoutSec: {}, threadCap: {}, queuedTaskCap: {}",
+				confirms, confirmTimeoutSec, threadCap, queuedTaskCap);
+
+		this.confirms = confirms;
+		this.confirmTimeout = Duration.ofSeconds(confirmTimeoutSec);
+		this.scheduler = Schedulers.newBoundedElastic(threadCap, queuedTaskCap, "event-publisher");
+
+		this.inFlight = meterRegistry.gauge("events.publish.inflight", new AtomicInteger());
+		meterRegistry.gaugeMapSize("events.publish.unconfirmed", Tags.empty(), unconfirmed);
+	}
+
+	public Mono<Void> publish(MessageChannel channel, Event<?, ?> event) {
+
+		return Mono.defer(() -> {
+			String publishId = UUID.randomUUID().toString();
+			Message<Event<?, ?>> message = MessageBuilder.<Event<?, ?>>withPayload(event)
+					.setHeader(PUBLISH_ID_HEADER, publishId).build();
+
+			Mono<Void> sent = Mono.<Void>fromRunnable(() -> send(channel, message)).subscribeOn(scheduler)
+					.doOnSubscribe(s -> inFlight.incrementAndGet()).doFinally(s -> inFlight.decrementAndGet());
+
+			if (!confirms) {
+				return sent;
+			}
+
+			// Register for the confirm before sending, it may arrive before send returns
+			Mono<Void> confirmed = Mono.<Void>create(sink -> unconfirmed.put(publishId, sink))
+					.timeout(confirmTimeout).doFinally(s -> unconfirmed.remove(publishId));
+
+			return Mono.when(confirmed, sent.doOnError(ex -> unconfirmed.remove(publishId)));
+		});
+	}
+
+	@ServiceActivator(inputChannel = CONFIRM_CHANNEL)
+	public void handleConfirm(Message<?> ack) {
+		MonoSink<Void> sink = unconfirmed.remove(getPublishId(ack));
+		if (sink != null) {
+			sink.success();
+		}
+	}
+
+	@ServiceActivator(inputChannel = IntegrationContextUtils.ERROR_CHANNEL_BEAN_NAME)
+	public void handleError(Message<?> errorMessage) {
+		if (!(errorMessage.getPayload() instanceof MessagingException)) {
+			return;
+		}
+
+		MessagingException ex = (MessagingException) errorMessage.getPayload();
+		if (ex.getFailedMessage() == null) {
+			return;
+		}
+
+		MonoSink<Void> sink = unconfirmed.remove(getPublishId(ex.getFailedMessage()));
+		if (sink != null) {
+			LOG.warn("The broker did not confirm an event: {}", ex.toString());
+			sink.error(ex);
+		}
+	}
+
+	@PreDestroy
+	public void dispose() {
+		scheduler.dispose();
+	}
+
+	private void send(MessageChannel channel, Message<?> message) {
+		if (!channel.send(message)) {
+			throw new MessagingException(message, "Failed to send an event");
+		}
+	}
+
+	// The binder sends the original message as the payload or as the message of a confirm
+	private String getPublishId(Message<?> message) {
+		Object publishId = message.getHeaders().get(PUBLISH_ID_HEADER);
+		if (publishId == null && message.getPayload() instanceof Message) {
+			publishId = ((Message<?>) message.getPayload()).getHeaders().get(PUBLISH_ID_HEADER);
+		}
+		return publishId == null ? "" : publishId.toString();
+	}
+}
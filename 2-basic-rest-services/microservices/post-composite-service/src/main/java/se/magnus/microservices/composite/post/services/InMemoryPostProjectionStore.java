@@ -0,0 +1,51 @@
+package se.magnus.microservices.composite.post.services;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
+
+/**
+ * Keeps the post projections in memory, they are lost on restart and have to
+ * be rebuilt by replaying the events. The number of projections is exposed
+ * through the actuator metrics endpoint as "projection.posts".
+ */
+@Component
+@ConditionalOnProperty(name = "app.post-composite.projection.store", havingValue = "memory", matchIfMissing = true)
+public class InMemoryPostProjectionStore implements PostProjectionStore {
+
+	private final Map<Integer, PostProjection> projections = new ConcurrentHashMap<>();
+
+	@Autowired
+	public InMemoryPostProjectionStore(MeterRegistry meterRegistry) {
+		meterRegistry.gaugeMapSize("projection.posts", Tags.empty(), projections);
+	}
+
+	@Override
+	public PostProjection get(int postId) {
+		return projections.get(postId);
+	}
+
+	@Override
+	public void update(int postId, UnaryOperator<PostProjection> update) {
+		projections.compute(postId, (id, projection) -> {
+			PostProjection updated = update.apply(projection == null ? PostProjection.EMPTY : projection);
+			return updated.isEmpty() ? null : updated;
+		});
+	}
+
+	@Override
+	public void clear() {
+		projections.clear();
+	}
+
+	@Override
+	public long size() {
+		return projections.size();
+	}
+}
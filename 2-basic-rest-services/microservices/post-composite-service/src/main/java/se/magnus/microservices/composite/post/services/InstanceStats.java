@@ -0,0 +1,92 @@
+package se.magnus.microservices.composite.post.services;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Outstanding requests and a peak EWMA of the latency of one instance of a
+ * core service, as seen by this composite instance.
+ *
+ * The latency average jumps to a slower latency at once, and decays towards
+ * faster latencies, and towards zero while the instance gets no requests, so
+ * that an instance that was slow for a while is eventually tried again.
+ */
+public class InstanceStats {
+
+	private final String serviceId;
+	private final String instance;
+	private final double decayNanos;
+
+	private final AtomicInteger outstanding = new AtomicInteger();
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+
+	private double latencyEwmaMs = 0;
+	private long lastUpdateNanos = System.nanoTime();
+
+	public InstanceStats(String serviceId, String instance, long decayMs) {
+		this.serviceId = serviceId;
+		this.instance = instance;
+		this.decayNanos = decayMs * 1_000_000.0;
+	}
+
+	public String getServiceId() {
+		return serviceId;
+	}
+
+	public String getInstance() {
+		return instance;
+	}
+
+	public int getOutstanding() {
+		return outstanding.get();
+	}
+
+	public long getRequests() {
+		return requests.get();
+	}
+
+	public long getFailures() {
+		return failures.get();
+	}
+
+	public synchronized double getLatencyEwmaMs() {
+		return decayed(System.nanoTime());
+	}
+
+	/**
+	 * @return the expected cost of sending one more request to the instance,
+	 *         the lower the better
+	 */
+	public double getCost() {
+		return (outstanding.get() + 1) * Math.max(getLatencyEwmaMs(), 1.0);
+	}
+
+	public void start() {
+		outstanding.incrementAndGet();
+		requests.incrementAndGet();
+	}
+
+	public void complete(double latencyMs, boolean failed) {
+		outstanding.decrementAndGet();
+		if (failed) {
+			failures.incrementAndGet();
+		}
+		record(latencyMs);
+	}
+
+	private synchronized void record(double latencyMs) {
+		long now = System.nanoTime();
+		if (latencyMs > latencyEwmaMs) {
+			latencyEwmaMs = latencyMs;
+		} else {
+			double weight = Math.exp(-(now - lastUpdateNanos) / decayNanos);
+			latencyEwmaMs = latencyEwmaMs * weight + latencyMs * (1 - weight);
+		}
+		lastUpdateNanos = now;
+	}
+
+	private double decayed(long now) {
+		return latencyEwmaMs * Math.exp(-(now - lastUpdateNanos) / decayNanos);
+	}
+}
@@ -0,0 +1,95 @@
+package se.magnus.microservices.composite.post.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * The {@link InstanceStats} of the core service instances, used by the
+ * {@link PowerOfTwoChoicesRule} to pick an instance.
+ *
+ * The stats are recorded by the exchange filter of the WebClient that calls
+ * a core service, and are exposed per service through the actuator
+ * endpoint "loadbalancer". Failed calls are recorded with at least the
+ * failure penalty as latency, as they often fail faster than they succeed.
+ */
+@Component
+@Endpoint(id = "loadbalancer")
+public class InstanceStatsRegistry {
+
+	private static final Logger LOG = LoggerFactory.getLogger(InstanceStatsRegistry.class);
+
+	private final long decayMs;
+	private final long failurePenaltyMs;
+
+	private final Map<String, InstanceStats> stats = new ConcurrentHashMap<>();
+
+	@Autowired
+	public InstanceStatsRegistry(@Value("${app.post-composite.load-balancer.decayMs}") long decayMs,
+			@Value("${app.post-composite.load-balancer.failurePenaltyMs}") long failurePenaltyMs) {
+
+		LOG.info("Creates an instance stats registry, decayMs: {}, failurePenaltyMs: {}", decayMs, failurePenaltyMs);
+
+		this.decayMs = decayMs;
+		this.failurePenaltyMs = failurePenaltyMs;
+	}
+
+	public InstanceStats getStats(String serviceId, String host, int port) {
+		return stats.computeIfAbsent(serviceId + "/" + host + ":" + port,
+				key -> new InstanceStats(serviceId, host + ":" + port, decayMs));
+	}
+
+	@ReadOperation
+	public Map<String, List<InstanceStats>> getStatsPerService() {
+		return stats.values().stream().collect(Collectors.groupingBy(InstanceStats::getServiceId, TreeMap::new,
+				Collectors.toList()));
+	}
+
+	/**
+	 * @param serviceId the core service that the WebClient calls
+	 * @return a filter that records the outstanding requests and the latency of
+	 *         each call, it must be added after the load balancer filter to see
+	 *         the address of the chosen instance
+	 */
+	public ExchangeFilterFunction exchangeFilter(String serviceId) {
+		return (request, next) -> Mono.defer(() -> {
+			URI url = request.url();
+			InstanceStats instance = getStats(serviceId, url.getHost(), url.getPort());
+
+			long start = System.nanoTime();
+			instance.start();
+
+			// A cancelled call, e.g. a hedged call that lost or a call that timed out, still tells how slow it was.
+			// A call can be cancelled after its response arrived, it is only completed once.
+			AtomicBoolean completed = new AtomicBoolean();
+			return next.exchange(request)
+					.doOnSuccess(response -> complete(instance, start,
+							response != null && response.statusCode().is5xxServerError(), completed))
+					.doOnError(ex -> complete(instance, start, true, completed))
+					.doOnCancel(() -> complete(instance, start, false, completed));
+		});
+	}
+
+	private void complete(InstanceStats instance, long start, boolean failed, AtomicBoolean completed) {
+		if (!completed.compareAndSet(false, true)) {
+			return;
+		}
+
+		double latencyMs = (System.nanoTime() - start) / 1_000_000.0;
+		instance.complete(failed ? Math.max(latencyMs, failurePenaltyMs) : latencyMs, failed);
+	}
+}
@@ -0,0 +1,60 @@
+package se.magnus.microservices.composite.post.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import se.magnus.api.core.post.Post;
+
+import java.time.Duration;
+
+/**
+ * Bounded store of the last post successfully read from the post service,
+ * keyed by postId.
+ *
+ * The store is refreshed by every successful call to the post service and is
+ * used as fallback while the post circuit breaker does not permit calls, i.e.
+ * stale posts are served while the calls let through by the half open circuit
+ * breaker revalidate them. Posts are removed when they are deleted. Hit and
+ * miss counts are exposed as "cache.*" metrics with the tag
+ * cache=lastKnownGoodPosts.
+ */
+@Component
+public class LastKnownGoodPostStore {
+
+	private static final Logger LOG = LoggerFactory.getLogger(LastKnownGoodPostStore.class);
+
+	private final Cache<Integer, Post> posts;
+
+	@Autowired
+	public LastKnownGoodPostStore(MeterRegistry meterRegistry,
+			@Value("${app.post-composite.last-known-good.maximumSize}") long maximumSize,
+			@Value("${app.post-composite.last-known-good.expireAfterWriteSec}") int expireAfterWriteSec) {
+
+		LOG.info("Creates a last-known-good post store, maximumSize: {}, expireAfterWriteSec: {}", maximumSize,
+				expireAfterWriteSec);
+
+		this.posts = Caffeine.newBuilder().maximumSize(maximumSize)
+				.expireAfterWrite(Duration.ofSeconds(expireAfterWriteSec)).recordStats().build();
+
+		CaffeineCacheMetrics.monitor(meterRegistry, posts, "lastKnownGoodPosts");
+	}
+
+	public Post get(int postId) {
+		return posts.getIfPresent(postId);
+	}
+
+	public void put(Post post) {
+		posts.put(post.getPostId(), post);
+	}
+
+	public void remove(int postId) {
+		LOG.debug("Removes the last-known-good post for postId: {}", postId);
+		posts.invalidate(postId);
+	}
+}
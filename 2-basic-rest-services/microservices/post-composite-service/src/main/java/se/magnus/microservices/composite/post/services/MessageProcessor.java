@@ -0,0 +1,95 @@
+package se.magnus.microservices.composite.post.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.stream.annotation.EnableBinding;
+import org.springframework.cloud.stream.annotation.Input;
+import org.springframework.cloud.stream.annotation.StreamListener;
+import org.springframework.messaging.SubscribableChannel;
+import se.magnus.api.core.comment.Comment;
+import se.magnus.api.core.image.Image;
+import se.magnus.api.core.post.Post;
+import se.magnus.api.core.reaction.Reaction;
+import se.magnus.api.event.Event;
+
+/**
+ * Listens to the events that the composite service itself publishes on the
+ * posts, reactions, comments and images topics and invalidates the cached
+ * post aggregate they affect. Deleted posts are also removed from the
+ * last-known-good post store, and all events are applied to the post
+ * projections by the {@link PostProjector}. All events use the postId as key.
+ */
+@EnableBinding(MessageProcessor.MessageSinks.class)
+public class MessageProcessor {
+
+	private static final Logger LOG = LoggerFactory.getLogger(MessageProcessor.class);
+
+	private final PostAggregateCache cache;
+
+	private final LastKnownGoodPostStore lastKnownGoodPosts;
+
+	private final PostProjector projector;
+
+	public interface MessageSinks {
+
+		String INPUT_POSTS = "input-posts";
+		String INPUT_REACTIONS = "input-reactions";
+		String INPUT_COMMENTS = "input-comments";
+		String INPUT_IMAGES = "input-images";
+
+		@Input(INPUT_POSTS)
+		SubscribableChannel inputPosts();
+
+		@Input(INPUT_REACTIONS)
+		SubscribableChannel inputReactions();
+
+		@Input(INPUT_COMMENTS)
+		SubscribableChannel inputComments();
+
+		@Input(INPUT_IMAGES)
+		SubscribableChannel inputImages();
+	}
+
+	@Autowired
+	public MessageProcessor(PostAggregateCache cache, LastKnownGoodPostStore lastKnownGoodPosts,
+			PostProjector projector) {
+		this.cache = cache;
+		this.lastKnownGoodPosts = lastKnownGoodPosts;
+		this.projector = projector;
+	}
+
+	@StreamListener(target = MessageSinks.INPUT_POSTS)
+	public void processPostEvent(Event<Integer, Post> event) {
+		invalidate("post", event);
+		projector.applyPostEvent(event);
+
+		// A deleted post must not come back as a fallback value
+		if (event.getEventType() == Event.Type.DELETE) {
+			lastKnownGoodPosts.remove(event.getKey());
+		}
+	}
+
+	@StreamListener(target = MessageSinks.INPUT_REACTIONS)
+	public void processReactionEvent(Event<Integer, Reaction> event) {
+		invalidate("reaction", event);
+		projector.applyReactionEvent(event);
+	}
+
+	@StreamListener(target = MessageSinks.INPUT_COMMENTS)
+	public void processCommentEvent(Event<Integer, Comment> event) {
+		invalidate("comment", event);
+		projector.applyCommentEvent(event);
+	}
+
+	@StreamListener(target = MessageSinks.INPUT_IMAGES)
+	public void processImageEvent(Event<Integer, Image> event) {
+		invalidate("image", event);
+		projector.applyImageEvent(event);
+	}
+
+	private void invalidate(String entity, Event<Integer, ?> event) {
+		LOG.debug("Got a {} {} event for postId: {}", entity, event.getEventType(), event.getKey());
+		cache.invalidateAfterWrite(event.getKey());
+	}
+}
@@ -0,0 +1,128 @@
+package se.magnus.microservices.composite.post.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import se.magnus.api.composite.post.PostAggregate;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded in-process cache of assembled post aggregates, keyed by postId.
+ *
+ * Entries are evicted by size and by age, and are invalidated by the
+ * {@link MessageProcessor} when an event for the post is seen on any of the
+ * posts, reactions, comments or images topics. Hit, miss and eviction counts
+ * are exposed through the actuator metrics endpoint as "cache.*" metrics with
+ * the tag cache=postAggregates.
+ *
+ * The events are seen while the core services apply them, so a fetch that
+ * started before an invalidation can carry the aggregate from before the
+ * write. Each fetch takes a stamp with {@link #beginFetch()}, and its put is
+ * dropped if the post was invalidated after the stamp. Writes are also
+ * invalidated once more after lateInvalidationMs, when the core services
+ * have applied them, see {@link #invalidateAfterWrite(int)}.
+ */
+@Component
+public class PostAggregateCache {
+
+	private static final Logger LOG = LoggerFactory.getLogger(PostAggregateCache.class);
+
+	private final boolean enabled;
+
+	private final Duration lateInvalidation;
+
+	private final Cache<Integer, PostAggregate> cache;
+
+	// The stamp of the last invalidation of each post, and the highest stamp that has been evicted from it
+	private final AtomicLong stamps = new AtomicLong();
+	private final Cache<Integer, Long> invalidatedAt;
+	private final AtomicLong forgottenUpTo = new AtomicLong();
+
+	@Autowired
+	public PostAggregateCache(MeterRegistry meterRegistry,
+			@Value("${app.post-composite.cache.enabled}") boolean enabled,
+			@Value("${app.post-composite.cache.maximumSize}") long maximumSize,
+			@Value("${app.post-composite.cache.expireAfterWriteSec}") int expireAfterWriteSec,
+			@Value("${app.post-composite.cache.lateInvalidationMs}") long lateInvalidationMs) {
+
+		LOG.info(
+				"Creates a post aggregate cache, enabled: {}, maximumSize: {}, expireAfterWriteSec: {}, lateInvalidationMs: {}",
+				enabled, maximumSize, expireAfterWriteSec, lateInvalidationMs);
+
+		this.enabled = enabled;
+		this.lateInvalidation = Duration.ofMillis(lateInvalidationMs);
+		this.cache = Caffeine.newBuilder().maximumSize(maximumSize)
+				.expireAfterWrite(Duration.ofSeconds(expireAfterWriteSec)).recordStats().build();
+
+		// A fetch that started before a forgotten invalidation is never cached
+		this.invalidatedAt = Caffeine.newBuilder().maximumSize(maximumSize)
+				.expireAfterWrite(Duration.ofSeconds(expireAfterWriteSec))
+				.<Integer, Long>removalListener((postId, stamp, cause) -> {
+					if (cause.wasEvicted()) {
+						forgottenUpTo.accumulateAndGet(stamp, Math::max);
+					}
+				})
+				.executor(Runnable::run).build();
+
+		CaffeineCacheMetrics.monitor(meterRegistry, cache, "postAggregates");
+	}
+
+	public PostAggregate get(int postId) {
+		return enabled ? cache.getIfPresent(postId) : null;
+	}
+
+	/**
+	 * Returns the stamp to pass to {@link #put(int, PostAggregate, long)} for
+	 * the aggregate of a fetch that starts now.
+	 */
+	public long beginFetch() {
+		return stamps.incrementAndGet();
+	}
+
+	/**
+	 * Caches the aggregate, unless the post was invalidated after the fetch
+	 * of the aggregate began.
+	 */
+	public void put(int postId, PostAggregate postAggregate, long fetchStamp) {
+		if (!enabled) {
+			return;
+		}
+
+		// An invalidation either sees the put and removes it, or is seen by it
+		cache.asMap().compute(postId, (key, cached) -> {
+			Long invalidated = invalidatedAt.getIfPresent(key);
+			if ((invalidated != null && invalidated > fetchStamp) || forgottenUpTo.get() > fetchStamp) {
+				LOG.debug("Drops a post aggregate for postId: {} fetched before its last invalidation", key);
+				return cached;
+			}
+			return postAggregate;
+		});
+	}
+
+	public void invalidate(int postId) {
+		LOG.debug("Invalidates the cached post aggregate for postId: {}", postId);
+		invalidatedAt.put(postId, stamps.incrementAndGet());
+		cache.invalidate(postId);
+	}
+
+	/**
+	 * Invalidates the post now, and once more after lateInvalidationMs to drop
+	 * an aggregate that was fetched before the core services applied the
+	 * write.
+	 */
+	public void invalidateAfterWrite(int postId) {
+		invalidate(postId);
+		if (!lateInvalidation.isZero()) {
+			Mono.delay(lateInvalidation).subscribe(v -> invalidate(postId));
+		}
+	}
+}
@@ -1,16 +1,24 @@
 package se.magnus.microservices.composite.post.services;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.github.resilience4j.bulkhead.annotation.Bulkhead;
 import io.github.resilience4j.circuitbreaker.annotation.CircuitBreaker;
 import io.github.resilience4j.retry.annotation.Retry;
+import io.github.resilience4j.timelimiter.annotation.TimeLimiter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.client.loadbalancer.LoadBalancerClient;
+import org.springframework.cloud.client.loadbalancer.reactive.DeferringLoadBalancerExchangeFilterFunction;
+import org.springframework.cloud.client.loadbalancer.reactive.LoadBalancerExchangeFilterFunction;
+import org.springframework.cloud.client.loadbalancer.reactive.ReactorLoadBalancerExchangeFilterFunction;
 import org.springframework.cloud.stream.annotation.EnableBinding;
 import org.springframework.cloud.stream.annotation.Output;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
 import org.springframework.messaging.MessageChannel;
-import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
@@ -20,6 +28,7 @@ import reactor.core.publisher.Mono;
 import se.magnus.api.core.post.Post;
 import se.magnus.api.core.post.PostService;
 import se.magnus.api.core.reaction.Reaction;
+import se.magnus.api.core.reaction.ReactionCounts;
 import se.magnus.api.core.reaction.ReactionService;
 import se.magnus.api.core.comment.Comment;
 import se.magnus.api.core.comment.CommentService;
@@ -33,8 +42,13 @@ import se.magnus.util.http.HttpErrorInfo;
 import java.io.IOException;
 import java.net.URI;
 import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-import static reactor.core.publisher.Flux.empty;
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.joining;
+import static org.springframework.http.MediaType.APPLICATION_JSON;
 import static se.magnus.api.event.Event.Type.CREATE;
 import static se.magnus.api.event.Event.Type.DELETE;
 
@@ -45,10 +59,23 @@ public class PostCompositeIntegration implements PostService, ReactionService, C
 	private static final Logger LOG = LoggerFactory.getLogger(PostCompositeIntegration.class);
 
 	private WebClient webClient;
+	// Calls the instances chosen by the hedgers, one per core service to record the stats per service
+	private final Map<String, WebClient> instanceWebClients = new ConcurrentHashMap<>();
+	private static final MediaType APPLICATION_SMILE = MediaType.valueOf("application/x-jackson-smile");
+
 	private final ObjectMapper mapper;
 
+	private final ObjectMapper smileMapper = Jackson2ObjectMapperBuilder.smile().build();
+
+	private final List<MediaType> acceptedMediaTypes;
+
 	private final WebClient.Builder webClientBuilder;
 
+	private final InstanceStatsRegistry instanceStats;
+
+	// Shared by all calls to the post service that are retried
+	private final RetryBudget postRetryBudget;
+
 	private final String postServiceUrl = "http://post";;
 	private final String reactionServiceUrl = "http://reaction";;
 	private final String commentServiceUrl = "http://comment";;
@@ -56,8 +83,25 @@ public class PostCompositeIntegration implements PostService, ReactionService, C
 
 	private MessageSources messageSources;
 
+	private final LastKnownGoodPostStore lastKnownGoodPosts;
+
+	private final EventPublisher eventPublisher;
+
 	private final int postServiceTimeoutSec;
 
+	// Concurrent calls with the same URL share one request to the core service
+	private final RequestCoalescer<String, Post> postRequests = new RequestCoalescer<>("getPost");
+	private final RequestCoalescer<String, List<Post>> postListRequests = new RequestCoalescer<>("getPosts");
+	private final RequestCoalescer<String, List<Reaction>> reactionRequests = new RequestCoalescer<>("getReactions");
+	private final RequestCoalescer<String, ReactionCounts> reactionCountRequests = new RequestCoalescer<>(
+			"getReactionCounts");
+	private final RequestCoalescer<String, List<Comment>> commentRequests = new RequestCoalescer<>("getComments");
+	private final RequestCoalescer<String, List<Image>> imageRequests = new RequestCoalescer<>("getImages");
+
+	private final RequestHedger reactionHedger;
+	private final RequestHedger commentHedger;
+	private final RequestHedger imageHedger;
+
 	public interface MessageSources {
 
 		String OUTPUT_POSTS = "output-posts";
@@ -80,20 +124,44 @@ public class PostCompositeIntegration implements PostService, ReactionService, C
 
 	@Autowired
 	public PostCompositeIntegration(WebClient.Builder webClientBuilder, ObjectMapper mapper,
-			MessageSources messageSources, @Value("${app.post-service.timeoutSec}") int postServiceTimeoutSec) {
+			MessageSources messageSources, EventPublisher eventPublisher, LastKnownGoodPostStore lastKnownGoodPosts,
+			@Value("${app.post-service.timeoutSec}") int postServiceTimeoutSec, MeterRegistry meterRegistry,
+			@Value("${app.post-composite.hedging.enabled}") boolean hedgingEnabled,
+			@Value("${app.post-composite.hedging.delayPercentile}") double hedgingDelayPercentile,
+			@Value("${app.post-composite.hedging.windowSize}") int hedgingWindowSize,
+			@Value("${app.post-composite.hedging.minDelayMs}") long hedgingMinDelayMs,
+			@Value("${app.post-composite.smile.enabled}") boolean smileEnabled, InstanceStatsRegistry instanceStats,
+			RetryBudgets retryBudgets, LoadBalancerClient loadBalancer) {
 		this.webClientBuilder = webClientBuilder;
+		this.instanceStats = instanceStats;
+		this.postRetryBudget = retryBudgets.get("post");
 		this.mapper = mapper;
+
+		// The binary Smile format is faster to decode than JSON, services that do not support it will answer with JSON
+		this.acceptedMediaTypes = smileEnabled ? asList(APPLICATION_SMILE, APPLICATION_JSON) : asList(APPLICATION_JSON);
 		this.messageSources = messageSources;
+		this.eventPublisher = eventPublisher;
+		this.lastKnownGoodPosts = lastKnownGoodPosts;
 		this.postServiceTimeoutSec = postServiceTimeoutSec;
+
+		this.reactionHedger = new RequestHedger("reaction", loadBalancer, meterRegistry, hedgingEnabled,
+				hedgingDelayPercentile, hedgingWindowSize, hedgingMinDelayMs);
+		this.commentHedger = new RequestHedger("comment", loadBalancer, meterRegistry, hedgingEnabled,
+				hedgingDelayPercentile, hedgingWindowSize, hedgingMinDelayMs);
+		this.imageHedger = new RequestHedger("image", loadBalancer, meterRegistry, hedgingEnabled,
+				hedgingDelayPercentile, hedgingWindowSize, hedgingMinDelayMs);
 	}
 
 	@Override
 	public Post createPost(Post body) {
-		messageSources.outputPosts()
-				.send(MessageBuilder.withPayload(new Event(CREATE, body.getPostId(), body)).build());
+		publishCreatePost(body).block();
 		return body;
 	}
 
+	public Mono<Void> publishCreatePost(Post body) {
+		return eventPublisher.publish(messageSources.outputPosts(), new Event(CREATE, body.getPostId(), body));
+	}
+
 	@Retry(name = "post")
 	@CircuitBreaker(name = "post")
 	public Mono<Post> getPost(int postId, int delay, int faultPercent) {
@@ -103,94 +171,332 @@ public class PostCompositeIntegration implements PostService, ReactionService, C
 				.build(postId, delay, faultPercent);
 		LOG.debug("Will call the getPost API on URL: {}", url);
 
-		return getWebClient().get().uri(url).retrieve().bodyToMono(Post.class).log()
-				.onErrorMap(WebClientResponseException.class, ex -> handleException(ex))
-				.timeout(Duration.ofSeconds(postServiceTimeoutSec));
+		return postRetryBudget.guard(() -> postRequests.coalesce(url.toString(),
+				() -> getWebClient().get().uri(url).retrieve().bodyToMono(Post.class).log()
+						.onErrorMap(WebClientResponseException.class, ex -> handleException(ex))
+						.timeout(Duration.ofSeconds(postServiceTimeoutSec)).doOnNext(lastKnownGoodPosts::put)));
+	}
+
+	@Retry(name = "post")
+	@CircuitBreaker(name = "post")
+	public Flux<Post> getPosts(List<Integer> postIds) {
+
+		String url = postServiceUrl + "/post?postIds=" + joinIds(postIds);
+		LOG.debug("Will call the getPosts API on URL: {}", url);
+
+		return postRetryBudget.guard(() -> postListRequests.coalesce(url,
+				() -> getWebClient().get().uri(url).retrieve().bodyToFlux(Post.class).log()
+						.onErrorMap(WebClientResponseException.class, ex -> handleException(ex))
+						.doOnNext(lastKnownGoodPosts::put).collectList()
+						.timeout(Duration.ofSeconds(postServiceTimeoutSec))))
+				.flatMapIterable(posts -> posts);
 	}
 
 	@Override
 	public void deletePost(int postId) {
-		messageSources.outputPosts().send(MessageBuilder.withPayload(new Event(DELETE, postId, null)).build());
+		publishDeletePost(postId).block();
+	}
+
+	public Mono<Void> publishDeletePost(int postId) {
+		return Mono.fromRunnable(() -> lastKnownGoodPosts.remove(postId))
+				.then(eventPublisher.publish(messageSources.outputPosts(), new Event(DELETE, postId, null)));
 	}
 
 	@Override
 	public Reaction createReaction(Reaction body) {
-		messageSources.outputReactions()
-				.send(MessageBuilder.withPayload(new Event(CREATE, body.getPostId(), body)).build());
+		eventPublisher.publish(messageSources.outputReactions(), new Event(CREATE, body.getPostId(), body)).block();
 		return body;
 	}
 
 	@Override
+	public List<Reaction> createReactions(List<Reaction> body) {
+		publishCreateReactions(body).block();
+		return body;
+	}
+
+	public Mono<Void> publishCreateReactions(List<Reaction> body) {
+		return body.isEmpty() ? Mono.empty()
+				: eventPublisher.publish(messageSources.outputReactions(), Event.bulkCreate(body.get(0).getPostId(), body));
+	}
+
+	@Override
+	@TimeLimiter(name = "reaction")
+	@Bulkhead(name = "reaction")
+	@CircuitBreaker(name = "reaction")
 	public Flux<Reaction> getReactions(int postId) {
 
 		String url = reactionServiceUrl + "/reaction?postId=" + postId;
 
 		LOG.debug("Will call the getReactions API on URL: {}", url);
 
-		// Return an empty result if something goes wrong to make it possible for the
-		// composite service to return partial responses
-		return getWebClient().get().uri(url).retrieve().bodyToFlux(Reaction.class).log()
-				.onErrorResume(error -> empty());
+		return reactionRequests.coalesce(url,
+				() -> reactionHedger.hedge(url,
+						uri -> getInstanceWebClient("reaction").get().uri(uri).retrieve().bodyToFlux(Reaction.class)
+								.log().onErrorMap(WebClientResponseException.class, ex -> handleException(ex))
+								.collectList()))
+				.flatMapIterable(reactions -> reactions);
+	}
+
+	@Override
+	@TimeLimiter(name = "reaction")
+	@Bulkhead(name = "reaction")
+	@CircuitBreaker(name = "reaction")
+	public Flux<Reaction> getReactions(int postId, int limit, Integer after) {
+
+		String url = reactionServiceUrl + "/reaction?postId=" + postId + "&limit=" + limit
+				+ (after == null ? "" : "&after=" + after);
+
+		LOG.debug("Will call the getReactions API on URL: {}", url);
+
+		return reactionRequests.coalesce(url,
+				() -> reactionHedger.hedge(url,
+						uri -> getInstanceWebClient("reaction").get().uri(uri).retrieve().bodyToFlux(Reaction.class)
+								.log().onErrorMap(WebClientResponseException.class, ex -> handleException(ex))
+								.collectList()))
+				.flatMapIterable(reactions -> reactions);
+	}
+
+	@Override
+	@TimeLimiter(name = "reaction")
+	@Bulkhead(name = "reaction")
+	@CircuitBreaker(name = "reaction")
+	public Flux<Reaction> getReactions(List<Integer> postIds) {
+
+		String url = reactionServiceUrl + "/reaction?postIds=" + joinIds(postIds);
+
+		LOG.debug("Will call the getReactions API on URL: {}", url);
+
+		return reactionRequests.coalesce(url,
+				() -> reactionHedger.hedge(url,
+						uri -> getInstanceWebClient("reaction").get().uri(uri).retrieve().bodyToFlux(Reaction.class)
+								.log().onErrorMap(WebClientResponseException.class, ex -> handleException(ex))
+								.collectList()))
+				.flatMapIterable(reactions -> reactions);
+	}
+
+	@Override
+	@TimeLimiter(name = "reaction")
+	@Bulkhead(name = "reaction")
+	@CircuitBreaker(name = "reaction")
+	public Flux<Reaction> getReactions(List<Integer> postIds, int limit) {
+
+		String url = reactionServiceUrl + "/reaction?postIds=" + joinIds(postIds) + "&limit=" + limit;
+
+		LOG.debug("Will call the getReactions API on URL: {}", url);
+
+		return reactionRequests.coalesce(url,
+				() -> reactionHedger.hedge(url,
+						uri -> getInstanceWebClient("reaction").get().uri(uri).retrieve().bodyToFlux(Reaction.class)
+								.log().onErrorMap(WebClientResponseException.class, ex -> handleException(ex))
+								.collectList()))
+				.flatMapIterable(reactions -> reactions);
+	}
+
+	@Override
+	@TimeLimiter(name = "reaction")
+	@Bulkhead(name = "reaction")
+	@CircuitBreaker(name = "reaction")
+	public Mono<ReactionCounts> getReactionCounts(int postId) {
+
+		String url = reactionServiceUrl + "/reaction/count?postId=" + postId;
+
+		LOG.debug("Will call the getReactionCounts API on URL: {}", url);
+
+		return reactionCountRequests.coalesce(url,
+				() -> reactionHedger.hedge(url,
+						uri -> getInstanceWebClient("reaction").get().uri(uri).retrieve()
+								.bodyToMono(ReactionCounts.class).log().onErrorMap(WebClientResponseException.class, ex -> handleException(ex))));
 	}
 
 	@Override
 	public void deleteReactions(int postId) {
-		messageSources.outputReactions().send(MessageBuilder.withPayload(new Event(DELETE, postId, null)).build());
+		publishDeleteReactions(postId).block();
+	}
+
+	public Mono<Void> publishDeleteReactions(int postId) {
+		return eventPublisher.publish(messageSources.outputReactions(), new Event(DELETE, postId, null));
 	}
 
 	@Override
 	public Comment createComment(Comment body) {
-		messageSources.outputComments()
-				.send(MessageBuilder.withPayload(new Event(CREATE, body.getPostId(), body)).build());
+		eventPublisher.publish(messageSources.outputComments(), new Event(CREATE, body.getPostId(), body)).block();
 		return body;
 	}
 
 	@Override
+	public List<Comment> createComments(List<Comment> body) {
+		publishCreateComments(body).block();
+		return body;
+	}
+
+	public Mono<Void> publishCreateComments(List<Comment> body) {
+		return body.isEmpty() ? Mono.empty()
+				: eventPublisher.publish(messageSources.outputComments(), Event.bulkCreate(body.get(0).getPostId(), body));
+	}
+
+	@Override
+	@TimeLimiter(name = "comment")
+	@Bulkhead(name = "comment")
+	@CircuitBreaker(name = "comment")
 	public Flux<Comment> getComments(int postId) {
 
 		String url = commentServiceUrl + "/comment?postId=" + postId;
 
 		LOG.debug("Will call the getComments API on URL: {}", url);
 
-		// Return an empty result if something goes wrong to make it possible for the
-		// composite service to return partial responses
-		return getWebClient().get().uri(url).retrieve().bodyToFlux(Comment.class).log().onErrorResume(error -> empty());
+		return commentRequests.coalesce(url,
+				() -> commentHedger.hedge(url,
+						uri -> getInstanceWebClient("comment").get().uri(uri).retrieve().bodyToFlux(Comment.class)
+								.log().onErrorMap(WebClientResponseException.class, ex -> handleException(ex))
+								.collectList()))
+				.flatMapIterable(comments -> comments);
+	}
+
+	@Override
+	@TimeLimiter(name = "comment")
+	@Bulkhead(name = "comment")
+	@CircuitBreaker(name = "comment")
+	public Flux<Comment> getComments(int postId, int limit, Integer after) {
+
+		String url = commentServiceUrl + "/comment?postId=" + postId + "&limit=" + limit
+				+ (after == null ? "" : "&after=" + after);
+
+		LOG.debug("Will call the getComments API on URL: {}", url);
+
+		return commentRequests.coalesce(url,
+				() -> commentHedger.hedge(url,
+						uri -> getInstanceWebClient("comment").get().uri(uri).retrieve().bodyToFlux(Comment.class)
+								.log().onErrorMap(WebClientResponseException.class, ex -> handleException(ex))
+								.collectList()))
+				.flatMapIterable(comments -> comments);
+	}
 
+	@Override
+	@TimeLimiter(name = "comment")
+	@Bulkhead(name = "comment")
+	@CircuitBreaker(name = "comment")
+	public Flux<Comment> getComments(List<Integer> postIds) {
+
+		String url = commentServiceUrl + "/comment?postIds=" + joinIds(postIds);
+
+		LOG.debug("Will call the getComments API on URL: {}", url);
+
+		return commentRequests.coalesce(url,
+				() -> commentHedger.hedge(url,
+						uri -> getInstanceWebClient("comment").get().uri(uri).retrieve().bodyToFlux(Comment.class)
+								.log().onErrorMap(WebClientResponseException.class, ex -> handleException(ex))
+								.collectList()))
+				.flatMapIterable(comments -> comments);
+	}
+
+	@Override
+	@TimeLimiter(name = "comment")
+	@Bulkhead(name = "comment")
+	@CircuitBreaker(name = "comment")
+	public Flux<Comment> getComments(List<Integer> postIds, int limit) {
+
+		String url = commentServiceUrl + "/comment?postIds=" + joinIds(postIds) + "&limit=" + limit;
+
+		LOG.debug("Will call the getComments API on URL: {}", url);
+
+		return commentRequests.coalesce(url,
+				() -> commentHedger.hedge(url,
+						uri -> getInstanceWebClient("comment").get().uri(uri).retrieve().bodyToFlux(Comment.class)
+								.log().onErrorMap(WebClientResponseException.class, ex -> handleException(ex))
+								.collectList()))
+				.flatMapIterable(comments -> comments);
 	}
 
 	@Override
 	public void deleteComments(int postId) {
-		messageSources.outputComments().send(MessageBuilder.withPayload(new Event(DELETE, postId, null)).build());
+		publishDeleteComments(postId).block();
+	}
+
+	public Mono<Void> publishDeleteComments(int postId) {
+		return eventPublisher.publish(messageSources.outputComments(), new Event(DELETE, postId, null));
 	}
 
 	@Override
 	public Image createImage(Image body) {
-		messageSources.outputImages()
-				.send(MessageBuilder.withPayload(new Event(CREATE, body.getPostId(), body)).build());
+		eventPublisher.publish(messageSources.outputImages(), new Event(CREATE, body.getPostId(), body)).block();
 		return body;
 	}
 
 	@Override
+	public List<Image> createImages(List<Image> body) {
+		publishCreateImages(body).block();
+		return body;
+	}
+
+	public Mono<Void> publishCreateImages(List<Image> body) {
+		return body.isEmpty() ? Mono.empty()
+				: eventPublisher.publish(messageSources.outputImages(), Event.bulkCreate(body.get(0).getPostId(), body));
+	}
+
+	@Override
+	@TimeLimiter(name = "image")
+	@Bulkhead(name = "image")
+	@CircuitBreaker(name = "image")
 	public Flux<Image> getImages(int postId) {
 
 		String url = imageServiceUrl + "/image?postId=" + postId;
 
 		LOG.debug("Will call the getImages API on URL: {}", url);
 
-		// Return an empty result if something goes wrong to make it possible for the
-		// composite service to return partial responses
-		return getWebClient().get().uri(url).retrieve().bodyToFlux(Image.class).log().onErrorResume(error -> empty());
+		return imageRequests.coalesce(url,
+				() -> imageHedger.hedge(url,
+						uri -> getInstanceWebClient("image").get().uri(uri).retrieve().bodyToFlux(Image.class)
+								.log().onErrorMap(WebClientResponseException.class, ex -> handleException(ex))
+								.collectList()))
+				.flatMapIterable(images -> images);
+	}
+
+	@Override
+	@TimeLimiter(name = "image")
+	@Bulkhead(name = "image")
+	@CircuitBreaker(name = "image")
+	public Flux<Image> getImages(List<Integer> postIds) {
+
+		String url = imageServiceUrl + "/image?postIds=" + joinIds(postIds);
+
+		LOG.debug("Will call the getImages API on URL: {}", url);
 
+		return imageRequests.coalesce(url,
+				() -> imageHedger.hedge(url,
+						uri -> getInstanceWebClient("image").get().uri(uri).retrieve().bodyToFlux(Image.class)
+								.log().onErrorMap(WebClientResponseException.class, ex -> handleException(ex))
+								.collectList()))
+				.flatMapIterable(images -> images);
 	}
 
 	@Override
 	public void deleteImages(int postId) {
-		messageSources.outputImages().send(MessageBuilder.withPayload(new Event(DELETE, postId, null)).build());
+		publishDeleteImages(postId).block();
+	}
+
+	public Mono<Void> publishDeleteImages(int postId) {
+		return eventPublisher.publish(messageSources.outputImages(), new Event(DELETE, postId, null));
+	}
+
+	private String joinIds(List<Integer> ids) {
+		return ids.stream().map(String::valueOf).collect(joining(","));
+	}
+
+	// Calls the instance chosen by a RequestHedger, the clone is built without the load balancer filter
+	private WebClient getInstanceWebClient(String serviceId) {
+		return instanceWebClients.computeIfAbsent(serviceId, id -> webClientBuilder.clone()
+				.filters(filters -> filters.removeIf(filter -> filter instanceof DeferringLoadBalancerExchangeFilterFunction
+						|| filter instanceof LoadBalancerExchangeFilterFunction
+						|| filter instanceof ReactorLoadBalancerExchangeFilterFunction))
+				.defaultHeaders(headers -> headers.setAccept(acceptedMediaTypes))
+				.filter(instanceStats.exchangeFilter(id)).build());
 	}
 
 	private WebClient getWebClient() {
 		if (webClient == null) {
-			webClient = webClientBuilder.build();
+			// The stats filter is added after the load balancer filter, to see the chosen instance
+			webClient = webClientBuilder.clone().defaultHeaders(headers -> headers.setAccept(acceptedMediaTypes))
+					.filter(instanceStats.exchangeFilter("post")).build();
 		}
 		return webClient;
 	}
@@ -221,7 +527,9 @@ public class PostCompositeIntegration implements PostService, ReactionService, C
 
 	private String getErrorMessage(WebClientResponseException ex) {
 		try {
-			return mapper.readValue(ex.getResponseBodyAsString(), HttpErrorInfo.class).getMessage();
+			ObjectMapper errorMapper = APPLICATION_SMILE.equalsTypeAndSubtype(ex.getHeaders().getContentType())
+					? smileMapper : mapper;
+			return errorMapper.readValue(ex.getResponseBodyAsByteArray(), HttpErrorInfo.class).getMessage();
 		} catch (IOException ioex) {
 			return ex.getMessage();
 		}
@@ -1,9 +1,12 @@
 package se.magnus.microservices.composite.post.services;
 
 import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.context.ReactiveSecurityContextHolder;
 import org.springframework.security.core.context.SecurityContext;
 import org.springframework.security.core.context.SecurityContextImpl;
@@ -11,129 +14,412 @@ import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
 import org.springframework.format.datetime.DateFormatter;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import se.magnus.api.composite.post.*;
 import se.magnus.api.core.post.Post;
 import se.magnus.api.core.reaction.Reaction;
+import se.magnus.api.core.reaction.ReactionCounts;
 import se.magnus.api.core.comment.Comment;
 import se.magnus.api.core.image.Image;
+import se.magnus.util.exceptions.InvalidInputException;
 import se.magnus.util.exceptions.NotFoundException;
 import se.magnus.util.http.ServiceUtil;
 
 import java.net.URL;
 import java.io.Console;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
 import java.util.stream.Collectors;
 
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
+import static se.magnus.api.composite.post.PostAggregateSection.Type.COMMENTS;
+import static se.magnus.api.composite.post.PostAggregateSection.Type.IMAGES;
+import static se.magnus.api.composite.post.PostAggregateSection.Type.POST;
+import static se.magnus.api.composite.post.PostAggregateSection.Type.REACTIONS;
+
 @RestController
 public class PostCompositeServiceImpl implements PostCompositeService {
 
 	private static final Logger LOG = LoggerFactory.getLogger(PostCompositeServiceImpl.class);
 
+	private static final int MAX_BATCH_SIZE = 100;
+
+	private static final String REACTIONS_SECTION = "reactions";
+	private static final String COMMENTS_SECTION = "comments";
+	private static final String IMAGES_SECTION = "images";
+	private static final String REACTION_COUNTS_SECTION = "reactionCounts";
+	private static final List<String> SECTIONS = asList(REACTIONS_SECTION, COMMENTS_SECTION, IMAGES_SECTION);
+	private static final List<String> OPTIONAL_SECTIONS = asList(REACTION_COUNTS_SECTION);
+
 	private final SecurityContext nullSC = new SecurityContextImpl();
 
 	private final ServiceUtil serviceUtil;
 	private PostCompositeIntegration integration;
+	private final PostAggregateCache cache;
+	private final CircuitBreakerRegistry circuitBreakerRegistry;
+	private final LastKnownGoodPostStore lastKnownGoodPosts;
+	private final PostProjector projector;
+	private final RequestCoalescer<Integer, PostAggregate> postAggregateRequests = new RequestCoalescer<>(
+			"getCompositePost");
+
+	private final int defaultPageSize;
+	private final int maxPageSize;
+	private final int bulkBatchSize;
+	private final int bulkMaxBatchesInFlight;
 
 	@Autowired
-	public PostCompositeServiceImpl(ServiceUtil serviceUtil, PostCompositeIntegration integration) {
+	public PostCompositeServiceImpl(ServiceUtil serviceUtil, PostCompositeIntegration integration,
+			PostAggregateCache cache, CircuitBreakerRegistry circuitBreakerRegistry,
+			LastKnownGoodPostStore lastKnownGoodPosts, PostProjector projector,
+			@Value("${app.post-composite.defaultPageSize}") int defaultPageSize,
+			@Value("${app.post-composite.maxPageSize}") int maxPageSize,
+			@Value("${app.post-composite.bulk.batchSize}") int bulkBatchSize,
+			@Value("${app.post-composite.bulk.maxBatchesInFlight}") int bulkMaxBatchesInFlight) {
 		this.serviceUtil = serviceUtil;
 		this.integration = integration;
+		this.cache = cache;
+		this.circuitBreakerRegistry = circuitBreakerRegistry;
+		this.lastKnownGoodPosts = lastKnownGoodPosts;
+		this.projector = projector;
+		this.defaultPageSize = defaultPageSize;
+		this.maxPageSize = maxPageSize;
+		this.bulkBatchSize = bulkBatchSize;
+		this.bulkMaxBatchesInFlight = bulkMaxBatchesInFlight;
 	}
 
 	@Override
 	public Mono<Void> createCompositePost(PostAggregate body) {
-		return ReactiveSecurityContextHolder.getContext().doOnSuccess(sc -> internalCreateCompositePost(sc, body))
-				.then();
+		return ReactiveSecurityContextHolder.getContext().doOnSuccess(sc -> logAuthorizationInfo(sc))
+				.then(Mono.defer(() -> internalCreateCompositePost(body)));
 	}
 
-	public void internalCreateCompositePost(SecurityContext sc, PostAggregate body) {
+	private Mono<Void> internalCreateCompositePost(PostAggregate body) {
 
-		try {
+		LOG.debug("createCompositePost: creates a new composite entity for postId: {}", body.getPostId());
 
-			logAuthorizationInfo(sc);
+		return publishCompositePost(body).doOnSuccess(v -> LOG.debug(
+				"createCompositePost: composite entities created for postId: {}", body.getPostId()))
+				.doOnError(ex -> LOG.warn("createCompositePost failed: {}", ex.toString()));
+	}
 
-			LOG.debug("createCompositePost: creates a new composite entity for postId: {}", body.getPostId());
+	@Override
+	public Mono<BulkCreateResult> createCompositePosts(Flux<PostAggregate> body) {
+
+		// The security context is looked up once for the whole stream of composite posts
+		return ReactiveSecurityContextHolder.getContext().doOnSuccess(sc -> logAuthorizationInfo(sc))
+				.thenMany(Flux.defer(() -> publishCompositePosts(body)))
+				.collect(BulkCreateSummary::new, BulkCreateSummary::add).map(BulkCreateSummary::toResult)
+				.doOnSuccess(result -> LOG.debug("createCompositePosts: received {}, created {} composite posts",
+						result.getReceived(), result.getCreated()))
+				.doOnError(ex -> LOG.warn("createCompositePosts failed: {}", ex.toString()));
+	}
 
-			Post post = new Post(body.getPostId(), body.getTypeOfPost(), body.getPostCaption(), body.getPostedOn(),
-					null);
-			integration.createPost(post);
+	// The records are decoded as they are requested, so at most maxBatchesInFlight batches are buffered. The events of
+	// a batch are published concurrently, and a batch is done when the broker has confirmed all of them.
+	private Flux<Optional<BulkCreateFailure>> publishCompositePosts(Flux<PostAggregate> body) {
+		return body.index().buffer(bulkBatchSize)
+				.flatMapSequential(batch -> Flux.fromIterable(batch)
+						.flatMap(record -> publishCompositePost(record.getT1(), record.getT2())),
+						bulkMaxBatchesInFlight, 1);
+	}
 
-			if (body.getReactions() != null) {
-				body.getReactions().forEach(r -> {
-					Reaction reaction = new Reaction(body.getPostId(), r.getReactionId(), r.getTypeOfReaction(), null);
-					integration.createReaction(reaction);
-				});
-			}
+	// Empty if the record was created, else why it failed
+	private Mono<Optional<BulkCreateFailure>> publishCompositePost(long index, PostAggregate body) {
 
-			if (body.getComments() != null) {
-				body.getComments().forEach(r -> {
-					Comment comment = new Comment(body.getPostId(), r.getCommentId(), r.getCommentText(),
-							r.getCommentDate(), null);
-					integration.createComment(comment);
-				});
-			}
+		if (body.getPostId() < 1) {
+			return Mono.just(
+					Optional.of(new BulkCreateFailure(index, body.getPostId(), "Invalid postId: " + body.getPostId())));
+		}
+
+		return publishCompositePost(body).then(Mono.just(Optional.<BulkCreateFailure>empty())).onErrorResume(ex -> {
+			LOG.warn("createCompositePosts: failed to create the record at index {}: {}", index, ex.toString());
+			return Mono.just(Optional.of(new BulkCreateFailure(index, body.getPostId(), ex.getMessage())));
+		});
+	}
+
+	private Mono<Void> publishCompositePost(PostAggregate body) {
+
+		Post post = new Post(body.getPostId(), body.getTypeOfPost(), body.getPostCaption(), body.getPostedOn(), null);
+
+		// One bulk event per type of entity, regardless of the number of reactions, comments and images
+		List<Reaction> reactions = body.getReactions() == null ? emptyList()
+				: body.getReactions().stream()
+						.map(r -> new Reaction(body.getPostId(), r.getReactionId(), r.getTypeOfReaction(), null))
+						.collect(Collectors.toList());
 
-			if (body.getImages() != null) {
-				body.getImages().forEach(r -> {
-					Image image = new Image(body.getPostId(), r.getImageId(), r.getImageUrl(), r.getUploadDate(), null);
-					integration.createImage(image);
-				});
+		List<Comment> comments = body.getComments() == null ? emptyList()
+				: body.getComments().stream().map(r -> new Comment(body.getPostId(), r.getCommentId(),
+						r.getCommentText(), r.getCommentDate(), null)).collect(Collectors.toList());
+
+		List<Image> images = body.getImages() == null ? emptyList()
+				: body.getImages().stream().map(
+						r -> new Image(body.getPostId(), r.getImageId(), r.getImageUrl(), r.getUploadDate(), null))
+						.collect(Collectors.toList());
+
+		// Completes when the broker has confirmed all events
+		return Mono.when(integration.publishCreatePost(post), integration.publishCreateReactions(reactions),
+				integration.publishCreateComments(comments), integration.publishCreateImages(images))
+				.doOnSuccess(v -> cache.invalidateAfterWrite(body.getPostId()));
+	}
+
+	@Override
+	public Mono<PostAggregate> getCompositePost(int postId, int delay, int faultPercent, List<String> include,
+			Integer limit, String reactionsCursor, String commentsCursor, ServerWebExchange exchange) {
+
+		// Answers with 304 and without a body if the client already has this version of the post aggregate
+		return getPostAggregate(postId, delay, faultPercent, include, limit, reactionsCursor, commentsCursor)
+				.flatMap(postAggregate -> exchange.checkNotModified(postAggregate.getETag()) ? Mono.empty()
+						: Mono.just(postAggregate));
+	}
+
+	private Mono<PostAggregate> getPostAggregate(int postId, int delay, int faultPercent, List<String> include,
+			Integer limit, String reactionsCursor, String commentsCursor) {
+
+		Set<String> sections = getIncludedSections(include);
+		int pageSize = getPageSize(limit);
+
+		Integer reactionsAfter = parseCursor("reactionsCursor", reactionsCursor);
+		Integer commentsAfter = parseCursor("commentsCursor", commentsCursor);
+
+		// With the projection read model a read is one lookup in the projection store. Requests that simulate delays
+		// or faults in the post service, and posts that are not projected yet, use the fan-out read path.
+		if (projector.isEnabled() && delay == 0 && faultPercent == 0) {
+			PostProjection projection = projector.getProjection(postId);
+			if (projection != null && projection.getPost() != null) {
+				LOG.debug("getCompositePost: found a projected post aggregate for postId: {}", postId);
+				return Mono.just(createPostAggregate(projection, sections, pageSize, reactionsAfter, commentsAfter));
 			}
+		}
+
+		// Only the default first page is cached, and requests that simulate delays or faults in the post service
+		// always bypass the cache
+		boolean cacheable = delay == 0 && faultPercent == 0 && limit == null && reactionsCursor == null
+				&& commentsCursor == null;
 
-			LOG.debug("createCompositePost: composite entities created for postId: {}", body.getPostId());
+		// Reaction counts are not part of the cached aggregate
+		boolean includeOptional = sections.contains(REACTION_COUNTS_SECTION);
 
-		} catch (RuntimeException re) {
-			LOG.warn("createCompositePost failed: {}", re.toString());
-			throw re;
+		// Let requests through to the post service while the circuit breaker is half open, to be able to close it
+		PostAggregate cachedAggregate = cacheable && !includeOptional && !isPostCircuitHalfOpen() ? cache.get(postId)
+				: null;
+		if (cachedAggregate != null) {
+			LOG.debug("getCompositePost: found a cached post aggregate for postId: {}", postId);
+			return Mono.just(projectPostAggregate(cachedAggregate, sections));
 		}
+
+		// Only complete aggregates are cached, and concurrent lookups for them share one fan-out to the core services
+		boolean complete = sections.containsAll(SECTIONS) && !includeOptional;
+		Mono<PostAggregate> postAggregate = cacheable && complete
+				? postAggregateRequests.coalesce(postId,
+						() -> fetchCompositePost(postId, delay, faultPercent, sections, pageSize, null, null, true))
+				: fetchCompositePost(postId, delay, faultPercent, sections, pageSize, reactionsAfter, commentsAfter,
+						false);
+
+		return ReactiveSecurityContextHolder.getContext().defaultIfEmpty(nullSC)
+				.doOnNext(sc -> logAuthorizationInfo(sc)).then(postAggregate)
+				.doOnError(ex -> LOG.warn("getCompositePost failed: {}", ex.toString())).log();
+	}
+
+	private Mono<PostAggregate> fetchCompositePost(int postId, int delay, int faultPercent, Set<String> sections,
+			int pageSize, Integer reactionsAfter, Integer commentsAfter, boolean cacheable) {
+
+		boolean includeReactions = sections.contains(REACTIONS_SECTION);
+		boolean includeComments = sections.contains(COMMENTS_SECTION);
+		boolean includeImages = sections.contains(IMAGES_SECTION);
+		boolean includeReactionCounts = sections.contains(REACTION_COUNTS_SECTION);
+
+		return Mono.defer(() -> {
+			AtomicBoolean incomplete = new AtomicBoolean(false);
+			long fetchStamp = cache.beginFetch();
+
+			// Sections that are not included are left null, and their core services are not called.
+			// One more reaction and comment than the page size is requested, to know if there is a next page.
+			return Mono.zip(values -> {
+				List<Reaction> reactions = (List<Reaction>) values[1];
+				List<Comment> comments = (List<Comment>) values[2];
+
+				String nextReactionsCursor = nextCursor(reactions, pageSize, Reaction::getReactionId);
+				String nextCommentsCursor = nextCursor(comments, pageSize, Comment::getCommentId);
+
+				return createPostAggregate((Post) values[0],
+						includeReactions ? firstItems(reactions, pageSize) : null,
+						includeComments ? firstItems(comments, pageSize) : null,
+						includeImages ? (List<Image>) values[3] : null,
+						includeReactionCounts ? (ReactionCounts) values[4] : null, nextReactionsCursor,
+						nextCommentsCursor, serviceUtil.getServiceAddress());
+			},
+					integration.getPost(postId, delay, faultPercent)
+							.onErrorResume(CallNotPermittedException.class, ex -> {
+								incomplete.set(true);
+								return getPostFallbackValue(postId);
+							}),
+					includeReactions
+							? collectOrEmpty(integration.getReactions(postId, pageSize + 1, reactionsAfter), incomplete)
+							: Mono.just(emptyList()),
+					includeComments
+							? collectOrEmpty(integration.getComments(postId, pageSize + 1, commentsAfter), incomplete)
+							: Mono.just(emptyList()),
+					includeImages ? collectOrEmpty(integration.getImages(postId), incomplete)
+							: Mono.just(emptyList()),
+					includeReactionCounts ? countsOrEmpty(postId, incomplete) : Mono.just(new ReactionCounts()))
+					.doOnNext(postAggregate -> {
+						// Never cache an aggregate that is based on a last-known-good post or is partial
+						if (cacheable && !incomplete.get()) {
+							cache.put(postId, postAggregate, fetchStamp);
+						}
+					});
+		});
+	}
+
+	@Override
+	public Flux<PostAggregateSection> getCompositePostStream(int postId, Integer limit) {
+
+		int pageSize = getPageSize(limit);
+
+		Mono<Post> post = integration.getPost(postId, 0, 0)
+				.onErrorResume(CallNotPermittedException.class, ex -> getPostFallbackValue(postId)).cache();
+
+		// The other sections are held back until the post is found, so the post section is always sent first
+		Mono<PostAggregateSection> postSection = post.map(p -> new PostAggregateSection(POST, postId,
+				p.getTypeOfPost(), p.getPostCaption(), p.getPostedOn(), null, null, null, null,
+				p.getServiceAddress()));
+
+		// The first page of reactions and of comments, the next pages are got from the non streaming view
+		Mono<PostAggregateSection> reactionSection = collectOrEmpty(
+				integration.getReactions(postId, pageSize + 1, null))
+						.map(reactions -> new PostAggregateSection(REACTIONS, postId, null, null, null,
+								toReactionSummaries(firstItems(reactions, pageSize)), null, null,
+								nextCursor(reactions, pageSize, Reaction::getReactionId),
+								reactions.isEmpty() ? "" : reactions.get(0).getServiceAddress()))
+						.delayUntil(section -> post);
+
+		Mono<PostAggregateSection> commentSection = collectOrEmpty(
+				integration.getComments(postId, pageSize + 1, null))
+						.map(comments -> new PostAggregateSection(COMMENTS, postId, null, null, null, null,
+								toCommentSummaries(firstItems(comments, pageSize)), null,
+								nextCursor(comments, pageSize, Comment::getCommentId),
+								comments.isEmpty() ? "" : comments.get(0).getServiceAddress()))
+						.delayUntil(section -> post);
+
+		Mono<PostAggregateSection> imageSection = collectOrEmpty(integration.getImages(postId))
+				.map(images -> new PostAggregateSection(IMAGES, postId, null, null, null, null, null,
+						toImageSummaries(images), null, images.isEmpty() ? "" : images.get(0).getServiceAddress()))
+				.delayUntil(section -> post);
+
+		return ReactiveSecurityContextHolder.getContext().defaultIfEmpty(nullSC)
+				.doOnNext(sc -> logAuthorizationInfo(sc))
+				.thenMany(Flux.merge(postSection, reactionSection, commentSection, imageSection))
+				.doOnError(ex -> LOG.warn("getCompositePostStream failed: {}", ex.toString())).log();
 	}
 
 	@Override
-	public Mono<PostAggregate> getCompositePost(int postId, int delay, int faultPercent) {
+	public Flux<PostAggregate> getCompositePosts(List<Integer> postIds, Integer limit) {
+
+		if (postIds.isEmpty() || postIds.size() > MAX_BATCH_SIZE)
+			throw new InvalidInputException(
+					"Invalid number of postIds: " + postIds.size() + ", expected 1 to " + MAX_BATCH_SIZE);
+
+		postIds.forEach(postId -> {
+			if (postId < 1)
+				throw new InvalidInputException("Invalid postId: " + postId);
+		});
 
+		int pageSize = getPageSize(limit);
+		List<Integer> ids = postIds.stream().distinct().collect(Collectors.toList());
+
+		// One batched call per core service, regardless of the number of requested posts
 		return Mono.zip(
-				values -> createPostAggregate((SecurityContext) values[0], (Post) values[1], (List<Reaction>) values[2],
-						(List<Comment>) values[3], (List<Image>) values[4], serviceUtil.getServiceAddress()),
+				values -> createPostAggregates(ids, (SecurityContext) values[0], (List<Post>) values[1],
+						(Map<Integer, List<Reaction>>) values[2], (Map<Integer, List<Comment>>) values[3],
+						(List<Image>) values[4], pageSize, serviceUtil.getServiceAddress()),
 				ReactiveSecurityContextHolder.getContext().defaultIfEmpty(nullSC),
-				integration.getPost(postId, delay, faultPercent).onErrorReturn(CallNotPermittedException.class,
-						getPostFallbackValue(postId)),
-				integration.getReactions(postId).collectList(), integration.getComments(postId).collectList(),
-				integration.getImages(postId).collectList())
-				.doOnError(ex -> LOG.warn("getCompositePost failed: {}", ex.toString())).log();
+				integration.getPosts(ids)
+						.onErrorResume(CallNotPermittedException.class, ex -> getPostFallbackValues(ids)).collectList(),
+				collectPagesOrEmpty(integration.getReactions(ids, pageSize + 1), Reaction::getPostId),
+				collectPagesOrEmpty(integration.getComments(ids, pageSize + 1), Comment::getPostId),
+				collectOrEmpty(integration.getImages(ids)))
+				.flatMapMany(Flux::fromIterable)
+				.doOnError(ex -> LOG.warn("getCompositePosts failed: {}", ex.toString())).log();
 	}
 
 	@Override
 	public Mono<Void> deleteCompositePost(int postId) {
-		return ReactiveSecurityContextHolder.getContext().doOnSuccess(sc -> internalDeleteCompositePost(sc, postId))
-				.then();
+		return ReactiveSecurityContextHolder.getContext().doOnSuccess(sc -> logAuthorizationInfo(sc))
+				.then(Mono.defer(() -> internalDeleteCompositePost(postId)));
 	}
 
-	private void internalDeleteCompositePost(SecurityContext sc, int postId) {
-		try {
-			logAuthorizationInfo(sc);
+	private Mono<Void> internalDeleteCompositePost(int postId) {
+
+		LOG.debug("deleteCompositePost: Deletes a post aggregate for postId: {}", postId);
 
-			LOG.debug("deleteCompositePost: Deletes a post aggregate for postId: {}", postId);
+		return Mono.when(integration.publishDeletePost(postId), integration.publishDeleteReactions(postId),
+				integration.publishDeleteComments(postId), integration.publishDeleteImages(postId))
+				.doOnSuccess(v -> {
+					cache.invalidateAfterWrite(postId);
+					LOG.debug("deleteCompositePost: aggregate entities deleted for postId: {}", postId);
+				}).doOnError(ex -> LOG.warn("deleteCompositePost failed: {}", ex.toString()));
+	}
 
-			integration.deletePost(postId);
-			integration.deleteReactions(postId);
-			integration.deleteComments(postId);
-			integration.deleteImages(postId);
+	private List<PostAggregate> createPostAggregates(List<Integer> postIds, SecurityContext sc, List<Post> posts,
+			Map<Integer, List<Reaction>> reactionsByPostId, Map<Integer, List<Comment>> commentsByPostId,
+			List<Image> images, int pageSize, String serviceAddress) {
 
-			LOG.debug("deleteCompositePost: aggregate entities deleted for postId: {}", postId);
+		Map<Integer, Post> postsById = posts.stream()
+				.collect(Collectors.toMap(Post::getPostId, Function.identity(), (first, second) -> first));
+		Map<Integer, List<Image>> imagesByPostId = images.stream().collect(Collectors.groupingBy(Image::getPostId));
 
-		} catch (RuntimeException re) {
-			LOG.warn("deleteCompositePost failed: {}", re.toString());
-			throw re;
-		}
+		logAuthorizationInfo(sc);
+
+		// Keep the requested order and skip posts that were not found
+		return postIds.stream().filter(postsById::containsKey).map(postId -> {
+			List<Reaction> reactions = reactionsByPostId.getOrDefault(postId, emptyList());
+			List<Comment> comments = commentsByPostId.getOrDefault(postId, emptyList());
+			return createPostAggregate(postsById.get(postId), firstItems(reactions, pageSize),
+					firstItems(comments, pageSize), imagesByPostId.getOrDefault(postId, emptyList()), null,
+					nextCursor(reactions, pageSize, Reaction::getReactionId),
+					nextCursor(comments, pageSize, Comment::getCommentId), serviceAddress);
+		}).collect(Collectors.toList());
 	}
 
-	private PostAggregate createPostAggregate(SecurityContext sc, Post post, List<Reaction> reactions,
-			List<Comment> comments, List<Image> images, String serviceAddress) {
+	private PostAggregate createPostAggregate(PostProjection projection, Set<String> sections, int pageSize,
+			Integer reactionsAfter, Integer commentsAfter) {
+
+		List<Reaction> reactions = projection.getReactions(pageSize + 1, reactionsAfter);
+		List<Comment> comments = projection.getComments(pageSize + 1, commentsAfter);
+
+		ReactionCounts reactionCounts = sections.contains(REACTION_COUNTS_SECTION)
+				? new ReactionCounts(projection.getPost().getPostId(),
+						projection.getReactions().stream()
+								.collect(Collectors.groupingBy(Reaction::getTypeOfReaction, Collectors.counting())),
+						"")
+				: null;
+
+		return createPostAggregate(projection.getPost(),
+				sections.contains(REACTIONS_SECTION) ? firstItems(reactions, pageSize) : null,
+				sections.contains(COMMENTS_SECTION) ? firstItems(comments, pageSize) : null,
+				sections.contains(IMAGES_SECTION) ? new ArrayList<>(projection.getImages()) : null, reactionCounts,
+				nextCursor(reactions, pageSize, Reaction::getReactionId),
+				nextCursor(comments, pageSize, Comment::getCommentId), serviceUtil.getServiceAddress());
+	}
 
-		logAuthorizationInfo(sc);
+	private PostAggregate createPostAggregate(Post post, List<Reaction> reactions, List<Comment> comments,
+			List<Image> images, ReactionCounts reactionCounts, String reactionsCursor, String commentsCursor,
+			String serviceAddress) {
 
 		// 1. Setup post info
 		int postId = post.getPostId();
@@ -142,46 +428,221 @@ public class PostCompositeServiceImpl implements PostCompositeService {
 		LocalDate postedOn = post.getPostedOn();
 
 		// 2. Copy summary reaction info, if available
-		List<ReactionSummary> reactionSummaries = (reactions == null) ? null
-				: reactions.stream().map(r -> new ReactionSummary(r.getReactionId(), r.getTypeOfReaction()))
-						.collect(Collectors.toList());
+		List<ReactionSummary> reactionSummaries = toReactionSummaries(reactions);
 
 		// 3. Copy summary comment info, if available
-		List<CommentSummary> commentSummaries = (comments == null) ? null
-				: comments.stream()
-						.map(r -> new CommentSummary(r.getCommentId(), r.getCommentText(), r.getCommentDate()))
-						.collect(Collectors.toList());
+		List<CommentSummary> commentSummaries = toCommentSummaries(comments);
 
 		// 4. Copy summary image info, if available
-		List<ImageSummary> imageSummaries = (images == null) ? null
-				: images.stream().map(r -> new ImageSummary(r.getImageId(), r.getImageUrl(), r.getUploadDate()))
-						.collect(Collectors.toList());
+		List<ImageSummary> imageSummaries = toImageSummaries(images);
+
+		// 5. Copy the reaction counts, if requested
+		Map<String, Long> counts = (reactionCounts == null) ? null : reactionCounts.getCounts();
 
-		// 5. Create info regarding the involved microservices addresses
+		// 6. Create info regarding the involved microservices addresses
 		String postAddress = post.getServiceAddress();
 		String commentAddress = (comments != null && comments.size() > 0) ? comments.get(0).getServiceAddress() : "";
 		String reactionAddress = (reactions != null && reactions.size() > 0) ? reactions.get(0).getServiceAddress()
-				: "";
+				: (reactionCounts != null && reactionCounts.getServiceAddress() != null)
+						? reactionCounts.getServiceAddress() : "";
 		String imageAddress = (images != null && images.size() > 0) ? images.get(0).getServiceAddress() : "";
 		ServiceAddresses serviceAddresses = new ServiceAddresses(serviceAddress, postAddress, reactionAddress,
 				commentAddress, imageAddress);
 
+		// 7. Create the entity tag of the aggregate
+		String eTag = createETag(postId, typeOfPost, postCaption, postedOn, reactionSummaries, commentSummaries,
+				imageSummaries, counts, reactionsCursor, commentsCursor);
+
 		return new PostAggregate(postId, typeOfPost, postCaption, postedOn, reactionSummaries, commentSummaries,
-				imageSummaries, serviceAddresses);
+				imageSummaries, counts, reactionsCursor, commentsCursor, serviceAddresses, eTag);
+	}
+
+	// A weak ETag, as the service addresses in equivalent responses may differ. It only hashes what the response
+	// shows, so that a fetched, a cached and a projected aggregate with the same contents get the same ETag.
+	private String createETag(int postId, String typeOfPost, String postCaption, LocalDate postedOn,
+			List<ReactionSummary> reactions, List<CommentSummary> comments, List<ImageSummary> images,
+			Map<String, Long> reactionCounts, String reactionsCursor, String commentsCursor) {
+
+		long hash = Objects.hash(typeOfPost, postCaption, postedOn);
+		hash = 31 * hash + hashOf(reactions, r -> Objects.hash(r.getReactionId(), r.getTypeOfReaction()));
+		hash = 31 * hash
+				+ hashOf(comments, c -> Objects.hash(c.getCommentId(), c.getCommentText(), c.getCommentDate()));
+		hash = 31 * hash + hashOf(images, i -> Objects.hash(i.getImageId(), i.getImageUrl(), i.getUploadDate()));
+		hash = 31 * hash + Objects.hash(reactionCounts, reactionsCursor, commentsCursor);
+
+		return "W/\"" + postId + "-" + Long.toHexString(hash) + "\"";
+	}
+
+	// Sections that are not included hash differently from empty ones
+	private <T> long hashOf(List<T> items, ToIntFunction<T> hash) {
+		if (items == null) {
+			return -1;
+		}
+
+		long result = 1;
+		for (T item : items) {
+			result = 31 * result + hash.applyAsInt(item);
+		}
+		return result;
 	}
 	
-	  private Post getPostFallbackValue(int postId) {
+	private Set<String> getIncludedSections(List<String> include) {
+
+		if (include == null || include.isEmpty()) {
+			return new HashSet<>(SECTIONS);
+		}
+
+		Set<String> sections = new HashSet<>();
+		include.forEach(section -> {
+			if (!SECTIONS.contains(section.trim()) && !OPTIONAL_SECTIONS.contains(section.trim()))
+				throw new InvalidInputException("Invalid include: " + section + ", expected any of " + SECTIONS
+						+ " or " + OPTIONAL_SECTIONS);
+			sections.add(section.trim());
+		});
+		return sections;
+	}
+
+	private int getPageSize(Integer limit) {
+
+		int pageSize = (limit == null) ? defaultPageSize : limit;
+		if (pageSize < 1 || pageSize > maxPageSize)
+			throw new InvalidInputException("Invalid limit: " + pageSize + ", expected 1 to " + maxPageSize);
+		return pageSize;
+	}
+
+	private Integer parseCursor(String name, String cursor) {
+
+		if (cursor == null) {
+			return null;
+		}
+
+		try {
+			return Integer.valueOf(cursor);
+		} catch (NumberFormatException nfe) {
+			throw new InvalidInputException("Invalid " + name + ": " + cursor);
+		}
+	}
+
+	// The id of the last item on the page, if there is a next page
+	private <T> String nextCursor(List<T> items, int pageSize, Function<T, Integer> getId) {
+		return items.size() > pageSize ? String.valueOf(getId.apply(items.get(pageSize - 1))) : null;
+	}
+
+	private <T> List<T> firstItems(List<T> items, int count) {
+		return items.size() > count ? items.subList(0, count) : items;
+	}
+
+	private PostAggregate projectPostAggregate(PostAggregate postAggregate, Set<String> sections) {
+
+		if (sections.containsAll(SECTIONS)) {
+			return postAggregate;
+		}
+
+		List<ReactionSummary> reactions = sections.contains(REACTIONS_SECTION) ? postAggregate.getReactions() : null;
+		List<CommentSummary> comments = sections.contains(COMMENTS_SECTION) ? postAggregate.getComments() : null;
+		List<ImageSummary> images = sections.contains(IMAGES_SECTION) ? postAggregate.getImages() : null;
+		String reactionsCursor = sections.contains(REACTIONS_SECTION) ? postAggregate.getReactionsCursor() : null;
+		String commentsCursor = sections.contains(COMMENTS_SECTION) ? postAggregate.getCommentsCursor() : null;
+
+		// The same ETag as an aggregate of these sections fetched from the core services
+		String eTag = createETag(postAggregate.getPostId(), postAggregate.getTypeOfPost(),
+				postAggregate.getPostCaption(), postAggregate.getPostedOn(), reactions, comments, images, null,
+				reactionsCursor, commentsCursor);
+
+		return new PostAggregate(postAggregate.getPostId(), postAggregate.getTypeOfPost(),
+				postAggregate.getPostCaption(), postAggregate.getPostedOn(), reactions, comments, images, null,
+				reactionsCursor, commentsCursor, postAggregate.getServiceAddresses(), eTag);
+	}
+
+	private static class BulkCreateSummary {
+
+		private long received = 0;
+		private final List<BulkCreateFailure> failures = new ArrayList<>();
+
+		void add(Optional<BulkCreateFailure> failure) {
+			received++;
+			failure.ifPresent(failures::add);
+		}
+
+		BulkCreateResult toResult() {
+			// The records of a batch are published concurrently
+			failures.sort(Comparator.comparingLong(BulkCreateFailure::getIndex));
+			return new BulkCreateResult(received, received - failures.size(), failures);
+		}
+	}
+
+	private <T> Mono<List<T>> collectOrEmpty(Flux<T> items) {
+		return collectOrEmpty(items, new AtomicBoolean());
+	}
+
+	// Return an empty result if something goes wrong to make it possible to return partial responses
+	private <T> Mono<List<T>> collectOrEmpty(Flux<T> items, AtomicBoolean incomplete) {
+		return items.collectList().onErrorResume(error -> {
+			LOG.warn("Returns a partial response, got: {}", error.toString());
+			incomplete.set(true);
+			return Mono.just(emptyList());
+		});
+	}
+
+	// Groups the first page of each post, the core services return at most pageSize + 1 items of each post, ordered
+	// by their ids
+	private <T> Mono<Map<Integer, List<T>>> collectPagesOrEmpty(Flux<T> items, Function<T, Integer> getPostId) {
+
+		return items.collect(Collectors.groupingBy(getPostId)).onErrorResume(error -> {
+			LOG.warn("Returns a partial response, got: {}", error.toString());
+			return Mono.just(emptyMap());
+		});
+	}
+
+	// An empty set of counts is returned for a partial response, as for the other sections
+	private Mono<ReactionCounts> countsOrEmpty(int postId, AtomicBoolean incomplete) {
+		return integration.getReactionCounts(postId).onErrorResume(error -> {
+			LOG.warn("Returns a partial response, got: {}", error.toString());
+			incomplete.set(true);
+			return Mono.just(new ReactionCounts(postId, emptyMap(), ""));
+		});
+	}
+
+	private List<ReactionSummary> toReactionSummaries(List<Reaction> reactions) {
+		return (reactions == null) ? null
+				: reactions.stream().map(r -> new ReactionSummary(r.getReactionId(), r.getTypeOfReaction()))
+						.collect(Collectors.toList());
+	}
+
+	private List<CommentSummary> toCommentSummaries(List<Comment> comments) {
+		return (comments == null) ? null
+				: comments.stream()
+						.map(r -> new CommentSummary(r.getCommentId(), r.getCommentText(), r.getCommentDate()))
+						.collect(Collectors.toList());
+	}
+
+	private List<ImageSummary> toImageSummaries(List<Image> images) {
+		return (images == null) ? null
+				: images.stream().map(r -> new ImageSummary(r.getImageId(), r.getImageUrl(), r.getUploadDate()))
+						.collect(Collectors.toList());
+	}
+
+	private Mono<Post> getPostFallbackValue(int postId) {
+
+		Post post = lastKnownGoodPosts.get(postId);
+		if (post == null) {
+			String errMsg = "Post Id: " + postId + " not found in fallback cache!";
+			LOG.warn(errMsg);
+			return Mono.error(new NotFoundException(errMsg));
+		}
 
-	        LOG.warn("Creating a fallback post for postId = {}", postId);
+		LOG.warn("Returns the last-known-good post for postId = {}", postId);
+		return Mono.just(post);
+	}
 
-	        if (postId == 13) {
-	            String errMsg = "Post Id: " + postId + " not found in fallback cache!";
-	            LOG.warn(errMsg);
-	            throw new NotFoundException(errMsg);
-	        }
+	private boolean isPostCircuitHalfOpen() {
+		return circuitBreakerRegistry.circuitBreaker("post").getState() == CircuitBreaker.State.HALF_OPEN;
+	}
 
-	        return new Post(postId, "Fallback post" + postId, "Fallback post", LocalDate.now(), serviceUtil.getServiceAddress());
-	    }
+	private Flux<Post> getPostFallbackValues(List<Integer> postIds) {
+		// Posts that are not found in the store are left out, as the post service does for unknown postIds
+		return Flux.fromIterable(postIds).flatMap(postId -> Mono.justOrEmpty(lastKnownGoodPosts.get(postId)));
+	}
 
 	private void logAuthorizationInfo(SecurityContext sc) {
 		if (sc != null && sc.getAuthentication() != null && sc.getAuthentication() instanceof JwtAuthenticationToken) {
@@ -0,0 +1,124 @@
+package se.magnus.microservices.composite.post.services;
+
+import se.magnus.api.core.comment.Comment;
+import se.magnus.api.core.image.Image;
+import se.magnus.api.core.post.Post;
+import se.magnus.api.core.reaction.Reaction;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * The denormalized read model of one post, built from the events on the posts,
+ * reactions, comments and images topics.
+ *
+ * Instances are immutable, every event creates a new projection, so that they
+ * can be read while they are updated. Events for the reactions, comments and
+ * images of a post may arrive before the event for the post itself, the post
+ * is null until it has been created.
+ */
+public class PostProjection {
+
+	public static final PostProjection EMPTY = new PostProjection(null, new TreeMap<>(), new TreeMap<>(),
+			new TreeMap<>());
+
+	private final Post post;
+	private final SortedMap<Integer, Reaction> reactions;
+	private final SortedMap<Integer, Comment> comments;
+	private final SortedMap<Integer, Image> images;
+
+	private PostProjection(Post post, SortedMap<Integer, Reaction> reactions, SortedMap<Integer, Comment> comments,
+			SortedMap<Integer, Image> images) {
+		this.post = post;
+		this.reactions = Collections.unmodifiableSortedMap(reactions);
+		this.comments = Collections.unmodifiableSortedMap(comments);
+		this.images = Collections.unmodifiableSortedMap(images);
+	}
+
+	public Post getPost() {
+		return post;
+	}
+
+	public Collection<Reaction> getReactions() {
+		return reactions.values();
+	}
+
+	public Collection<Comment> getComments() {
+		return comments.values();
+	}
+
+	public Collection<Image> getImages() {
+		return images.values();
+	}
+
+	/**
+	 * @return at most limit reactions, ordered by reactionId and starting after
+	 *         the given reactionId, or from the first reaction if after is null
+	 */
+	public List<Reaction> getReactions(int limit, Integer after) {
+		return firstItems(after == null ? reactions : reactions.tailMap(after + 1), limit);
+	}
+
+	/**
+	 * @return at most limit comments, ordered by commentId and starting after
+	 *         the given commentId, or from the first comment if after is null
+	 */
+	public List<Comment> getComments(int limit, Integer after) {
+		return firstItems(after == null ? comments : comments.tailMap(after + 1), limit);
+	}
+
+	public boolean isEmpty() {
+		return post == null && reactions.isEmpty() && comments.isEmpty() && images.isEmpty();
+	}
+
+	public PostProjection withPost(Post post) {
+		return new PostProjection(post, reactions, comments, images);
+	}
+
+	public PostProjection withReactions(Collection<Reaction> added) {
+		return new PostProjection(post, merge(reactions, added, Reaction::getReactionId), comments, images);
+	}
+
+	public PostProjection withoutReactions() {
+		return new PostProjection(post, new TreeMap<>(), comments, images);
+	}
+
+	public PostProjection withComments(Collection<Comment> added) {
+		return new PostProjection(post, reactions, merge(comments, added, Comment::getCommentId), images);
+	}
+
+	public PostProjection withoutComments() {
+		return new PostProjection(post, reactions, new TreeMap<>(), images);
+	}
+
+	public PostProjection withImages(Collection<Image> added) {
+		return new PostProjection(post, reactions, comments, merge(images, added, Image::getImageId));
+	}
+
+	public PostProjection withoutImages() {
+		return new PostProjection(post, reactions, comments, new TreeMap<>());
+	}
+
+	private static <T> SortedMap<Integer, T> merge(SortedMap<Integer, T> items, Collection<T> added,
+			Function<T, Integer> getId) {
+		SortedMap<Integer, T> merged = new TreeMap<>(items);
+		added.forEach(item -> merged.put(getId.apply(item), item));
+		return merged;
+	}
+
+	private static <T> List<T> firstItems(SortedMap<Integer, T> items, int limit) {
+		List<T> first = new ArrayList<>(Math.min(limit, items.size()));
+		for (T item : items.values()) {
+			if (first.size() == limit) {
+				break;
+			}
+			first.add(item);
+		}
+		return first;
+	}
+}
@@ -0,0 +1,29 @@
+package se.magnus.microservices.composite.post.services;
+
+import java.util.function.UnaryOperator;
+
+/**
+ * Storage of the post projections, keyed by postId.
+ *
+ * Implementations must apply updates of the same post atomically, events for
+ * one post arrive concurrently on the posts, reactions, comments and images
+ * topics.
+ */
+public interface PostProjectionStore {
+
+	/**
+	 * @return the projection of the post, null if no event has been seen for it
+	 */
+	PostProjection get(int postId);
+
+	/**
+	 * Replaces the projection of the post with the result of the update, that
+	 * is given {@link PostProjection#EMPTY} if there is no projection yet. The
+	 * projection is removed if the result is empty.
+	 */
+	void update(int postId, UnaryOperator<PostProjection> update);
+
+	void clear();
+
+	long size();
+}
@@ -0,0 +1,103 @@
+package se.magnus.microservices.composite.post.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import se.magnus.api.core.comment.Comment;
+import se.magnus.api.core.image.Image;
+import se.magnus.api.core.post.Post;
+import se.magnus.api.core.reaction.Reaction;
+import se.magnus.api.event.Event;
+
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+import static java.util.Collections.singletonList;
+
+/**
+ * Applies the events on the posts, reactions, comments and images topics to
+ * the {@link PostProjectionStore}, if the projection read model is enabled.
+ *
+ * In rebuild mode the store is cleared at startup, and is rebuilt from the
+ * events that are replayed from the start of the topics.
+ */
+@Component
+public class PostProjector {
+
+	private static final Logger LOG = LoggerFactory.getLogger(PostProjector.class);
+
+	private final PostProjectionStore store;
+
+	private final boolean enabled;
+
+	@Autowired
+	public PostProjector(PostProjectionStore store,
+			@Value("${app.post-composite.projection.enabled}") boolean enabled,
+			@Value("${app.post-composite.projection.rebuild}") boolean rebuild) {
+
+		LOG.info("Creates a post projector, enabled: {}, rebuild: {}, store: {}", enabled, rebuild,
+				store.getClass().getSimpleName());
+
+		this.store = store;
+		this.enabled = enabled;
+
+		if (enabled && rebuild) {
+			LOG.info("Clears {} post projections, to rebuild them from the replayed events", store.size());
+			store.clear();
+		}
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public PostProjection getProjection(int postId) {
+		return store.get(postId);
+	}
+
+	public void applyPostEvent(Event<Integer, Post> event) {
+		if (enabled) {
+			store.update(event.getKey(), projection -> event.getEventType() == Event.Type.DELETE
+					? projection.withPost(null) : projection.withPost(event.getData()));
+		}
+	}
+
+	public void applyReactionEvent(Event<Integer, Reaction> event) {
+		if (enabled) {
+			store.update(event.getKey(), apply(event, PostProjection::withReactions, PostProjection::withoutReactions));
+		}
+	}
+
+	public void applyCommentEvent(Event<Integer, Comment> event) {
+		if (enabled) {
+			store.update(event.getKey(), apply(event, PostProjection::withComments, PostProjection::withoutComments));
+		}
+	}
+
+	public void applyImageEvent(Event<Integer, Image> event) {
+		if (enabled) {
+			store.update(event.getKey(), apply(event, PostProjection::withImages, PostProjection::withoutImages));
+		}
+	}
+
+	private <T> UnaryOperator<PostProjection> apply(Event<Integer, T> event,
+			BiFunction<PostProjection, List<T>, PostProjection> add,
+			Function<PostProjection, PostProjection> removeAll) {
+
+		switch (event.getEventType()) {
+		case CREATE:
+			return projection -> add.apply(projection, singletonList(event.getData()));
+		case BULK_CREATE:
+			return projection -> add.apply(projection, event.getDataList());
+		case DELETE:
+			return removeAll::apply;
+		default:
+			LOG.warn("Ignores an event of unknown type: {}", event.getEventType());
+			return projection -> projection;
+		}
+	}
+}
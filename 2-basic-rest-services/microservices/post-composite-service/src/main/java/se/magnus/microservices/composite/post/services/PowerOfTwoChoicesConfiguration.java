@@ -0,0 +1,23 @@
+package se.magnus.microservices.composite.post.services;
+
+import com.netflix.client.config.IClientConfig;
+import com.netflix.loadbalancer.IRule;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+
+/**
+ * Ribbon client configuration for the core services, registered with
+ * {@code @RibbonClients} on the application class.
+ *
+ * It is deliberately not annotated with {@code @Configuration}, so that the
+ * component scan does not pick it up and apply the rule to every Ribbon
+ * client. If it is disabled, Ribbon uses its default rule.
+ */
+public class PowerOfTwoChoicesConfiguration {
+
+	@Bean
+	@ConditionalOnProperty(name = "app.post-composite.load-balancer.enabled", havingValue = "true")
+	public IRule powerOfTwoChoicesRule(IClientConfig clientConfig, InstanceStatsRegistry registry) {
+		return new PowerOfTwoChoicesRule(registry, clientConfig.getClientName());
+	}
+}
@@ -0,0 +1,76 @@
+package se.magnus.microservices.composite.post.services;
+
+import com.netflix.client.config.IClientConfig;
+import com.netflix.loadbalancer.AbstractLoadBalancerRule;
+import com.netflix.loadbalancer.ILoadBalancer;
+import com.netflix.loadbalancer.Server;
+import org.springframework.cloud.client.ServiceInstance;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * A Ribbon rule that picks two reachable instances at random and chooses the
+ * one with the lowest cost, the product of its outstanding requests and its
+ * peak EWMA latency, see {@link InstanceStats}.
+ *
+ * Comparing two random instances instead of all of them avoids sending every
+ * request to the same momentarily best instance, while a slow instance still
+ * gets fewer and fewer requests.
+ *
+ * A {@link ServiceInstance} as key is excluded, see {@link RequestHedger}.
+ */
+public class PowerOfTwoChoicesRule extends AbstractLoadBalancerRule {
+
+	private final InstanceStatsRegistry registry;
+	private final String serviceId;
+
+	public PowerOfTwoChoicesRule(InstanceStatsRegistry registry, String serviceId) {
+		this.registry = registry;
+		this.serviceId = serviceId;
+	}
+
+	@Override
+	public void initWithNiwsConfig(IClientConfig clientConfig) {
+	}
+
+	@Override
+	public Server choose(Object key) {
+
+		ILoadBalancer loadBalancer = getLoadBalancer();
+		if (loadBalancer == null) {
+			return null;
+		}
+
+		// A hedged call passes the instance of the first call as key, to be sent to another instance
+		List<Server> servers = loadBalancer.getReachableServers();
+		if (key instanceof ServiceInstance) {
+			ServiceInstance excluded = (ServiceInstance) key;
+			servers = servers.stream().filter(server -> !(server.getHost().equals(excluded.getHost())
+					&& server.getPort() == excluded.getPort())).collect(toList());
+		}
+		if (servers.isEmpty()) {
+			return null;
+		}
+		if (servers.size() == 1) {
+			return servers.get(0);
+		}
+
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int first = random.nextInt(servers.size());
+		int second = random.nextInt(servers.size() - 1);
+		if (second >= first) {
+			second++;
+		}
+
+		Server a = servers.get(first);
+		Server b = servers.get(second);
+		return getCost(a) <= getCost(b) ? a : b;
+	}
+
+	private double getCost(Server server) {
+		return registry.getStats(serviceId, server.getHost(), server.getPort()).getCost();
+	}
+}
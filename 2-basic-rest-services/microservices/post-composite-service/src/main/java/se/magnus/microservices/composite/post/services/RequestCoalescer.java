@@ -0,0 +1,59 @@
+package se.magnus.microservices.composite.post.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Single-flight coalescing of concurrent lookups.
+ *
+ * While a lookup for a key is in flight, further lookups for the same key
+ * subscribe to the same upstream call and get its result multicast to them,
+ * instead of starting a call of their own. The key is released as soon as the
+ * call terminates, so results are never reused once delivered and a failed
+ * call can be retried right away. The call is cancelled, and its key released,
+ * when all of its subscribers have cancelled, e.g. on a timeout, so a hung
+ * call is not joined by later lookups.
+ */
+public class RequestCoalescer<K, V> {
+
+	private static final Logger LOG = LoggerFactory.getLogger(RequestCoalescer.class);
+
+	private final String name;
+
+	private final ConcurrentMap<K, Mono<V>> inFlight = new ConcurrentHashMap<>();
+
+	public RequestCoalescer(String name) {
+		this.name = name;
+	}
+
+	public Mono<V> coalesce(K key, Supplier<Mono<V>> call) {
+		return Mono.defer(() -> {
+			AtomicReference<Mono<V>> created = new AtomicReference<>();
+
+			Mono<V> shared = inFlight.computeIfAbsent(key, k -> {
+				// Release the key before the result is signalled, so subscribers that
+				// retry on an error start a new call instead of joining the failed one
+				Runnable release = () -> inFlight.remove(k, created.get());
+				Mono<V> mono = call.get().doOnTerminate(release).doOnCancel(release).flux().replay(1).refCount()
+						.next();
+				created.set(mono);
+				return mono;
+			});
+
+			if (shared != created.get()) {
+				LOG.debug("{}: joins the in-flight call for key: {}", name, key);
+			}
+			return shared;
+		});
+	}
+
+	public int inFlightCount() {
+		return inFlight.size();
+	}
+}
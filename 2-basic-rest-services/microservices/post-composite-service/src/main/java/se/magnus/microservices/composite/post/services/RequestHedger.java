@@ -0,0 +1,158 @@
+package se.magnus.microservices.composite.post.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.LoadBalancerClient;
+import org.springframework.cloud.netflix.ribbon.RibbonLoadBalancerClient;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Hedged calls to one of the core services.
+ *
+ * The hedger chooses the instance of each call with the load balancer. If a
+ * call has not answered within the given percentile of the latencies seen
+ * for the service, a duplicate call is sent to another instance, chosen with
+ * the instance of the first call as hint, that the
+ * {@link PowerOfTwoChoicesRule} excludes. No hedge is sent if there is no
+ * other instance. The first answer is used and the other call is cancelled.
+ * No hedges are sent until the latency window has been filled.
+ *
+ * The latency of the first call is recorded when it answers, or when it is
+ * cancelled, e.g. by a hedge that answered first or by a timeout, so that the
+ * slow calls are part of the window.
+ *
+ * The counters "hedging.calls", "hedging.hedges" and "hedging.wins", tagged
+ * with the service name, give the hedge rate and how often the hedge answered
+ * first.
+ */
+public class RequestHedger {
+
+	private static final Logger LOG = LoggerFactory.getLogger(RequestHedger.class);
+
+	private final String service;
+	private final LoadBalancerClient loadBalancer;
+	private final boolean enabled;
+	private final double delayPercentile;
+	private final long minDelayMs;
+
+	private final long[] latenciesMs;
+	private long recorded = 0;
+
+	private final Counter calls;
+	private final Counter hedges;
+	private final Counter wins;
+
+	public RequestHedger(String service, LoadBalancerClient loadBalancer, MeterRegistry meterRegistry,
+			boolean enabled, double delayPercentile, int windowSize, long minDelayMs) {
+		this.service = service;
+		this.loadBalancer = loadBalancer;
+		this.enabled = enabled;
+		this.delayPercentile = delayPercentile;
+		this.minDelayMs = minDelayMs;
+		this.latenciesMs = new long[windowSize];
+
+		this.calls = meterRegistry.counter("hedging.calls", "service", service);
+		this.hedges = meterRegistry.counter("hedging.hedges", "service", service);
+		this.wins = meterRegistry.counter("hedging.wins", "service", service);
+	}
+
+	/**
+	 * @param url  the URL of the call, with the service name as host
+	 * @param call the call to the URL of a chosen instance
+	 */
+	public <T> Mono<T> hedge(String url, Function<URI, Mono<T>> call) {
+		return Mono.defer(() -> {
+			calls.increment();
+
+			ServiceInstance instance = loadBalancer.choose(service);
+			if (instance == null) {
+				return Mono.error(new IllegalStateException("No instance available for " + service));
+			}
+
+			Mono<T> primary = timed(call.apply(loadBalancer.reconstructURI(instance, URI.create(url))));
+
+			Duration hedgeDelay = getHedgeDelay();
+			if (hedgeDelay == null) {
+				return primary;
+			}
+
+			Mono<T> hedge = Mono.delay(hedgeDelay).then(Mono.defer(() -> {
+				ServiceInstance other = chooseOther(instance);
+				if (other == null) {
+					LOG.debug("{}: no answer within {} ms, but no other instance to hedge on", service,
+							hedgeDelay.toMillis());
+					return Mono.never();
+				}
+
+				LOG.debug("{}: no answer within {} ms, sends a hedged call to {}:{}", service, hedgeDelay.toMillis(),
+						other.getHost(), other.getPort());
+				hedges.increment();
+				return call.apply(loadBalancer.reconstructURI(other, URI.create(url)))
+						.doOnSuccess(result -> wins.increment());
+			}));
+
+			return Mono.first(primary, hedge);
+		});
+	}
+
+	// Only the Ribbon client passes a hint to the rule, other load balancers may choose the same instance again
+	private ServiceInstance chooseOther(ServiceInstance instance) {
+		ServiceInstance other = loadBalancer instanceof RibbonLoadBalancerClient
+				? ((RibbonLoadBalancerClient) loadBalancer).choose(service, instance)
+				: loadBalancer.choose(service);
+		if (other == null || (other.getHost().equals(instance.getHost()) && other.getPort() == instance.getPort())) {
+			return null;
+		}
+		return other;
+	}
+
+	private Duration getHedgeDelay() {
+		if (!enabled) {
+			return null;
+		}
+
+		long[] window;
+		synchronized (latenciesMs) {
+			if (recorded < latenciesMs.length) {
+				return null;
+			}
+			window = latenciesMs.clone();
+		}
+
+		Arrays.sort(window);
+		int index = (int) Math.ceil(delayPercentile / 100.0 * window.length) - 1;
+		long delayMs = window[Math.max(0, Math.min(index, window.length - 1))];
+		return Duration.ofMillis(Math.max(delayMs, minDelayMs));
+	}
+
+	private <T> Mono<T> timed(Mono<T> call) {
+		return Mono.defer(() -> {
+			long start = System.nanoTime();
+
+			// Recorded once, a cancel can follow the answer
+			AtomicBoolean done = new AtomicBoolean();
+			Runnable complete = () -> {
+				if (done.compareAndSet(false, true)) {
+					record(Duration.ofNanos(System.nanoTime() - start).toMillis());
+				}
+			};
+			return call.doOnSuccess(result -> complete.run()).doOnError(ex -> done.set(true)).doOnCancel(complete);
+		});
+	}
+
+	private void record(long latencyMs) {
+		synchronized (latenciesMs) {
+			latenciesMs[(int) (recorded % latenciesMs.length)] = latencyMs;
+			recorded++;
+		}
+	}
+}
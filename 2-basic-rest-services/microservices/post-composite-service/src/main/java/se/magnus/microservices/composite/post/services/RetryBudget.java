@@ -0,0 +1,122 @@
+package se.magnus.microservices.composite.post.services;
+
+import io.github.resilience4j.retry.RetryConfig;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+import se.magnus.util.exceptions.RetryBudgetExhaustedException;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * A token bucket that caps the retries of the calls to one core service at a
+ * ratio of the calls themselves.
+ *
+ * Each call deposits ratio tokens, and each retry withdraws one token. The
+ * bucket also refills with minRetriesPerSec tokens per second, so that a
+ * service with little traffic can still be retried, and holds at most
+ * maxTokens tokens, so that a long healthy period does not pay for a storm of
+ * retries. When the bucket is empty, a failed call that would have been
+ * retried fails with a {@link RetryBudgetExhaustedException} instead, which
+ * the retry lets through at once.
+ *
+ * The number of tokens, the allowed retries and the retries that were denied
+ * are exposed through the actuator metrics endpoint as "retry.budget.tokens",
+ * "retry.budget.retries" and "retry.budget.exhausted", tagged with the
+ * service name.
+ */
+public class RetryBudget {
+
+	private static final Logger LOG = LoggerFactory.getLogger(RetryBudget.class);
+
+	private final String service;
+	private final RetryConfig retryConfig;
+	private final double ratio;
+	private final double minRetriesPerSec;
+	private final double maxTokens;
+
+	private double tokens;
+	private long lastRefillNanos = System.nanoTime();
+
+	private final Counter retries;
+	private final Counter exhausted;
+
+	public RetryBudget(String service, RetryConfig retryConfig, MeterRegistry meterRegistry, double ratio,
+			double minRetriesPerSec, double maxTokens) {
+		this.service = service;
+		this.retryConfig = retryConfig;
+		this.ratio = ratio;
+		this.minRetriesPerSec = minRetriesPerSec;
+		this.maxTokens = maxTokens;
+		this.tokens = maxTokens;
+
+		meterRegistry.gauge("retry.budget.tokens", Tags.of("service", service), this, RetryBudget::getTokens);
+		this.retries = meterRegistry.counter("retry.budget.retries", "service", service);
+		this.exhausted = meterRegistry.counter("retry.budget.exhausted", "service", service);
+	}
+
+	/**
+	 * Guards a call that is retried by the resilience4j retry of the service.
+	 * The retry subscribes again to the returned Mono for each attempt, the
+	 * call is supplied anew for each of them.
+	 */
+	public <T> Mono<T> guard(Supplier<Mono<T>> call) {
+		AtomicInteger attempts = new AtomicInteger();
+
+		return Mono.defer(() -> {
+			int attempt = attempts.incrementAndGet();
+			if (attempt == 1) {
+				deposit();
+			}
+
+			// Decide when the attempt fails, so that the retry does not wait before it gives up
+			return call.get().onErrorMap(ex -> isRetryWithinBudget(attempt, ex) ? ex
+					: new RetryBudgetExhaustedException(
+							"Retry budget exhausted for " + service + ", got: " + ex.getMessage(), ex));
+		});
+	}
+
+	// Errors that the retry would not retry anyway do not use up the budget
+	private boolean isRetryWithinBudget(int attempt, Throwable ex) {
+		if (attempt >= retryConfig.getMaxAttempts() || !retryConfig.getExceptionPredicate().test(ex)) {
+			return true;
+		}
+
+		if (!tryWithdraw()) {
+			LOG.debug("{}: the retry budget is exhausted, gives up after attempt {}", service, attempt);
+			return false;
+		}
+		return true;
+	}
+
+	public synchronized double getTokens() {
+		refill();
+		return tokens;
+	}
+
+	private synchronized void deposit() {
+		refill();
+		tokens = Math.min(maxTokens, tokens + ratio);
+	}
+
+	private synchronized boolean tryWithdraw() {
+		refill();
+		if (tokens < 1) {
+			exhausted.increment();
+			return false;
+		}
+		tokens -= 1;
+		retries.increment();
+		return true;
+	}
+
+	private void refill() {
+		long now = System.nanoTime();
+		tokens = Math.min(maxTokens, tokens + (now - lastRefillNanos) / 1e9 * minRetriesPerSec);
+		lastRefillNanos = now;
+	}
+}
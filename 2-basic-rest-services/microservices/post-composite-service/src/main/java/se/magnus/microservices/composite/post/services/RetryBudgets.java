@@ -0,0 +1,51 @@
+package se.magnus.microservices.composite.post.services;
+
+import io.github.resilience4j.retry.RetryRegistry;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One {@link RetryBudget} per core service, shared by all retried calls to
+ * it, and bound to the resilience4j retry with the same name.
+ */
+@Component
+public class RetryBudgets {
+
+	private static final Logger LOG = LoggerFactory.getLogger(RetryBudgets.class);
+
+	private final RetryRegistry retryRegistry;
+	private final MeterRegistry meterRegistry;
+	private final double ratio;
+	private final double minRetriesPerSec;
+	private final double maxTokens;
+
+	private final Map<String, RetryBudget> budgets = new ConcurrentHashMap<>();
+
+	@Autowired
+	public RetryBudgets(RetryRegistry retryRegistry, MeterRegistry meterRegistry,
+			@Value("${app.post-composite.retry-budget.ratio}") double ratio,
+			@Value("${app.post-composite.retry-budget.minRetriesPerSec}") double minRetriesPerSec,
+			@Value("${app.post-composite.retry-budget.maxTokens}") double maxTokens) {
+
+		LOG.info("Creates retry budgets, ratio: {}, minRetriesPerSec: {}, maxTokens: {}", ratio, minRetriesPerSec,
+				maxTokens);
+
+		this.retryRegistry = retryRegistry;
+		this.meterRegistry = meterRegistry;
+		this.ratio = ratio;
+		this.minRetriesPerSec = minRetriesPerSec;
+		this.maxTokens = maxTokens;
+	}
+
+	public RetryBudget get(String service) {
+		return budgets.computeIfAbsent(service, name -> new RetryBudget(name,
+				retryRegistry.retry(name).getRetryConfig(), meterRegistry, ratio, minRetriesPerSec, maxTokens));
+	}
+}
@@ -0,0 +1,145 @@
+package se.magnus.microservices.composite.post;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+import se.magnus.microservices.composite.post.services.AdaptiveConcurrencyLimiter;
+import se.magnus.microservices.composite.post.services.ConcurrencyLimitFilter;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.http.HttpStatus.SERVICE_UNAVAILABLE;
+
+public class ConcurrencyLimitTests {
+
+	private static final long FAST = Duration.ofMillis(10).toNanos();
+	private static final long SLOW = Duration.ofSeconds(2).toNanos();
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	@Test
+	public void rejectsRequestsAboveTheLimit() {
+
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(meterRegistry, 2, 1, 10, 0.5,
+				Duration.ofSeconds(1));
+
+		assertTrue(limiter.tryAcquire());
+		assertTrue(limiter.tryAcquire());
+		assertFalse(limiter.tryAcquire());
+
+		assertEquals(2, (int) meterRegistry.get("concurrency.inflight").gauge().value());
+		assertEquals(1, meterRegistry.get("concurrency.rejected").counter().count(), 0);
+
+		limiter.release();
+		assertTrue(limiter.tryAcquire());
+	}
+
+	@Test
+	public void increasesTheLimitWhenFastAndUsed() {
+
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(meterRegistry, 4, 1, 5, 0.5,
+				Duration.ofSeconds(1));
+
+		// A single request in flight does not use enough of the limit to grow it
+		limiter.tryAcquire();
+		limiter.release(FAST, false);
+		assertEquals(4, limiter.getLimit());
+
+		for (int i = 0; i < 3; i++) {
+			limiter.tryAcquire();
+			limiter.tryAcquire();
+			limiter.release(FAST, false);
+			limiter.release(FAST, false);
+		}
+
+		// Never above the max limit
+		assertEquals(5, (int) meterRegistry.get("concurrency.limit").gauge().value());
+	}
+
+	@Test
+	public void decreasesTheLimitWhenSlowOrFailed() {
+
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(meterRegistry, 8, 3, 10, 0.5,
+				Duration.ofSeconds(1));
+
+		limiter.tryAcquire();
+		limiter.release(SLOW, false);
+		assertEquals(4, limiter.getLimit());
+
+		limiter.tryAcquire();
+		limiter.release(FAST, true);
+
+		// Never below the min limit
+		assertEquals(3, limiter.getLimit());
+	}
+
+	@Test
+	public void filterShedsExcessRequestsWith503() {
+
+		ConcurrencyLimitFilter filter = new ConcurrencyLimitFilter(meterRegistry, true, 1, 1, 10, 0.5, 1000, 1);
+		AtomicInteger handled = new AtomicInteger();
+		MonoProcessor<Void> pending = MonoProcessor.create();
+
+		// The first request holds the only permit until it completes
+		MockServerWebExchange first = MockServerWebExchange.from(MockServerHttpRequest.get("/post-composite/1"));
+		MonoProcessor<Void> firstResult = filter.filter(first, exchange -> {
+			handled.incrementAndGet();
+			return pending;
+		}).toProcessor();
+
+		MockServerWebExchange second = MockServerWebExchange.from(MockServerHttpRequest.get("/post-composite/2"));
+		filter.filter(second, exchange -> {
+			handled.incrementAndGet();
+			return Mono.empty();
+		}).block();
+
+		assertEquals(SERVICE_UNAVAILABLE, second.getResponse().getStatusCode());
+		assertEquals(1, handled.get());
+
+		// Other paths are never limited
+		MockServerWebExchange health = MockServerWebExchange.from(MockServerHttpRequest.get("/actuator/health"));
+		filter.filter(health, exchange -> Mono.empty()).block();
+		assertNull(health.getResponse().getStatusCode());
+
+		pending.onComplete();
+		firstResult.block();
+		assertEquals(0, filter.getLimiter().getInFlight());
+	}
+
+	@Test
+	public void streamsGetAFixedLimitOutsideTheAdaptiveLimit() {
+
+		ConcurrencyLimitFilter filter = new ConcurrencyLimitFilter(meterRegistry, true, 1, 1, 10, 0.5, 1000, 1);
+		MonoProcessor<Void> stream = MonoProcessor.create();
+
+		// A long-lived stream holds the only stream permit, but no permit of the adaptive limit
+		MockServerWebExchange first = MockServerWebExchange
+				.from(MockServerHttpRequest.get("/post-composite/1/stream"));
+		MonoProcessor<Void> firstResult = filter.filter(first, exchange -> stream).toProcessor();
+		assertEquals(0, filter.getLimiter().getInFlight());
+
+		MockServerWebExchange post = MockServerWebExchange.from(MockServerHttpRequest.get("/post-composite/1"));
+		filter.filter(post, exchange -> Mono.empty()).block();
+		assertNull(post.getResponse().getStatusCode());
+
+		MockServerWebExchange bulk = MockServerWebExchange.from(MockServerHttpRequest.post("/post-composite/bulk"));
+		filter.filter(bulk, exchange -> Mono.empty()).block();
+		assertEquals(SERVICE_UNAVAILABLE, bulk.getResponse().getStatusCode());
+		assertEquals(1, meterRegistry.get("concurrency.streams.rejected").counter().count(), 0);
+
+		// The end of the stream, however long it took, does not change the adaptive limit
+		int limit = filter.getLimiter().getLimit();
+		stream.onComplete();
+		firstResult.block();
+		assertEquals(limit, filter.getLimiter().getLimit());
+		assertEquals(0, (int) meterRegistry.get("concurrency.streams.inflight").gauge().value());
+	}
+}
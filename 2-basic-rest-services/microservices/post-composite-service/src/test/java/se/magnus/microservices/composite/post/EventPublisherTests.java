@@ -0,0 +1,102 @@
+package se.magnus.microservices.composite.post;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.support.ErrorMessage;
+import org.springframework.messaging.support.MessageBuilder;
+import reactor.core.publisher.MonoProcessor;
+import se.magnus.api.event.Event;
+import se.magnus.microservices.composite.post.services.EventPublisher;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeoutException;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static se.magnus.api.event.Event.Type.DELETE;
+
+public class EventPublisherTests {
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	private final EventPublisher publisher = new EventPublisher(meterRegistry, true, 1, 2, 10);
+
+	private final BlockingQueue<Message<?>> sentMessages = new LinkedBlockingQueue<>();
+
+	private final MessageChannel channel = (message, timeout) -> sentMessages.add(message);
+
+	@After
+	public void tearDown() {
+		publisher.dispose();
+	}
+
+	@Test
+	public void completesWhenConfirmed() throws InterruptedException {
+
+		MonoProcessor<Void> result = publisher.publish(channel, new Event(DELETE, 1, null)).toProcessor();
+
+		Message<?> sent = sentMessages.poll(1, SECONDS);
+		assertNotNull(sent);
+		assertFalse(result.isTerminated());
+		assertEquals(1, (int) meterRegistry.get("events.publish.unconfirmed").gauge().value());
+
+		// The binder sends the original message as the payload of the confirm
+		publisher.handleConfirm(MessageBuilder.withPayload(sent).build());
+
+		result.block();
+		assertTrue(result.isSuccess());
+		assertEquals(0, (int) meterRegistry.get("events.publish.unconfirmed").gauge().value());
+		assertEquals(0, (int) meterRegistry.get("events.publish.inflight").gauge().value());
+	}
+
+	@Test
+	public void failsWhenNacked() throws InterruptedException {
+
+		MonoProcessor<Void> result = publisher.publish(channel, new Event(DELETE, 1, null)).toProcessor();
+
+		Message<?> sent = sentMessages.poll(1, SECONDS);
+		assertNotNull(sent);
+
+		publisher.handleError(new ErrorMessage(new MessagingException(sent, "nack")));
+
+		try {
+			result.block();
+			fail("Expected a MessagingException here!");
+		} catch (MessagingException me) {
+			assertEquals("nack", me.getMessage());
+		}
+	}
+
+	@Test
+	public void failsWhenNotConfirmedInTime() {
+
+		try {
+			publisher.publish(channel, new Event(DELETE, 1, null)).block();
+			fail("Expected a timeout here!");
+		} catch (RuntimeException re) {
+			assertTrue(re.getCause() instanceof TimeoutException);
+		}
+
+		assertEquals(0, (int) meterRegistry.get("events.publish.unconfirmed").gauge().value());
+	}
+
+	@Test
+	public void failsWhenNotSent() {
+
+		try {
+			publisher.publish((message, timeout) -> false, new Event(DELETE, 1, null)).block();
+			fail("Expected a MessagingException here!");
+		} catch (MessagingException me) {
+			assertEquals("Failed to send an event", me.getMessage());
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package se.magnus.microservices.composite.post;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+import se.magnus.api.composite.post.PostAggregate;
+import se.magnus.microservices.composite.post.services.PostAggregateCache;
+
+import java.time.Duration;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class PostAggregateCacheTests {
+
+	private static final int POST_ID = 1;
+
+	private final PostAggregateCache cache = new PostAggregateCache(new SimpleMeterRegistry(), true, 100, 60, 200);
+
+	@Test
+	public void dropsAnAggregateFetchedBeforeAnInvalidation() {
+
+		// A fetch is in flight when the event of a write invalidates the post
+		MonoProcessor<PostAggregate> fetch = MonoProcessor.create();
+		MonoProcessor<PostAggregate> result = fetchAndPut(fetch).toProcessor();
+
+		cache.invalidate(POST_ID);
+		fetch.onNext(aggregate());
+		result.block();
+
+		assertNull(cache.get(POST_ID));
+
+		// A fetch that begins after the invalidation is cached
+		PostAggregate fresh = aggregate();
+		fetchAndPut(Mono.just(fresh)).block();
+		assertSame(fresh, cache.get(POST_ID));
+	}
+
+	@Test
+	public void invalidatesAWriteOnceMoreLater() throws InterruptedException {
+
+		cache.invalidateAfterWrite(POST_ID);
+
+		// Fetched after the event, but before the core service applied the write
+		fetchAndPut(Mono.just(aggregate())).block();
+
+		Thread.sleep(400);
+		assertNull(cache.get(POST_ID));
+	}
+
+	// The same stamp and put as PostCompositeServiceImpl.fetchCompositePost
+	private Mono<PostAggregate> fetchAndPut(Mono<PostAggregate> fetch) {
+		return Mono.defer(() -> {
+			long fetchStamp = cache.beginFetch();
+			return fetch.doOnNext(postAggregate -> cache.put(POST_ID, postAggregate, fetchStamp));
+		});
+	}
+
+	private PostAggregate aggregate() {
+		return new PostAggregate();
+	}
+}
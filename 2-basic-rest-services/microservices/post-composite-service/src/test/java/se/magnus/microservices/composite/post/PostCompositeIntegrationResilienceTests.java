@@ -0,0 +1,192 @@
+package se.magnus.microservices.composite.post;
+
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.LoadBalancerClient;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import se.magnus.microservices.composite.post.services.PostCompositeIntegration;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
+import static org.springframework.http.HttpHeaders.CONTENT_TYPE;
+import static org.springframework.http.HttpStatus.OK;
+import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
+
+@SpringBootTest(webEnvironment = RANDOM_PORT, classes = { PostCompositeServiceApplication.class,
+		TestSecurityConfig.class }, properties = { "spring.main.allow-bean-definition-overriding=true",
+				"eureka.client.enabled=false", "spring.cloud.config.enabled=false",
+				"resilience4j.timelimiter.instances.reaction.timeoutDuration=1s",
+				"resilience4j.timelimiter.instances.comment.timeoutDuration=1s",
+				"resilience4j.timelimiter.instances.image.timeoutDuration=1s",
+				"resilience4j.bulkhead.instances.reaction.maxConcurrentCalls=2",
+				"resilience4j.bulkhead.instances.comment.maxConcurrentCalls=2",
+				"resilience4j.bulkhead.instances.image.maxConcurrentCalls=2" })
+@RunWith(SpringRunner.class)
+public class PostCompositeIntegrationResilienceTests {
+
+	private static final int POST_ID = 1;
+
+	private static final String[] SERVICES = { "reaction", "comment", "image" };
+
+	// The delay and number of the calls that reach the core services
+	private static volatile Duration delay = Duration.ZERO;
+	private static final AtomicInteger calls = new AtomicInteger();
+
+	@TestConfiguration
+	static class SlowCoreServices {
+
+		// Answers every call with an empty list, after the delay
+		@Bean
+		@Primary
+		public WebClient.Builder slowWebClientBuilder() {
+			return WebClient.builder().exchangeFunction(request -> Mono.defer(() -> {
+				calls.incrementAndGet();
+				return Mono.just(ClientResponse.create(OK).header(CONTENT_TYPE, APPLICATION_JSON_VALUE).body("[]")
+						.build()).delayElement(delay);
+			}));
+		}
+	}
+
+	@Autowired
+	private PostCompositeIntegration integration;
+
+	@Autowired
+	private CircuitBreakerRegistry circuitBreakerRegistry;
+
+	@Autowired
+	private BulkheadRegistry bulkheadRegistry;
+
+	@MockBean
+	private LoadBalancerClient loadBalancer;
+
+	@Before
+	public void setUp() {
+
+		ServiceInstance instance = new DefaultServiceInstance("core", "core", "localhost", 8080, false);
+		when(loadBalancer.choose(anyString())).thenReturn(instance);
+		when(loadBalancer.reconstructURI(any(), any())).thenAnswer(invocation -> UriComponentsBuilder
+				.fromUri(invocation.getArgument(1)).host(instance.getHost()).port(instance.getPort()).build(true)
+				.toUri());
+
+		for (String service : SERVICES) {
+			circuitBreakerRegistry.circuitBreaker(service).reset();
+		}
+		delay = Duration.ZERO;
+		calls.set(0);
+	}
+
+	@Test
+	public void slowCallsTimeOutAfterOneSecond() {
+
+		delay = Duration.ofSeconds(10);
+
+		reads().forEach((service, read) -> {
+			Duration elapsed = StepVerifier.create(read.get()).expectError(TimeoutException.class)
+					.verify(Duration.ofSeconds(5));
+
+			assertTrue(service + " took " + elapsed.toMillis() + " ms",
+					elapsed.toMillis() >= 900 && elapsed.toMillis() < 2000);
+
+			// A timeout counts as a failure of the circuit breaker
+			assertEquals(1, circuitBreakerRegistry.circuitBreaker(service).getMetrics().getNumberOfFailedCalls());
+		});
+		assertEquals(3, calls.get());
+	}
+
+	@Test
+	public void timedOutCallsAreCancelled() {
+
+		delay = Duration.ofSeconds(10);
+		reads().forEach((service, read) -> StepVerifier.create(read.get()).expectError(TimeoutException.class)
+				.verify(Duration.ofSeconds(5)));
+
+		// The core services have recovered, the reads of the same post do not join the timed-out calls
+		delay = Duration.ZERO;
+		reads().forEach((service, read) -> StepVerifier.create(read.get()).verifyComplete());
+		assertEquals(6, calls.get());
+	}
+
+	@Test
+	public void openCircuitBreakerShortCircuits() {
+
+		reads().forEach((service, read) -> {
+			circuitBreakerRegistry.circuitBreaker(service).transitionToOpenState();
+
+			StepVerifier.create(read.get()).expectError(CallNotPermittedException.class).verify(Duration.ofSeconds(1));
+		});
+		assertEquals(0, calls.get());
+
+		// A closed circuit breaker lets the calls through again
+		for (String service : SERVICES) {
+			circuitBreakerRegistry.circuitBreaker(service).reset();
+		}
+		reads().forEach((service, read) -> StepVerifier.create(read.get()).verifyComplete());
+		assertEquals(3, calls.get());
+	}
+
+	@Test
+	public void fullBulkheadShortCircuits() {
+
+		reads().forEach((service, read) -> {
+			Bulkhead bulkhead = bulkheadRegistry.bulkhead(service);
+			assertEquals(2, bulkhead.getBulkheadConfig().getMaxConcurrentCalls());
+
+			// Take the permissions of two calls in flight
+			int permissions = 0;
+			while (bulkhead.tryAcquirePermission()) {
+				permissions++;
+			}
+			assertEquals(2, permissions);
+
+			try {
+				StepVerifier.create(read.get()).expectError(BulkheadFullException.class)
+						.verify(Duration.ofSeconds(1));
+			} finally {
+				for (int i = 0; i < permissions; i++) {
+					bulkhead.releasePermission();
+				}
+			}
+		});
+		assertEquals(0, calls.get());
+	}
+
+	// A read of each core service, all of them for the same post so that hung calls would be joined by later reads
+	private Map<String, Supplier<Flux<?>>> reads() {
+		Map<String, Supplier<Flux<?>>> reads = new LinkedHashMap<>();
+		reads.put("reaction", () -> integration.getReactions(POST_ID, 10, null));
+		reads.put("comment", () -> integration.getComments(POST_ID, 10, null));
+		reads.put("image", () -> integration.getImages(POST_ID));
+		return reads;
+	}
+}
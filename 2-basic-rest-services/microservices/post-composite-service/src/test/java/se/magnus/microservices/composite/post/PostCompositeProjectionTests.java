@@ -0,0 +1,67 @@
+package se.magnus.microservices.composite.post;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.messaging.support.GenericMessage;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import se.magnus.api.core.comment.Comment;
+import se.magnus.api.core.post.Post;
+import se.magnus.api.core.reaction.Reaction;
+import se.magnus.api.event.Event;
+import se.magnus.microservices.composite.post.services.MessageProcessor.MessageSinks;
+import se.magnus.microservices.composite.post.services.PostCompositeIntegration;
+
+import java.time.LocalDate;
+
+import static java.util.Arrays.asList;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
+import static org.springframework.http.HttpStatus.OK;
+import static org.springframework.http.MediaType.APPLICATION_JSON;
+import static se.magnus.api.event.Event.Type.CREATE;
+
+@SpringBootTest(webEnvironment = RANDOM_PORT, classes = { PostCompositeServiceApplication.class,
+		TestSecurityConfig.class }, properties = { "spring.main.allow-bean-definition-overriding=true",
+				"eureka.client.enabled=false", "spring.cloud.config.enabled=false",
+				"app.post-composite.projection.enabled=true" })
+@RunWith(SpringRunner.class)
+public class PostCompositeProjectionTests {
+
+	private static final int POST_ID = 1;
+
+	@Autowired
+	private WebTestClient client;
+
+	@Autowired
+	private MessageSinks channels;
+
+	@MockBean
+	private PostCompositeIntegration compositeIntegration;
+
+	@Test
+	public void getProjectedPost() {
+
+		channels.inputPosts().send(new GenericMessage<>(
+				new Event(CREATE, POST_ID, new Post(POST_ID, "instagram post", "Enjoying...", LocalDate.now(), null))));
+		channels.inputReactions().send(new GenericMessage<>(Event.bulkCreate(POST_ID,
+				asList(new Reaction(POST_ID, 1, "heart", null), new Reaction(POST_ID, 2, "heart", null),
+						new Reaction(POST_ID, 3, "sad", null)))));
+		channels.inputComments().send(new GenericMessage<>(
+				new Event(CREATE, POST_ID, new Comment(POST_ID, 1, "nice video!", LocalDate.now(), null))));
+
+		client.get().uri("/post-composite/" + POST_ID + "?limit=2&include=reactions,comments,reactionCounts")
+				.accept(APPLICATION_JSON).exchange().expectStatus().isEqualTo(OK).expectBody()
+				.jsonPath("$.typeOfPost").isEqualTo("instagram post").jsonPath("$.reactions.length()").isEqualTo(2)
+				.jsonPath("$.reactionsCursor").isEqualTo("2").jsonPath("$.comments.length()").isEqualTo(1)
+				.jsonPath("$.images").doesNotExist().jsonPath("$.reactionCounts.heart").isEqualTo(2)
+				.jsonPath("$.reactionCounts.sad").isEqualTo(1);
+
+		verify(compositeIntegration, never()).getPost(anyInt(), anyInt(), anyInt());
+	}
+}
@@ -1,5 +1,7 @@
 package se.magnus.microservices.composite.post;
 
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -7,27 +9,50 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.http.HttpStatus;
+import org.springframework.messaging.MessagingException;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import se.magnus.api.composite.post.PostAggregateSection;
 import se.magnus.api.core.post.Post;
 import se.magnus.api.core.reaction.Reaction;
+import se.magnus.api.core.reaction.ReactionCounts;
 import se.magnus.api.core.comment.Comment;
 import se.magnus.api.core.image.Image;
+import se.magnus.microservices.composite.post.services.LastKnownGoodPostStore;
+import se.magnus.microservices.composite.post.services.PostAggregateCache;
 import se.magnus.microservices.composite.post.services.PostCompositeIntegration;
 import se.magnus.util.exceptions.InvalidInputException;
 import se.magnus.util.exceptions.NotFoundException;
 
 import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
+import static org.springframework.http.HttpHeaders.ETAG;
 import static org.springframework.http.HttpStatus.*;
 import static org.springframework.http.MediaType.APPLICATION_JSON;
+import static org.springframework.http.MediaType.APPLICATION_STREAM_JSON;
+import static se.magnus.api.composite.post.PostAggregateSection.Type.POST;
+import static se.magnus.api.composite.post.PostAggregateSection.Type.REACTIONS;
+import static se.magnus.microservices.composite.post.NdjsonCodecConfiguration.APPLICATION_NDJSON;
 
 import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
 
 @SpringBootTest(webEnvironment = RANDOM_PORT, classes = { PostCompositeServiceApplication.class,
 		TestSecurityConfig.class }, properties = { "spring.main.allow-bean-definition-overriding=true",
@@ -38,6 +63,12 @@ public class PostCompositeServiceApplicationTests {
 	private static final int POST_ID_OK = 1;
 	private static final int POST_ID_NOT_FOUND = 2;
 	private static final int POST_ID_INVALID = 3;
+	private static final int POST_ID_CACHED = 4;
+	private static final int POST_ID_CIRCUIT_OPEN = 5;
+	private static final int POST_ID_CIRCUIT_OPEN_NOT_STORED = 6;
+	private static final int POST_ID_PARTIAL = 7;
+	private static final int POST_ID_PAGED = 8;
+	private static final int POST_ID_VERSIONED = 9;
 
 	@Autowired
 	private WebTestClient client;
@@ -45,6 +76,12 @@ public class PostCompositeServiceApplicationTests {
 	@MockBean
 	private PostCompositeIntegration compositeIntegration;
 
+	@Autowired
+	private PostAggregateCache cache;
+
+	@Autowired
+	private LastKnownGoodPostStore lastKnownGoodPosts;
+
 	@Before
 	public void setUp() {
 
@@ -52,14 +89,69 @@ public class PostCompositeServiceApplicationTests {
 				Mono.just(new Post(POST_ID_OK, "instagram post", "Enjoying...", LocalDate.now(), "mock-address")));
 		when(compositeIntegration.getReactions(POST_ID_OK))
 				.thenReturn(Flux.fromIterable(singletonList(new Reaction(POST_ID_OK, 1, "heart", "mock address"))));
+		when(compositeIntegration.getReactions(eq(POST_ID_OK), anyInt(), any()))
+				.thenReturn(Flux.fromIterable(singletonList(new Reaction(POST_ID_OK, 1, "heart", "mock address"))));
 		when(compositeIntegration.getComments(POST_ID_OK)).thenReturn(Flux.fromIterable(
 				singletonList(new Comment(POST_ID_OK, 1, "nice video!", LocalDate.now(), "mock address"))));
+		when(compositeIntegration.getComments(eq(POST_ID_OK), anyInt(), any())).thenReturn(Flux.fromIterable(
+				singletonList(new Comment(POST_ID_OK, 1, "nice video!", LocalDate.now(), "mock address"))));
 		when(compositeIntegration.getImages(POST_ID_OK)).thenReturn(Flux.fromIterable(
 				singletonList(new Image(POST_ID_OK, 1, "Some image URL...", LocalDate.now(), "mock address"))));
+		when(compositeIntegration.getReactionCounts(POST_ID_OK))
+				.thenReturn(Mono.just(new ReactionCounts(POST_ID_OK, singletonMap("heart", 1L), "mock address")));
+
+		when(compositeIntegration.getPosts(anyList())).thenReturn(
+				Flux.just(new Post(POST_ID_OK, "instagram post", "Enjoying...", LocalDate.now(), "mock-address")));
+		when(compositeIntegration.getReactions(anyList(), anyInt()))
+				.thenReturn(Flux.just(new Reaction(POST_ID_OK, 1, "heart", "mock address"),
+						new Reaction(POST_ID_OK, 2, "sad", "mock address")));
+		when(compositeIntegration.getComments(anyList(), anyInt())).thenReturn(
+				Flux.just(new Comment(POST_ID_OK, 1, "nice video!", LocalDate.now(), "mock address")));
+		when(compositeIntegration.getImages(anyList())).thenReturn(Flux.empty());
+
+		when(compositeIntegration.getPost(eq(POST_ID_CACHED), anyInt(), anyInt())).thenReturn(
+				Mono.just(new Post(POST_ID_CACHED, "cached post", "Caching...", LocalDate.now(), "mock-address")));
+		when(compositeIntegration.getReactions(eq(POST_ID_CACHED), anyInt(), any())).thenReturn(Flux.empty());
+		when(compositeIntegration.getComments(eq(POST_ID_CACHED), anyInt(), any())).thenReturn(Flux.empty());
+		when(compositeIntegration.getImages(POST_ID_CACHED)).thenReturn(Flux.empty());
+
+		CallNotPermittedException circuitOpen = CallNotPermittedException
+				.createCallNotPermittedException(CircuitBreaker.ofDefaults("post"));
+		for (int postId : new int[] { POST_ID_CIRCUIT_OPEN, POST_ID_CIRCUIT_OPEN_NOT_STORED }) {
+			when(compositeIntegration.getPost(eq(postId), anyInt(), anyInt())).thenReturn(Mono.error(circuitOpen));
+			when(compositeIntegration.getReactions(eq(postId), anyInt(), any())).thenReturn(Flux.empty());
+			when(compositeIntegration.getComments(eq(postId), anyInt(), any())).thenReturn(Flux.empty());
+			when(compositeIntegration.getImages(postId)).thenReturn(Flux.empty());
+		}
+
+		when(compositeIntegration.getPost(eq(POST_ID_PARTIAL), anyInt(), anyInt())).thenReturn(
+				Mono.just(new Post(POST_ID_PARTIAL, "partial post", "Partial...", LocalDate.now(), "mock-address")));
+		when(compositeIntegration.getReactions(eq(POST_ID_PARTIAL), anyInt(), any()))
+				.thenReturn(Flux.error(new RuntimeException("reaction service is down")));
+		when(compositeIntegration.getComments(eq(POST_ID_PARTIAL), anyInt(), any())).thenReturn(Flux.fromIterable(
+				singletonList(new Comment(POST_ID_PARTIAL, 1, "nice video!", LocalDate.now(), "mock address"))));
+		when(compositeIntegration.getImages(POST_ID_PARTIAL)).thenReturn(Flux.empty());
+
+		when(compositeIntegration.getPost(eq(POST_ID_PAGED), anyInt(), anyInt())).thenReturn(
+				Mono.just(new Post(POST_ID_PAGED, "paged post", "Paging...", LocalDate.now(), "mock-address")));
+		when(compositeIntegration.getReactions(eq(POST_ID_PAGED), eq(3), isNull()))
+				.thenReturn(Flux.just(new Reaction(POST_ID_PAGED, 1, "heart", "mock address"),
+						new Reaction(POST_ID_PAGED, 2, "sad", "mock address"),
+						new Reaction(POST_ID_PAGED, 3, "like", "mock address")));
+		when(compositeIntegration.getReactions(eq(POST_ID_PAGED), eq(3), eq(2)))
+				.thenReturn(Flux.just(new Reaction(POST_ID_PAGED, 3, "like", "mock address")));
+		when(compositeIntegration.getComments(eq(POST_ID_PAGED), anyInt(), any())).thenReturn(Flux.empty());
+		when(compositeIntegration.getImages(POST_ID_PAGED)).thenReturn(Flux.empty());
 
 		when(compositeIntegration.getPost(eq(POST_ID_NOT_FOUND),  anyInt(), anyInt()))
 				.thenThrow(new NotFoundException("NOT FOUND: " + POST_ID_NOT_FOUND));
 
+		when(compositeIntegration.getPost(eq(POST_ID_VERSIONED), anyInt(), anyInt())).thenReturn(Mono.just(
+				new Post(POST_ID_VERSIONED, "versioned post", "Versioning...", LocalDate.now(), "mock-address")));
+		when(compositeIntegration.getReactions(eq(POST_ID_VERSIONED), anyInt(), any())).thenReturn(Flux.empty());
+		when(compositeIntegration.getComments(eq(POST_ID_VERSIONED), anyInt(), any())).thenReturn(Flux.empty());
+		when(compositeIntegration.getImages(POST_ID_VERSIONED)).thenReturn(Flux.empty());
+
 		when(compositeIntegration.getPost(eq(POST_ID_INVALID), anyInt(), anyInt()))
 				.thenThrow(new InvalidInputException("INVALID: " + POST_ID_INVALID));
 	}
@@ -92,6 +184,250 @@ public class PostCompositeServiceApplicationTests {
 				.isEqualTo("INVALID: " + POST_ID_INVALID);
 	}
 
+	@Test
+	public void getPostFromCache() {
+
+		cache.invalidate(POST_ID_CACHED);
+
+		getAndVerifyPost(POST_ID_CACHED, OK).jsonPath("$.postId").isEqualTo(POST_ID_CACHED);
+		getAndVerifyPost(POST_ID_CACHED, OK).jsonPath("$.postId").isEqualTo(POST_ID_CACHED);
+		verify(compositeIntegration, times(1)).getPost(eq(POST_ID_CACHED), anyInt(), anyInt());
+
+		cache.invalidate(POST_ID_CACHED);
+
+		getAndVerifyPost(POST_ID_CACHED, OK).jsonPath("$.postId").isEqualTo(POST_ID_CACHED);
+		verify(compositeIntegration, times(2)).getPost(eq(POST_ID_CACHED), anyInt(), anyInt());
+	}
+
+	@Test
+	public void getPostNotModified() {
+
+		cache.invalidate(POST_ID_VERSIONED);
+
+		String eTag = client.get().uri("/post-composite/" + POST_ID_VERSIONED).accept(APPLICATION_JSON).exchange()
+				.expectStatus().isEqualTo(OK).returnResult(String.class).getResponseHeaders().getETag();
+		assertNotNull(eTag);
+
+		// The cached aggregate has the same ETag
+		client.get().uri("/post-composite/" + POST_ID_VERSIONED).accept(APPLICATION_JSON).ifNoneMatch(eTag).exchange()
+				.expectStatus().isEqualTo(NOT_MODIFIED).expectHeader().valueEquals(ETAG, eTag).expectBody().isEmpty();
+
+		// A post with other contents gets a new ETag
+		when(compositeIntegration.getPost(eq(POST_ID_VERSIONED), anyInt(), anyInt())).thenReturn(Mono.just(
+				new Post(POST_ID_VERSIONED, "versioned post", "Versioning again...", LocalDate.now(), "mock-address")));
+		cache.invalidate(POST_ID_VERSIONED);
+
+		String newETag = client.get().uri("/post-composite/" + POST_ID_VERSIONED).accept(APPLICATION_JSON)
+				.ifNoneMatch(eTag).exchange().expectStatus().isEqualTo(OK).expectBody().jsonPath("$.postId")
+				.isEqualTo(POST_ID_VERSIONED).returnResult().getResponseHeaders().getETag();
+		assertNotEquals(eTag, newETag);
+	}
+
+	@Test
+	public void getPostSectionsWithTheSameETagWhenCached() {
+
+		cache.invalidate(POST_ID_OK);
+
+		String eTag = client.get().uri("/post-composite/" + POST_ID_OK + "?include=reactions").accept(APPLICATION_JSON)
+				.exchange().expectStatus().isEqualTo(OK).returnResult(String.class).getResponseHeaders().getETag();
+		assertNotNull(eTag);
+
+		// The sections are projected from the cached aggregate of all sections
+		getAndVerifyPost(POST_ID_OK, OK);
+		client.get().uri("/post-composite/" + POST_ID_OK + "?include=reactions").accept(APPLICATION_JSON)
+				.ifNoneMatch(eTag).exchange().expectStatus().isEqualTo(NOT_MODIFIED).expectHeader()
+				.valueEquals(ETAG, eTag);
+		verify(compositeIntegration, times(2)).getPost(eq(POST_ID_OK), anyInt(), anyInt());
+	}
+
+	@Test
+	public void getPostFromLastKnownGoodStore() {
+
+		lastKnownGoodPosts.put(
+				new Post(POST_ID_CIRCUIT_OPEN, "stored post", "Stored...", LocalDate.now(), "mock-address"));
+
+		getAndVerifyPost(POST_ID_CIRCUIT_OPEN, OK).jsonPath("$.postId").isEqualTo(POST_ID_CIRCUIT_OPEN)
+				.jsonPath("$.typeOfPost").isEqualTo("stored post");
+
+		// Aggregates based on last-known-good posts are not cached
+		getAndVerifyPost(POST_ID_CIRCUIT_OPEN, OK);
+		verify(compositeIntegration, times(2)).getPost(eq(POST_ID_CIRCUIT_OPEN), anyInt(), anyInt());
+	}
+
+	@Test
+	public void getPostNotInLastKnownGoodStore() {
+
+		getAndVerifyPost(POST_ID_CIRCUIT_OPEN_NOT_STORED, NOT_FOUND).jsonPath("$.message")
+				.isEqualTo("Post Id: " + POST_ID_CIRCUIT_OPEN_NOT_STORED + " not found in fallback cache!");
+	}
+
+	@Test
+	public void getPostWithIncludedSections() {
+
+		cache.invalidate(POST_ID_OK);
+
+		client.get().uri("/post-composite/" + POST_ID_OK + "?include=reactions").accept(APPLICATION_JSON).exchange()
+				.expectStatus().isEqualTo(OK).expectBody().jsonPath("$.postId").isEqualTo(POST_ID_OK)
+				.jsonPath("$.reactions.length()").isEqualTo(1).jsonPath("$.comments").doesNotExist()
+				.jsonPath("$.images").doesNotExist();
+
+		verify(compositeIntegration, never()).getComments(eq(POST_ID_OK), anyInt(), any());
+		verify(compositeIntegration, never()).getImages(POST_ID_OK);
+	}
+
+	@Test
+	public void getPostWithInvalidIncludedSection() {
+
+		client.get().uri("/post-composite/" + POST_ID_OK + "?include=reactions,likes").accept(APPLICATION_JSON)
+				.exchange().expectStatus().isEqualTo(UNPROCESSABLE_ENTITY).expectBody().jsonPath("$.message")
+				.isEqualTo("Invalid include: likes, expected any of [reactions, comments, images] or [reactionCounts]");
+	}
+
+	@Test
+	public void getPostWithReactionCounts() {
+
+		client.get().uri("/post-composite/" + POST_ID_OK + "?include=reactionCounts,images").accept(APPLICATION_JSON)
+				.exchange().expectStatus().isEqualTo(OK).expectBody().jsonPath("$.reactionCounts.heart").isEqualTo(1)
+				.jsonPath("$.reactions").doesNotExist().jsonPath("$.images.length()").isEqualTo(1)
+				.jsonPath("$.serviceAddresses.reaction").isEqualTo("mock address");
+
+		verify(compositeIntegration, never()).getReactions(eq(POST_ID_OK), anyInt(), any());
+
+		// Reaction counts are only returned when asked for
+		getAndVerifyPost(POST_ID_OK, OK).jsonPath("$.reactionCounts").doesNotExist();
+		verify(compositeIntegration, times(1)).getReactionCounts(POST_ID_OK);
+	}
+
+	@Test
+	public void getPostPageByPage() {
+
+		client.get().uri("/post-composite/" + POST_ID_PAGED + "?limit=2").accept(APPLICATION_JSON).exchange()
+				.expectStatus().isEqualTo(OK).expectBody().jsonPath("$.reactions.length()").isEqualTo(2)
+				.jsonPath("$.reactionsCursor").isEqualTo("2").jsonPath("$.commentsCursor").doesNotExist();
+
+		client.get().uri("/post-composite/" + POST_ID_PAGED + "?limit=2&reactionsCursor=2").accept(APPLICATION_JSON)
+				.exchange().expectStatus().isEqualTo(OK).expectBody().jsonPath("$.reactions.length()").isEqualTo(1)
+				.jsonPath("$.reactions[0].reactionId").isEqualTo(3).jsonPath("$.reactionsCursor").doesNotExist();
+	}
+
+	@Test
+	public void getPostPageInvalidInput() {
+
+		client.get().uri("/post-composite/" + POST_ID_PAGED + "?limit=0").accept(APPLICATION_JSON).exchange()
+				.expectStatus().isEqualTo(UNPROCESSABLE_ENTITY).expectBody().jsonPath("$.message")
+				.isEqualTo("Invalid limit: 0, expected 1 to 1000");
+
+		client.get().uri("/post-composite/" + POST_ID_PAGED + "?reactionsCursor=abc").accept(APPLICATION_JSON)
+				.exchange().expectStatus().isEqualTo(UNPROCESSABLE_ENTITY).expectBody().jsonPath("$.message")
+				.isEqualTo("Invalid reactionsCursor: abc");
+	}
+
+	@Test
+	public void getPartialPost() {
+
+		getAndVerifyPost(POST_ID_PARTIAL, OK).jsonPath("$.postId").isEqualTo(POST_ID_PARTIAL)
+				.jsonPath("$.reactions.length()").isEqualTo(0).jsonPath("$.comments.length()").isEqualTo(1);
+
+		// Partial aggregates are not cached
+		getAndVerifyPost(POST_ID_PARTIAL, OK);
+		verify(compositeIntegration, times(2)).getPost(eq(POST_ID_PARTIAL), anyInt(), anyInt());
+	}
+
+	@Test
+	public void getPostStream() {
+
+		List<PostAggregateSection> sections = client.get().uri("/post-composite/" + POST_ID_OK + "/stream")
+				.accept(APPLICATION_STREAM_JSON).exchange().expectStatus().isEqualTo(OK).expectHeader()
+				.contentTypeCompatibleWith(APPLICATION_STREAM_JSON).returnResult(PostAggregateSection.class)
+				.getResponseBody().collectList().block();
+
+		assertEquals(4, sections.size());
+		assertEquals(POST, sections.get(0).getSection());
+		assertEquals("instagram post", sections.get(0).getTypeOfPost());
+		sections.forEach(section -> assertEquals(POST_ID_OK, section.getPostId()));
+	}
+
+	@Test
+	public void getPostStreamWithAPageOfReactions() {
+
+		List<PostAggregateSection> sections = client.get().uri("/post-composite/" + POST_ID_PAGED + "/stream?limit=2")
+				.accept(APPLICATION_STREAM_JSON).exchange().expectStatus().isEqualTo(OK)
+				.returnResult(PostAggregateSection.class).getResponseBody().collectList().block();
+
+		PostAggregateSection reactionSection = sections.stream().filter(section -> section.getSection() == REACTIONS)
+				.findFirst().get();
+		assertEquals(2, reactionSection.getReactions().size());
+		assertEquals("2", reactionSection.getCursor());
+	}
+
+	@Test
+	public void getPostStreamNotFound() {
+
+		client.get().uri("/post-composite/" + POST_ID_NOT_FOUND + "/stream").accept(APPLICATION_STREAM_JSON)
+				.exchange().expectStatus().isEqualTo(NOT_FOUND);
+	}
+
+	@Test
+	public void getPostsByIds() {
+
+		client.get().uri("/post-composite?postIds=" + POST_ID_OK + "," + POST_ID_NOT_FOUND).accept(APPLICATION_JSON)
+				.exchange().expectStatus().isEqualTo(OK).expectHeader().contentType(APPLICATION_JSON).expectBody()
+				.jsonPath("$.length()").isEqualTo(1).jsonPath("$[0].postId").isEqualTo(POST_ID_OK)
+				.jsonPath("$[0].reactions.length()").isEqualTo(2).jsonPath("$[0].comments.length()").isEqualTo(1)
+				.jsonPath("$[0].images.length()").isEqualTo(0);
+	}
+
+	@Test
+	public void getPostsByIdsWithAPageOfReactions() {
+
+		client.get().uri("/post-composite?postIds=" + POST_ID_OK + "&limit=1").accept(APPLICATION_JSON).exchange()
+				.expectStatus().isEqualTo(OK).expectBody().jsonPath("$[0].reactions.length()").isEqualTo(1)
+				.jsonPath("$[0].reactions[0].reactionId").isEqualTo(1).jsonPath("$[0].reactionsCursor").isEqualTo("1")
+				.jsonPath("$[0].comments.length()").isEqualTo(1).jsonPath("$[0].commentsCursor").doesNotExist();
+
+		// The core services return one page per post, with one more item to tell if there is a next page
+		verify(compositeIntegration).getReactions(anyList(), eq(2));
+		verify(compositeIntegration).getComments(anyList(), eq(2));
+
+		client.get().uri("/post-composite?postIds=" + POST_ID_OK + "&limit=1001").accept(APPLICATION_JSON)
+				.exchange().expectStatus().isEqualTo(UNPROCESSABLE_ENTITY).expectBody().jsonPath("$.message")
+				.isEqualTo("Invalid limit: 1001, expected 1 to 1000");
+	}
+
+	@Test
+	public void createPostsInBulk() {
+
+		when(compositeIntegration.publishCreatePost(any())).thenReturn(Mono.empty());
+		when(compositeIntegration.publishCreatePost(argThat(post -> post != null && post.getPostId() == 9)))
+				.thenReturn(Mono.error(new MessagingException("Failed to send an event")));
+		when(compositeIntegration.publishCreateReactions(anyList())).thenReturn(Mono.empty());
+		when(compositeIntegration.publishCreateComments(anyList())).thenReturn(Mono.empty());
+		when(compositeIntegration.publishCreateImages(anyList())).thenReturn(Mono.empty());
+
+		String body = "{\"postId\":10,\"typeOfPost\":\"ig post\",\"reactions\":[{\"reactionId\":1}]}\n"
+				+ "{\"postId\":-1,\"typeOfPost\":\"ig post\"}\n"
+				+ "{\"postId\":9,\"typeOfPost\":\"ig post\"}\n"
+				+ "{\"postId\":11,\"typeOfPost\":\"ig post\"}\n";
+
+		client.post().uri("/post-composite/bulk").contentType(APPLICATION_NDJSON).bodyValue(body).exchange()
+				.expectStatus().isEqualTo(OK).expectBody().jsonPath("$.received").isEqualTo(4).jsonPath("$.created")
+				.isEqualTo(2).jsonPath("$.failures.length()").isEqualTo(2).jsonPath("$.failures[0].index")
+				.isEqualTo(1).jsonPath("$.failures[0].message").isEqualTo("Invalid postId: -1")
+				.jsonPath("$.failures[1].postId").isEqualTo(9).jsonPath("$.failures[1].message")
+				.isEqualTo("Failed to send an event");
+
+		verify(compositeIntegration, times(3)).publishCreatePost(any());
+		verify(compositeIntegration, times(3)).publishCreateReactions(anyList());
+	}
+
+	@Test
+	public void getPostsByIdsInvalidInput() {
+
+		client.get().uri("/post-composite?postIds=" + POST_ID_OK + ",-1").accept(APPLICATION_JSON).exchange()
+				.expectStatus().isEqualTo(UNPROCESSABLE_ENTITY).expectBody().jsonPath("$.path")
+				.isEqualTo("/post-composite").jsonPath("$.message").isEqualTo("Invalid postId: -1");
+	}
+
 	private WebTestClient.BodyContentSpec getAndVerifyPost(int postId, HttpStatus expectedStatus) {
 		return client.get().uri("/post-composite/" + postId).accept(APPLICATION_JSON).exchange().expectStatus()
 				.isEqualTo(expectedStatus).expectHeader().contentType(APPLICATION_JSON).expectBody();
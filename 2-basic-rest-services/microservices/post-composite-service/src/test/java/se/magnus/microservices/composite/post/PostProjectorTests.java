@@ -0,0 +1,71 @@
+package se.magnus.microservices.composite.post;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+import se.magnus.api.core.comment.Comment;
+import se.magnus.api.core.post.Post;
+import se.magnus.api.core.reaction.Reaction;
+import se.magnus.api.event.Event;
+import se.magnus.microservices.composite.post.services.InMemoryPostProjectionStore;
+import se.magnus.microservices.composite.post.services.PostProjection;
+import se.magnus.microservices.composite.post.services.PostProjectionStore;
+import se.magnus.microservices.composite.post.services.PostProjector;
+
+import java.time.LocalDate;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static se.magnus.api.event.Event.Type.CREATE;
+import static se.magnus.api.event.Event.Type.DELETE;
+
+public class PostProjectorTests {
+
+	private final PostProjectionStore store = new InMemoryPostProjectionStore(new SimpleMeterRegistry());
+
+	private final PostProjector projector = new PostProjector(store, true, false);
+
+	@Test
+	public void eventsAreProjectedInAnyOrder() {
+
+		projector.applyReactionEvent(Event.bulkCreate(1,
+				asList(new Reaction(1, 2, "sad", null), new Reaction(1, 1, "heart", null))));
+
+		PostProjection projection = projector.getProjection(1);
+		assertNull(projection.getPost());
+		assertEquals(2, projection.getReactions().size());
+
+		projector.applyPostEvent(new Event(CREATE, 1, new Post(1, "instagram post", "Enjoying...", LocalDate.now(), null)));
+		projector.applyCommentEvent(new Event(CREATE, 1, new Comment(1, 1, "nice video!", LocalDate.now(), null)));
+
+		projection = projector.getProjection(1);
+		assertEquals("instagram post", projection.getPost().getTypeOfPost());
+		assertEquals(1, projection.getComments().size());
+		assertEquals(1, projection.getReactions(1, null).get(0).getReactionId());
+		assertEquals(2, projection.getReactions(1, 1).get(0).getReactionId());
+	}
+
+	@Test
+	public void deletedPostsAreRemoved() {
+
+		projector.applyPostEvent(new Event(CREATE, 1, new Post(1, "instagram post", "Enjoying...", LocalDate.now(), null)));
+		projector.applyReactionEvent(new Event(CREATE, 1, new Reaction(1, 1, "heart", null)));
+
+		projector.applyPostEvent(new Event(DELETE, 1, null));
+		assertEquals(1, projector.getProjection(1).getReactions().size());
+
+		projector.applyReactionEvent(new Event(DELETE, 1, null));
+		assertNull(projector.getProjection(1));
+		assertEquals(0, store.size());
+	}
+
+	@Test
+	public void rebuildClearsTheStore() {
+
+		projector.applyPostEvent(new Event(CREATE, 1, new Post(1, "instagram post", "Enjoying...", LocalDate.now(), null)));
+		assertEquals(1, store.size());
+
+		new PostProjector(store, true, true);
+		assertEquals(0, store.size());
+	}
+}
@@ -0,0 +1,134 @@
+package se.magnus.microservices.composite.post;
+
+import com.netflix.loadbalancer.BaseLoadBalancer;
+import com.netflix.loadbalancer.Server;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import reactor.core.publisher.Mono;
+import se.magnus.microservices.composite.post.services.InstanceStats;
+import se.magnus.microservices.composite.post.services.InstanceStatsRegistry;
+import se.magnus.microservices.composite.post.services.PowerOfTwoChoicesRule;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.http.HttpMethod.GET;
+
+public class PowerOfTwoChoicesRuleTests {
+
+	private final InstanceStatsRegistry registry = new InstanceStatsRegistry(10000, 2000);
+
+	private final Server fast = new Server("fast", 8080);
+	private final Server slow = new Server("slow", 8080);
+	private final Server busy = new Server("busy", 8080);
+
+	private PowerOfTwoChoicesRule rule;
+
+	@Before
+	public void setUp() {
+		BaseLoadBalancer loadBalancer = new BaseLoadBalancer();
+		loadBalancer.addServers(asList(fast, slow, busy));
+		asList(fast, slow, busy).forEach(server -> server.setAlive(true));
+
+		rule = new PowerOfTwoChoicesRule(registry, "reaction");
+		rule.setLoadBalancer(loadBalancer);
+	}
+
+	@Test
+	public void neverChoosesTheWorstInstance() {
+
+		record("fast", 10);
+		record("slow", 500);
+		record("busy", 10);
+
+		// As many outstanding requests as it takes to be more costly than the slow instance
+		InstanceStats busyStats = registry.getStats("reaction", "busy", 8080);
+		for (int i = 0; i < 100; i++) {
+			busyStats.start();
+		}
+
+		Map<String, Integer> chosen = new HashMap<>();
+		for (int i = 0; i < 300; i++) {
+			chosen.merge(rule.choose(null).getHost(), 1, Integer::sum);
+		}
+
+		// The busy instance is the worst one, the fast instance the best one
+		assertEquals(null, chosen.get("busy"));
+		assertTrue(chosen.get("fast") > chosen.get("slow"));
+	}
+
+	@Test
+	public void excludesTheInstanceOfAHedgedCall() {
+
+		record("fast", 10);
+		record("slow", 500);
+		record("busy", 500);
+
+		ServiceInstance first = new DefaultServiceInstance("fast", "reaction", "fast", 8080, false);
+		for (int i = 0; i < 100; i++) {
+			assertNotEquals("fast", rule.choose(first).getHost());
+		}
+	}
+
+	@Test
+	public void recordsLatenciesAndFailuresPerInstance() {
+
+		ClientRequest request = ClientRequest.create(GET, URI.create("http://slow:8080/reaction?postId=1")).build();
+
+		registry.exchangeFilter("reaction")
+				.filter(request, r -> Mono.just(ClientResponse.create(HttpStatus.INTERNAL_SERVER_ERROR).build()))
+				.block();
+
+		InstanceStats stats = registry.getStatsPerService().get("reaction").get(0);
+		assertEquals("slow:8080", stats.getInstance());
+		assertEquals(0, stats.getOutstanding());
+		assertEquals(1, stats.getRequests());
+		assertEquals(1, stats.getFailures());
+
+		// A failure counts as at least the failure penalty
+		assertTrue(stats.getLatencyEwmaMs() > 1000);
+	}
+
+	@Test
+	public void completesACallCancelledAfterItsResponseOnce() {
+
+		ClientRequest request = ClientRequest.create(GET, URI.create("http://slow:8080/reaction?postId=1")).build();
+
+		// Take cancels the call when its response arrives, as e.g. a timeout that fires while the body is read
+		registry.exchangeFilter("reaction")
+				.filter(request, r -> Mono.just(ClientResponse.create(HttpStatus.OK).build()).hide()).flux().take(1)
+				.blockLast();
+
+		InstanceStats stats = registry.getStats("reaction", "slow", 8080);
+		assertEquals(0, stats.getOutstanding());
+		assertEquals(1, stats.getRequests());
+	}
+
+	@Test
+	public void recordsTheStatsOfEachServiceApart() {
+
+		ClientRequest request = ClientRequest.create(GET, URI.create("http://shared:8080/image?postId=1")).build();
+
+		registry.exchangeFilter("image").filter(request, r -> Mono.just(ClientResponse.create(HttpStatus.OK).build()))
+				.block();
+
+		assertEquals(1, registry.getStats("image", "shared", 8080).getRequests());
+		assertEquals(0, registry.getStats("comment", "shared", 8080).getRequests());
+	}
+
+	private void record(String host, double latencyMs) {
+		InstanceStats stats = registry.getStats("reaction", host, 8080);
+		stats.start();
+		stats.complete(latencyMs, false);
+	}
+}
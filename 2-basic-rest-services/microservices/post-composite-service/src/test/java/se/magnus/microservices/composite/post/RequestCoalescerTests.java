@@ -0,0 +1,100 @@
+package se.magnus.microservices.composite.post;
+
+import org.junit.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+import se.magnus.microservices.composite.post.services.RequestCoalescer;
+
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class RequestCoalescerTests {
+
+	private final RequestCoalescer<Integer, String> coalescer = new RequestCoalescer<>("test");
+
+	@Test
+	public void concurrentCallsShareOneSubscription() {
+
+		AtomicInteger calls = new AtomicInteger();
+		MonoProcessor<String> upstream = MonoProcessor.create();
+
+		Mono<String> first = coalescer.coalesce(1, () -> upstream.doOnSubscribe(s -> calls.incrementAndGet()));
+		Mono<String> second = coalescer.coalesce(1, () -> upstream.doOnSubscribe(s -> calls.incrementAndGet()));
+
+		MonoProcessor<String> firstResult = first.toProcessor();
+		MonoProcessor<String> secondResult = second.toProcessor();
+		assertEquals(1, coalescer.inFlightCount());
+
+		upstream.onNext("post");
+
+		assertEquals("post", firstResult.block());
+		assertEquals("post", secondResult.block());
+		assertEquals(1, calls.get());
+		assertEquals(0, coalescer.inFlightCount());
+	}
+
+	@Test
+	public void completedCallsAreNotReused() {
+
+		AtomicInteger calls = new AtomicInteger();
+
+		assertEquals("1", coalescer.coalesce(1, () -> Mono.fromCallable(() -> "" + calls.incrementAndGet())).block());
+		assertEquals("2", coalescer.coalesce(1, () -> Mono.fromCallable(() -> "" + calls.incrementAndGet())).block());
+	}
+
+	@Test
+	public void failedCallsCanBeRetried() {
+
+		AtomicInteger calls = new AtomicInteger();
+
+		String result = coalescer.coalesce(1, () -> Mono.fromCallable(() -> {
+			if (calls.incrementAndGet() == 1) {
+				throw new IllegalStateException("first call fails");
+			}
+			return "post";
+		})).retry(1).block();
+
+		assertEquals("post", result);
+		assertEquals(2, calls.get());
+		assertEquals(0, coalescer.inFlightCount());
+	}
+
+	@Test
+	public void callsAreCancelledWhenAllSubscribersLeave() {
+
+		AtomicInteger cancels = new AtomicInteger();
+		MonoProcessor<String> hung = MonoProcessor.create();
+
+		Disposable first = coalescer.coalesce(1, () -> hung.doOnCancel(cancels::incrementAndGet)).subscribe();
+		Disposable second = coalescer.coalesce(1, () -> hung.doOnCancel(cancels::incrementAndGet)).subscribe();
+
+		first.dispose();
+		assertEquals(0, cancels.get());
+		assertEquals(1, coalescer.inFlightCount());
+
+		second.dispose();
+		assertEquals(1, cancels.get());
+		assertEquals(0, coalescer.inFlightCount());
+
+		// A later lookup starts a new call instead of joining the hung one
+		assertEquals("post", coalescer.coalesce(1, () -> Mono.just("post")).block());
+	}
+
+	@Test
+	public void timedOutCallsAreNotJoined() {
+
+		try {
+			coalescer.coalesce(1, () -> Mono.<String>never()).timeout(Duration.ofMillis(50)).block();
+			fail("Expected a TimeoutException");
+		} catch (RuntimeException e) {
+			assertEquals(TimeoutException.class, e.getCause().getClass());
+		}
+
+		assertEquals("post", coalescer.coalesce(1, () -> Mono.just("post")).block(Duration.ofSeconds(1)));
+	}
+}
@@ -0,0 +1,147 @@
+package se.magnus.microservices.composite.post;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.netflix.ribbon.RibbonLoadBalancerClient;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Mono;
+import se.magnus.microservices.composite.post.services.RequestHedger;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeoutException;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RequestHedgerTests {
+
+	private static final int WINDOW_SIZE = 5;
+
+	private static final String URL = "http://test/test?id=1";
+
+	private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	private final RibbonLoadBalancerClient loadBalancer = mock(RibbonLoadBalancerClient.class);
+
+	private final ServiceInstance first = new DefaultServiceInstance("first", "test", "first", 8080, false);
+	private final ServiceInstance second = new DefaultServiceInstance("second", "test", "second", 8080, false);
+
+	// The hosts that were called
+	private final List<String> hosts = new CopyOnWriteArrayList<>();
+
+	@Before
+	public void setUp() {
+		when(loadBalancer.choose("test")).thenReturn(first);
+		when(loadBalancer.choose("test", first)).thenReturn(second);
+		when(loadBalancer.reconstructURI(any(), any())).thenAnswer(invocation -> {
+			ServiceInstance instance = invocation.getArgument(0);
+			return UriComponentsBuilder.fromUri(invocation.getArgument(1)).host(instance.getHost())
+					.port(instance.getPort()).build(true).toUri();
+		});
+	}
+
+	@Test
+	public void noHedgesUntilTheLatencyWindowIsFilled() {
+
+		RequestHedger hedger = hedger(true);
+
+		assertEquals("slow", hedger.hedge(URL, uri -> call(uri, "slow", Duration.ofMillis(200))).block());
+
+		assertEquals(asList("first"), hosts);
+		assertEquals(0, meterRegistry.counter("hedging.hedges", "service", "test").count(), 0);
+	}
+
+	@Test
+	public void slowCallIsHedgedOnAnotherInstance() {
+
+		RequestHedger hedger = hedger(true);
+		fillWindow(hedger);
+		hosts.clear();
+
+		// The call to the first instance hangs, the hedged call answers at once
+		String result = hedger.hedge(URL, uri -> uri.getHost().equals("first")
+				? call(uri, "slow", Duration.ofSeconds(10)) : call(uri, "hedged", Duration.ZERO))
+				.block(Duration.ofSeconds(5));
+
+		assertEquals("hedged", result);
+		assertEquals(asList("first", "second"), hosts);
+		assertEquals(WINDOW_SIZE + 1, meterRegistry.counter("hedging.calls", "service", "test").count(), 0);
+		assertEquals(1, meterRegistry.counter("hedging.hedges", "service", "test").count(), 0);
+		assertEquals(1, meterRegistry.counter("hedging.wins", "service", "test").count(), 0);
+	}
+
+	@Test
+	public void noHedgeWithoutAnotherInstance() {
+
+		when(loadBalancer.choose("test", first)).thenReturn(first);
+
+		RequestHedger hedger = hedger(true);
+		fillWindow(hedger);
+		hosts.clear();
+
+		assertEquals("slow", hedger.hedge(URL, uri -> call(uri, "slow", Duration.ofMillis(200))).block());
+
+		assertEquals(asList("first"), hosts);
+		assertEquals(0, meterRegistry.counter("hedging.hedges", "service", "test").count(), 0);
+	}
+
+	@Test
+	public void recordsTheLatencyOfACancelledCall() {
+
+		RequestHedger hedger = hedger(true);
+		fillWindow(hedger);
+
+		// Cancelled by the timeout after 300 ms, which is the highest latency in the window
+		try {
+			hedger.hedge(URL, uri -> call(uri, "slow", Duration.ofSeconds(10))).timeout(Duration.ofMillis(300))
+					.block();
+			fail("Expected a TimeoutException");
+		} catch (RuntimeException e) {
+			assertEquals(TimeoutException.class, e.getCause().getClass());
+		}
+
+		// Answers within the hedge delay, that without the cancelled call would be 10 ms
+		double hedges = meterRegistry.counter("hedging.hedges", "service", "test").count();
+		assertEquals("primary", hedger.hedge(URL, uri -> uri.getHost().equals("first")
+				? call(uri, "primary", Duration.ofMillis(100)) : call(uri, "hedged", Duration.ZERO)).block());
+		assertEquals(hedges, meterRegistry.counter("hedging.hedges", "service", "test").count(), 0);
+	}
+
+	@Test
+	public void noHedgesWhenDisabled() {
+
+		RequestHedger hedger = hedger(false);
+		fillWindow(hedger);
+
+		assertEquals("slow", hedger.hedge(URL, uri -> call(uri, "slow", Duration.ofMillis(100))).block());
+		assertEquals(0, meterRegistry.counter("hedging.hedges", "service", "test").count(), 0);
+	}
+
+	private RequestHedger hedger(boolean enabled) {
+		return new RequestHedger("test", loadBalancer, meterRegistry, enabled, 95, WINDOW_SIZE, 10);
+	}
+
+	private void fillWindow(RequestHedger hedger) {
+		for (int i = 0; i < WINDOW_SIZE; i++) {
+			hedger.hedge(URL, uri -> call(uri, "fast", Duration.ZERO)).block();
+		}
+	}
+
+	private Mono<String> call(URI uri, String result, Duration delay) {
+		return Mono.defer(() -> {
+			hosts.add(uri.getHost());
+			return Mono.just(result).delayElement(delay);
+		});
+	}
+}
@@ -0,0 +1,81 @@
+package se.magnus.microservices.composite.post;
+
+import io.github.resilience4j.reactor.retry.RetryOperator;
+import io.github.resilience4j.retry.Retry;
+import io.github.resilience4j.retry.RetryConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+import reactor.core.publisher.Mono;
+import se.magnus.microservices.composite.post.services.RetryBudget;
+import se.magnus.util.exceptions.NotFoundException;
+import se.magnus.util.exceptions.RetryBudgetExhaustedException;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RetryBudgetTests {
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	private final Retry retry = Retry.of("post", RetryConfig.custom().maxAttempts(4)
+			.waitDuration(Duration.ofMillis(1)).retryExceptions(IllegalStateException.class).build());
+
+	// No refill over time, to make the tests deterministic
+	private final RetryBudget budget = new RetryBudget("post", retry.getRetryConfig(), meterRegistry, 0.5, 0, 2);
+
+	@Test
+	public void retriesUntilTheBudgetIsExhausted() {
+
+		AtomicInteger calls = new AtomicInteger();
+
+		try {
+			budget.guard(() -> {
+				calls.incrementAndGet();
+				return Mono.error(new IllegalStateException("down"));
+			}).transform(RetryOperator.of(retry)).block();
+			fail("Expected a RetryBudgetExhaustedException here!");
+		} catch (RetryBudgetExhaustedException rbee) {
+			assertTrue(rbee.getCause() instanceof IllegalStateException);
+		}
+
+		// Two retries were paid for by the full bucket, instead of the three the retry allows
+		assertEquals(3, calls.get());
+		assertEquals(2, meterRegistry.get("retry.budget.retries").counter().count(), 0);
+		assertEquals(1, meterRegistry.get("retry.budget.exhausted").counter().count(), 0);
+		assertEquals(0, meterRegistry.get("retry.budget.tokens").gauge().value(), 0.01);
+	}
+
+	@Test
+	public void callsRefillTheBudget() {
+
+		for (int i = 0; i < 2; i++) {
+			budget.guard(() -> Mono.error(new IllegalStateException("down"))).transform(RetryOperator.of(retry))
+					.onErrorResume(ex -> Mono.empty()).block();
+		}
+
+		// The second call deposited half a retry, not enough for a retry of its own
+		assertEquals(0.5, budget.getTokens(), 0.01);
+
+		budget.guard(() -> Mono.just("ok")).block();
+		budget.guard(() -> Mono.just("ok")).block();
+		assertEquals(1.5, budget.getTokens(), 0.01);
+	}
+
+	@Test
+	public void errorsThatAreNotRetriedDoNotUseTheBudget() {
+
+		try {
+			budget.guard(() -> Mono.error(new NotFoundException("not found"))).transform(RetryOperator.of(retry))
+					.block();
+			fail("Expected a NotFoundException here!");
+		} catch (NotFoundException nfe) {
+			assertEquals("not found", nfe.getMessage());
+		}
+
+		assertEquals(2, budget.getTokens(), 0.01);
+	}
+}
@@ -0,0 +1,86 @@
+package se.magnus.microservices.composite.post;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import se.magnus.api.core.comment.Comment;
+import se.magnus.api.core.image.Image;
+import se.magnus.api.core.reaction.Reaction;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the payload size and the decode time of JSON and Smile for lists
+ * of 1000 reactions, comments and images, as returned by the core services.
+ * The results are logged, only the sizes are asserted as timings vary between
+ * machines.
+ */
+public class WireFormatBenchmarkTests {
+
+	private static final Logger LOG = LoggerFactory.getLogger(WireFormatBenchmarkTests.class);
+
+	private static final int LIST_SIZE = 1000;
+	private static final int WARMUP_ITERATIONS = 200;
+	private static final int ITERATIONS = 500;
+
+	private final ObjectMapper jsonMapper = Jackson2ObjectMapperBuilder.json().build();
+	private final ObjectMapper smileMapper = Jackson2ObjectMapperBuilder.smile().build();
+
+	@Test
+	public void reactions() throws IOException {
+		benchmark("reactions", Reaction[].class,
+				i -> new Reaction(1, i, i % 2 == 0 ? "heart" : "like", "reaction-service/172.18.0.7:8080"));
+	}
+
+	@Test
+	public void comments() throws IOException {
+		benchmark("comments", Comment[].class, i -> new Comment(1, i, "Nice video, thanks for sharing it!",
+				LocalDate.of(2020, 8, 1), "comment-service/172.18.0.8:8080"));
+	}
+
+	@Test
+	public void images() throws IOException {
+		benchmark("images", Image[].class, i -> new Image(1, i, "https://images.example.com/1/" + i + ".jpg",
+				LocalDate.of(2020, 8, 1), "image-service/172.18.0.9:8080"));
+	}
+
+	private <T> void benchmark(String name, Class<T[]> type, IntFunction<T> factory) throws IOException {
+
+		List<T> items = IntStream.rangeClosed(1, LIST_SIZE).mapToObj(factory).collect(Collectors.toList());
+
+		byte[] json = jsonMapper.writeValueAsBytes(items);
+		byte[] smile = smileMapper.writeValueAsBytes(items);
+
+		long jsonNanos = decodeNanos(jsonMapper, json, type);
+		long smileNanos = decodeNanos(smileMapper, smile, type);
+
+		LOG.info("{} x {}: JSON {} bytes, {} us per decode - Smile {} bytes ({}%), {} us per decode ({}%)", LIST_SIZE,
+				name, json.length, jsonNanos / 1000, smile.length, 100 * smile.length / json.length,
+				smileNanos / 1000, 100 * smileNanos / jsonNanos);
+
+		assertEquals(LIST_SIZE, smileMapper.readValue(smile, type).length);
+		assertTrue("Expected Smile to be smaller than JSON", smile.length < json.length);
+	}
+
+	private long decodeNanos(ObjectMapper mapper, byte[] payload, Class<?> type) throws IOException {
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+			mapper.readValue(payload, type);
+		}
+
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			mapper.readValue(payload, type);
+		}
+		return (System.nanoTime() - start) / ITERATIONS;
+	}
+}
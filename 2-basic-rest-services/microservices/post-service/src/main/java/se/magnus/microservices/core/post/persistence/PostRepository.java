@@ -1,8 +1,13 @@
 package se.magnus.microservices.core.post.persistence;
 
 import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-public interface PostRepository extends ReactiveCrudRepository<PostEntity, String> {
+import java.util.Collection;
+
+public interface PostRepository extends ReactiveCrudRepository<PostEntity, String>, PostRepositoryCustom {
     Mono<PostEntity> findByPostId(int postId); //optional zato sto mozda nema objave sa tim ID-em
+
+    Flux<PostEntity> findByPostIdIn(Collection<Integer> postIds);
 }
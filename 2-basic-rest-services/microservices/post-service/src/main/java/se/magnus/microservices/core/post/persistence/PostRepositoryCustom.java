@@ -0,0 +1,16 @@
+package se.magnus.microservices.core.post.persistence;
+
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface PostRepositoryCustom {
+
+    /**
+     * Inserts the posts and deletes the posts with the given postIds in one
+     * unordered bulk write. Returns the indexes of the posts to insert that
+     * could not be inserted, e.g. because of a duplicate key.
+     */
+    Mono<List<Integer>> bulkWrite(List<PostEntity> inserts, Collection<Integer> deletedPostIds);
+}
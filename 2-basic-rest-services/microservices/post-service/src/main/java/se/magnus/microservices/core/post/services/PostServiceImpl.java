@@ -1,23 +1,26 @@
 package se.magnus.microservices.core.post.services;
 
-import java.time.LocalDate;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import se.magnus.api.core.post.Post;
 import se.magnus.api.core.post.PostService;
 import se.magnus.microservices.core.post.persistence.PostEntity;
 import se.magnus.microservices.core.post.persistence.PostRepository;
+import se.magnus.util.chaos.FaultInjector;
 import se.magnus.util.exceptions.InvalidInputException;
 import se.magnus.util.exceptions.NotFoundException;
 import se.magnus.util.http.ServiceUtil;
 
-import java.util.Random;
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
 
+import static java.util.stream.Collectors.toList;
 import static reactor.core.publisher.Mono.error;
 
 @RestController
@@ -40,18 +43,68 @@ public class PostServiceImpl implements PostService {
 
 	@Override
 	public Post createPost(Post body) {
+		return insertPost(body).block();
+	}
+
+	/**
+	 * Creates the post without blocking, used by the {@link MessageProcessor}.
+	 */
+	public Mono<Post> insertPost(Post body) {
 
 		if (body.getPostId() < 1)
-			throw new InvalidInputException("Invalid postId: " + body.getPostId());
+			return error(new InvalidInputException("Invalid postId: " + body.getPostId()));
 
 		PostEntity entity = mapper.apiToEntity(body);
 
-		Mono<Post> newEntity = repository.save(entity).log()
+		return repository.save(entity).log()
 				.onErrorMap(DuplicateKeyException.class,
 						ex -> new InvalidInputException("Duplicate key, Post Id: " + body.getPostId()))
 				.map(e -> mapper.entityToApi(e));
+	}
+
+	/**
+	 * Creates a post, unless it already exists with the same contents, used by
+	 * the {@link MessageProcessor} to replay the creates of a failed bulk write
+	 * that may be partly applied. A post that exists with other contents is a
+	 * duplicate.
+	 */
+	public Mono<Post> insertPostIfAbsent(Post body) {
+
+		if (body.getPostId() < 1)
+			return error(new InvalidInputException("Invalid postId: " + body.getPostId()));
+
+		return repository.findByPostId(body.getPostId()).map(e -> mapper.entityToApi(e))
+				.flatMap(existing -> hasSameContents(existing, body) ? Mono.just(existing)
+						: Mono.<Post>error(new InvalidInputException("Duplicate key, Post Id: " + body.getPostId())))
+				.switchIfEmpty(Mono.defer(() -> insertPost(body)));
+	}
 
-		return newEntity.block();
+	private boolean hasSameContents(Post post, Post other) {
+		return Objects.equals(post.getTypeOfPost(), other.getTypeOfPost())
+				&& Objects.equals(post.getPostCaption(), other.getPostCaption())
+				&& Objects.equals(post.getPostedOn(), other.getPostedOn());
+	}
+
+	/**
+	 * Creates and deletes posts in one bulk write, used by the
+	 * {@link MessageProcessor} in batch mode. Returns the indexes of the posts
+	 * to create that could not be created.
+	 */
+	public Mono<List<Integer>> bulkWrite(List<Post> creates, List<Integer> deletedPostIds) {
+		return Mono.defer(() -> {
+
+			creates.forEach(body -> {
+				if (body.getPostId() < 1)
+					throw new InvalidInputException("Invalid postId: " + body.getPostId());
+			});
+			deletedPostIds.forEach(postId -> {
+				if (postId < 1)
+					throw new InvalidInputException("Invalid postId: " + postId);
+			});
+
+			LOG.debug("bulkWrite: creates {} and deletes {} posts", creates.size(), deletedPostIds.size());
+			return repository.bulkWrite(creates.stream().map(mapper::apiToEntity).collect(toList()), deletedPostIds);
+		});
 	}
 
 	@Override
@@ -60,57 +113,47 @@ public class PostServiceImpl implements PostService {
 		if (postId < 1)
 			throw new InvalidInputException("Invalid postId: " + postId);
 
-		if (delay > 0)
-			simulateDelay(delay);
-
-		if (faultPercent > 0)
-			throwErrorIfBadLuck(faultPercent);
-
-		return repository.findByPostId(postId)
+		Mono<Post> post = repository.findByPostId(postId)
 				.switchIfEmpty(error(new NotFoundException("No post found for postId: " + postId))).log()
 				.map(e -> mapper.entityToApi(e)).map(e -> {
 					e.setServiceAddress(serviceUtil.getServiceAddress());
 					return e;
 				});
+
+		// The delay runs on a timer, not on the event loop thread
+		return FaultInjector.injectFaults(post, Duration.ofSeconds(delay), faultPercent);
 	}
 
 	@Override
-	public void deletePost(int postId) {
+	public Flux<Post> getPosts(List<Integer> postIds) {
 
-		if (postId < 1)
-			throw new InvalidInputException("Invalid postId: " + postId);
+		postIds.forEach(postId -> {
+			if (postId < 1)
+				throw new InvalidInputException("Invalid postId: " + postId);
+		});
 
-		LOG.debug("deletePost: tries to delete an entity with postId: {}", postId);
-		repository.findByPostId(postId).log().map(e -> repository.delete(e)).flatMap(e -> e).block();
-	}
+		LOG.debug("getPosts: will get posts for postIds: {}", postIds);
 
-	private void simulateDelay(int delay) {
-		LOG.debug("Sleeping for {} seconds...", delay);
-		try {
-			Thread.sleep(delay * 1000);
-		} catch (InterruptedException e) {
-		}
-		LOG.debug("Moving on...");
+		return repository.findByPostIdIn(postIds).log().map(e -> mapper.entityToApi(e)).map(e -> {
+			e.setServiceAddress(serviceUtil.getServiceAddress());
+			return e;
+		});
 	}
 
-	private void throwErrorIfBadLuck(int faultPercent) {
-		int randomThreshold = getRandomNumber(1, 100);
-		if (faultPercent < randomThreshold) {
-			LOG.debug("We got lucky, no error occurred, {} < {}", faultPercent, randomThreshold);
-		} else {
-			LOG.debug("Bad luck, an error occurred, {} >= {}", faultPercent, randomThreshold);
-			throw new RuntimeException("Something went wrong...");
-		}
+	@Override
+	public void deletePost(int postId) {
+		removePost(postId).block();
 	}
 
-	private final Random randomNumberGenerator = new Random();
+	/**
+	 * Deletes the post without blocking, used by the {@link MessageProcessor}.
+	 */
+	public Mono<Void> removePost(int postId) {
 
-	private int getRandomNumber(int min, int max) {
-
-		if (max < min) {
-			throw new RuntimeException("Max must be greater than min");
-		}
+		if (postId < 1)
+			return error(new InvalidInputException("Invalid postId: " + postId));
 
-		return randomNumberGenerator.nextInt((max - min) + 1) + min;
+		LOG.debug("deletePost: tries to delete an entity with postId: {}", postId);
+		return repository.findByPostId(postId).log().flatMap(e -> repository.delete(e));
 	}
 }
\ No newline at end of file
@@ -0,0 +1,243 @@
+package se.magnus.microservices.core.post;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rabbitmq.client.Channel;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.GenericMessage;
+import org.springframework.messaging.support.MessageBuilder;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+import se.magnus.api.core.post.Post;
+import se.magnus.api.event.Event;
+import se.magnus.microservices.core.post.services.MessageProcessor;
+import se.magnus.microservices.core.post.services.PostServiceImpl;
+import se.magnus.util.exceptions.InvalidInputException;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.synchronizedList;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static se.magnus.api.event.Event.Type.CREATE;
+import static se.magnus.api.event.Event.Type.DELETE;
+
+public class MessageProcessorTests {
+
+	private final ObjectMapper mapper = Jackson2ObjectMapperBuilder.json().build();
+
+	private final PostServiceImpl postService = mock(PostServiceImpl.class);
+
+	private final MessageProcessor processor = new MessageProcessor(postService, mapper, 100, 60, 4, 3, 1, 1, false, 0,
+			0);
+
+	// One lane, to get all events in the same batch
+	private final MessageProcessor batchProcessor = new MessageProcessor(postService, mapper, 100, 60, 1, 3, 1, 1,
+			true, 10, 50);
+
+	@Test
+	public void writesConcurrentlyButInOrderPerPost() throws JsonProcessingException {
+
+		List<String> calls = synchronizedList(new ArrayList<>());
+		when(postService.insertPost(any())).thenAnswer(invocation -> {
+			Post post = invocation.getArgument(0);
+			return Mono.delay(Duration.ofMillis(200)).doOnSubscribe(s -> calls.add("create " + post.getPostId()))
+					.doOnSuccess(v -> calls.add("created " + post.getPostId())).thenReturn(post);
+		});
+		when(postService.removePost(anyInt())).thenAnswer(invocation -> Mono.fromRunnable(
+				() -> calls.add("delete " + invocation.getArgument(0))));
+
+		List<Message<byte[]>> messages = new ArrayList<>();
+		for (int postId = 1; postId <= 4; postId++) {
+			messages.add(createPostMessage(postId));
+		}
+		messages.add(message(new Event(DELETE, 1, null)));
+
+		long start = System.currentTimeMillis();
+		Long deadLetters = processor.process().apply(Flux.fromIterable(messages)).count().block();
+		long elapsedMs = System.currentTimeMillis() - start;
+
+		assertEquals(0, (long) deadLetters);
+
+		// The four posts are written at the same time, one write of 200 ms instead of four
+		assertTrue("Took " + elapsedMs + " ms", elapsedMs < 600);
+
+		// The delete of post 1 waits for its create
+		assertTrue(calls.indexOf("delete 1") > calls.indexOf("created 1"));
+	}
+
+	@Test
+	public void sendsFailedEventsToTheDlqAfterTheRetries() throws JsonProcessingException {
+
+		AtomicInteger attempts = new AtomicInteger();
+		when(postService.insertPost(any())).thenReturn(Mono.defer(() -> {
+			attempts.incrementAndGet();
+			return Mono.error(new InvalidInputException("Duplicate key, Post Id: 1"));
+		}));
+
+		Message<byte[]> message = createPostMessage(1);
+		Message<byte[]> deadLetter = processor.process().apply(Flux.just(message)).blockFirst();
+
+		assertEquals(3, attempts.get());
+		assertEquals(message.getPayload(), deadLetter.getPayload());
+		assertEquals("Duplicate key, Post Id: 1", deadLetter.getHeaders().get("x-exception-message"));
+	}
+
+	@Test
+	public void skipsRedeliveredEvents() throws JsonProcessingException {
+
+		AtomicInteger attempts = new AtomicInteger();
+		when(postService.insertPost(any())).thenAnswer(invocation -> Mono.fromCallable(() -> {
+			attempts.incrementAndGet();
+			return invocation.getArgument(0);
+		}));
+
+		Message<byte[]> message = createPostMessage(1);
+		processor.process().apply(Flux.just(message, message)).blockLast();
+
+		assertEquals(1, attempts.get());
+	}
+
+	@Test
+	public void writesBatchesInBulk() throws JsonProcessingException {
+
+		when(postService.bulkWrite(any(), any())).thenReturn(Mono.just(emptyList()));
+
+		List<Message<byte[]>> messages = new ArrayList<>();
+		for (int postId = 1; postId <= 4; postId++) {
+			messages.add(createPostMessage(postId));
+		}
+		messages.add(message(new Event(DELETE, 3, null)));
+		messages.add(message(new Event(DELETE, 5, null)));
+
+		Long deadLetters = batchProcessor.process().apply(Flux.fromIterable(messages)).count().block();
+		assertEquals(0, (long) deadLetters);
+
+		// Post 3 is created and deleted, the delete has to wait for the create
+		ArgumentCaptor<List<Post>> creates = ArgumentCaptor.forClass(List.class);
+		ArgumentCaptor<List<Integer>> deletes = ArgumentCaptor.forClass(List.class);
+		verify(postService, times(2)).bulkWrite(creates.capture(), deletes.capture());
+
+		assertEquals(asList(1, 2, 3, 4), creates.getAllValues().get(0).stream().map(Post::getPostId).collect(toList()));
+		assertEquals(emptyList(), deletes.getAllValues().get(0));
+		assertEquals(emptyList(), creates.getAllValues().get(1));
+		assertEquals(asList(3, 5), deletes.getAllValues().get(1));
+
+		verify(postService, never()).insertPost(any());
+	}
+
+	@Test
+	public void sendsEventsThatFailInABulkWriteToTheDlqOneByOne() throws JsonProcessingException {
+
+		// The second post is a duplicate
+		when(postService.bulkWrite(any(), any())).thenReturn(Mono.just(singletonList(1)));
+		when(postService.insertPost(any()))
+				.thenReturn(Mono.error(new InvalidInputException("Duplicate key, Post Id: 2")));
+
+		List<Message<byte[]>> messages = asList(createPostMessage(1), createPostMessage(2), createPostMessage(3));
+
+		List<Message<byte[]>> deadLetters = batchProcessor.process().apply(Flux.fromIterable(messages)).collectList()
+				.block();
+
+		assertEquals(1, deadLetters.size());
+		assertEquals("Duplicate key, Post Id: 2", deadLetters.get(0).getHeaders().get("x-exception-message"));
+		verify(postService, times(1)).insertPost(argThat(post -> post.getPostId() == 2));
+	}
+
+	@Test
+	public void replaysTheCreatesOfAFailedBulkWriteWithoutDuplicates() throws JsonProcessingException {
+
+		// The bulk write created some of the posts before it failed
+		when(postService.bulkWrite(any(), any())).thenReturn(Mono.error(new RuntimeException("Connection reset")));
+		when(postService.insertPostIfAbsent(any())).thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+		when(postService.removePost(anyInt())).thenReturn(Mono.empty());
+
+		Event<Integer, Post> create = new Event(CREATE, 1, new Post(1, "Type of Post", "Post Caption", LocalDate.now(),
+				"SA"));
+		List<Message<byte[]>> messages = asList(message(create), createPostMessage(2),
+				message(new Event(DELETE, 3, null)));
+
+		List<Message<byte[]>> deadLetters = batchProcessor.process().apply(Flux.fromIterable(messages)).collectList()
+				.block();
+
+		assertTrue(deadLetters.isEmpty());
+		verify(postService, times(2)).insertPostIfAbsent(any());
+		verify(postService, never()).insertPost(any());
+		verify(postService).removePost(3);
+		assertTrue(batchProcessor.isProcessed(create.getEventId()));
+	}
+
+	@Test
+	public void acknowledgesAMessageOnlyWhenItsWriteCompletes() throws IOException {
+
+		MonoProcessor<Post> write = MonoProcessor.create();
+		when(postService.insertPost(any())).thenReturn(write);
+
+		Channel channel = mock(Channel.class);
+		Message<byte[]> message = MessageBuilder.fromMessage(createPostMessage(1))
+				.setHeader(AmqpHeaders.CHANNEL, channel).setHeader(AmqpHeaders.DELIVERY_TAG, 7L).build();
+
+		Disposable subscription = processor.process().apply(Flux.just(message).concatWith(Flux.never())).subscribe();
+		try {
+			verify(postService, timeout(1000)).insertPost(any());
+			verify(channel, never()).basicAck(anyLong(), anyBoolean());
+
+			write.onNext(new Post(1, "Type of Post", "Post Caption", LocalDate.now(), "SA"));
+			verify(channel, timeout(1000)).basicAck(7L, false);
+			verify(channel, never()).basicNack(anyLong(), anyBoolean(), anyBoolean());
+		} finally {
+			subscription.dispose();
+		}
+	}
+
+	@Test
+	public void rejectsAFailedMessageToTheDlqOfTheBroker() throws IOException {
+
+		when(postService.insertPost(any())).thenReturn(Mono.error(new InvalidInputException("Duplicate key, Post Id: 1")));
+
+		Channel channel = mock(Channel.class);
+		Message<byte[]> message = MessageBuilder.fromMessage(createPostMessage(1))
+				.setHeader(AmqpHeaders.CHANNEL, channel).setHeader(AmqpHeaders.DELIVERY_TAG, 7L).build();
+
+		Long deadLetters = processor.process().apply(Flux.just(message)).count().block();
+
+		// The broker moves the rejected message to the DLQ, nothing is emitted
+		assertEquals(0, (long) deadLetters);
+		verify(channel).basicNack(7L, false, false);
+		verify(channel, never()).basicAck(anyLong(), anyBoolean());
+	}
+
+	private Message<byte[]> createPostMessage(int postId) throws JsonProcessingException {
+		return message(new Event(CREATE, postId, new Post(postId, "Type of Post", "Post Caption", LocalDate.now(), "SA")));
+	}
+
+	private Message<byte[]> message(Event<Integer, Post> event) throws JsonProcessingException {
+		return new GenericMessage<>(mapper.writeValueAsBytes(event));
+	}
+}
@@ -3,18 +3,23 @@ package se.magnus.microservices.core.post;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.test.context.SpringBootTest;
-import org.springframework.cloud.stream.messaging.Sink;
+import org.springframework.cloud.stream.test.binder.MessageCollector;
 import org.springframework.http.HttpStatus;
-import org.springframework.integration.channel.AbstractMessageChannel;
-import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
 import org.springframework.messaging.support.GenericMessage;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import se.magnus.api.core.post.Post;
 import se.magnus.api.event.Event;
 import se.magnus.microservices.core.post.persistence.*;
+import se.magnus.microservices.core.post.services.MessageProcessor;
+import se.magnus.microservices.core.post.services.PostServiceImpl;
 import se.magnus.util.exceptions.InvalidInputException;
 
 import static org.junit.Assert.*;
@@ -25,10 +30,13 @@ import static se.magnus.api.event.Event.Type.CREATE;
 import static se.magnus.api.event.Event.Type.DELETE;
 
 import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
 
 @RunWith(SpringRunner.class)
 @SpringBootTest(webEnvironment = RANDOM_PORT, properties = { "spring.data.mongodb.port: 0",
-		"eureka.client.enabled=false", "spring.cloud.config.enabled=false", "server.error.include-message=always" })
+		"eureka.client.enabled=false", "spring.cloud.config.enabled=false", "server.error.include-message=always",
+		"spring.cloud.function.definition=process", "app.event-processing.backOffInitialInterval=10",
+		"app.event-processing.backOffMaxInterval=10" })
 public class PostServiceApplicationTests {
 
 	@Autowired
@@ -38,13 +46,27 @@ public class PostServiceApplicationTests {
 	private PostRepository repository;
 
 	@Autowired
-	private Sink channels;
+	@Qualifier("process-in-0")
+	private MessageChannel input;
 
-	private AbstractMessageChannel input = null;
+	@Autowired
+	@Qualifier("process-out-0")
+	private MessageChannel deadLetters;
+
+	@Autowired
+	private MessageCollector collector;
+
+	@Autowired
+	private MessageProcessor processor;
+
+	@Autowired
+	private PostServiceImpl postService;
+
+	@Autowired
+	private ObjectMapper mapper;
 
 	@Before
 	public void setupDb() {
-		input = (AbstractMessageChannel) channels.input();
 		repository.deleteAll().block();
 	}
 
@@ -65,7 +87,18 @@ public class PostServiceApplicationTests {
 	}
 
 	@Test
-	public void duplicateError() {
+	public void getPostsByIds() {
+
+		sendCreatePostEvent(1);
+		sendCreatePostEvent(2);
+		sendCreatePostEvent(3);
+
+		client.get().uri("/post?postIds=1,3,4").accept(APPLICATION_JSON).exchange().expectStatus().isEqualTo(OK)
+				.expectHeader().contentType(APPLICATION_JSON).expectBody().jsonPath("$.length()").isEqualTo(2);
+	}
+
+	@Test
+	public void duplicateError() throws InterruptedException {
 
 		int postId = 1;
 
@@ -75,16 +108,30 @@ public class PostServiceApplicationTests {
 
 		assertNotNull(repository.findByPostId(postId).block());
 
+		// The event is retried and then sent to the DLQ
+		input.send(message(createPostEvent(postId)));
+
+		Message<?> deadLetter = collector.forChannel(deadLetters).poll(5, TimeUnit.SECONDS);
+		assertNotNull("Expected a message on the DLQ here!", deadLetter);
+		assertEquals("Duplicate key, Post Id: " + postId, deadLetter.getHeaders().get("x-exception-message"));
+	}
+
+	@Test
+	public void insertsAnExistingPostOnlyOnce() {
+
+		Post post = new Post(1, "Type of Post", "Post Caption", LocalDate.now(), "SA");
+		postService.insertPost(post).block();
+
+		// A post with the same contents counts as created, a post with other contents is a duplicate
+		postService.insertPostIfAbsent(post).block();
+		assertEquals(1, (long) repository.count().block());
+
 		try {
-			sendCreatePostEvent(postId);
-			fail("Expected a MessagingException here!");
-		} catch (MessagingException me) {
-			if (me.getCause() instanceof InvalidInputException) {
-				InvalidInputException iie = (InvalidInputException) me.getCause();
-				assertEquals("Duplicate key, Post Id: " + postId, iie.getMessage());
-			} else {
-				fail("Expected a InvalidInputException as the root cause!");
-			}
+			postService.insertPostIfAbsent(new Post(1, "Type of Post", "Other Caption", LocalDate.now(), "SA"))
+					.block();
+			fail("Expected an InvalidInputException");
+		} catch (InvalidInputException e) {
+			assertEquals("Duplicate key, Post Id: 1", e.getMessage());
 		}
 	}
 
@@ -136,13 +183,38 @@ public class PostServiceApplicationTests {
 	}
 
 	private void sendCreatePostEvent(int postId) {
-		Post post = new Post(postId, "Type of Post", "Post Caption", LocalDate.now(), "SA");
-		Event<Integer, Post> event = new Event(CREATE, postId, post);
-		input.send(new GenericMessage<>(event));
+		sendAndWait(createPostEvent(postId));
 	}
 
 	private void sendDeletePostEvent(int postId) {
 		Event<Integer, Post> event = new Event(DELETE, postId, null);
-		input.send(new GenericMessage<>(event));
+		sendAndWait(event);
+	}
+
+	private Event<Integer, Post> createPostEvent(int postId) {
+		Post post = new Post(postId, "Type of Post", "Post Caption", LocalDate.now(), "SA");
+		return new Event(CREATE, postId, post);
+	}
+
+	private Message<byte[]> message(Event<Integer, Post> event) {
+		try {
+			return new GenericMessage<>(mapper.writeValueAsBytes(event));
+		} catch (JsonProcessingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	// The events are processed asynchronously, after the message is sent
+	private void sendAndWait(Event<Integer, Post> event) {
+		input.send(message(event));
+
+		for (int i = 0; i < 100 && !processor.isProcessed(event.getEventId()); i++) {
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		assertTrue("Event " + event.getEventId() + " was not processed", processor.isProcessed(event.getEventId()));
 	}
 }
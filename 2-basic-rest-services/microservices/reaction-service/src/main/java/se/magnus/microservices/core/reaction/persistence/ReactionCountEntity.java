@@ -0,0 +1,44 @@
+package se.magnus.microservices.core.reaction.persistence;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Map;
+
+/**
+ * Number of reactions of each type for a post, kept up to date with atomic
+ * $inc updates when reactions are created and removed when the reactions of
+ * the post are deleted.
+ */
+@Document(collection="reactionCounts")
+public class ReactionCountEntity {
+
+    @Id
+    private int postId;
+
+    private Map<String, Long> counts;
+
+    public ReactionCountEntity() {
+    }
+
+    public ReactionCountEntity(int postId, Map<String, Long> counts) {
+        this.postId = postId;
+        this.counts = counts;
+    }
+
+    public int getPostId() {
+        return postId;
+    }
+
+    public Map<String, Long> getCounts() {
+        return counts;
+    }
+
+    public void setPostId(int postId) {
+        this.postId = postId;
+    }
+
+    public void setCounts(Map<String, Long> counts) {
+        this.counts = counts;
+    }
+}
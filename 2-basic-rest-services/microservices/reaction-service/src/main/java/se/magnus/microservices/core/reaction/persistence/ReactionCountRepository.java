@@ -0,0 +1,6 @@
+package se.magnus.microservices.core.reaction.persistence;
+
+import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+
+public interface ReactionCountRepository extends ReactiveCrudRepository<ReactionCountEntity, Integer>, ReactionCountRepositoryCustom {
+}
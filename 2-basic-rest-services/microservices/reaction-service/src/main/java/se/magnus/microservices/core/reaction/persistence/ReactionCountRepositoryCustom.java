@@ -0,0 +1,42 @@
+package se.magnus.microservices.core.reaction.persistence;
+
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+import java.util.Map;
+
+public interface ReactionCountRepositoryCustom {
+
+    /**
+     * Atomically adds delta to the count of the given type of reaction for a
+     * post. A post without a counter document, e.g. one with reactions from
+     * before the counters existed, gets its counts rebuilt instead.
+     */
+    Mono<Void> increment(int postId, String typeOfReaction, long delta);
+
+    /**
+     * Atomically adds the deltas to the counts of the given types of reaction
+     * for a post in one update, or rebuilds the counts of a post without a
+     * counter document.
+     */
+    Mono<Void> increment(int postId, Map<String, Long> deltas);
+
+    /**
+     * Adds the deltas to the counts of each post and deletes the counts of
+     * the posts with the given postIds in one unordered bulk write. Posts
+     * without a counter document get their counts rebuilt.
+     */
+    Mono<Void> bulkUpdate(Map<Integer, Map<String, Long>> deltas, Collection<Integer> deletedPostIds);
+
+    /**
+     * Counts the reactions of a post by type with a $group aggregation over
+     * the reactions, and raises the stored counts to them, creating the
+     * counter document if it does not exist. Returns the stored counts.
+     * Nothing is written for a post without reactions, its counts are empty.
+     *
+     * The counts are only raised, with $max, so that a rebuild that runs
+     * concurrently with the increments of new reactions never lowers their
+     * counts.
+     */
+    Mono<Map<String, Long>> rebuild(int postId);
+}
@@ -0,0 +1,112 @@
+package se.magnus.microservices.core.reaction.persistence;
+
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.DeleteManyModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.aggregation.TypedAggregation;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.in;
+import static java.util.Collections.emptyMap;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
+import static org.springframework.data.mongodb.core.FindAndModifyOptions.options;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.group;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.match;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.newAggregation;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+public class ReactionCountRepositoryCustomImpl implements ReactionCountRepositoryCustom {
+
+    private final ReactiveMongoOperations mongoOperations;
+
+    @Autowired
+    public ReactionCountRepositoryCustomImpl(ReactiveMongoOperations mongoOperations) {
+        this.mongoOperations = mongoOperations;
+    }
+
+    @Override
+    public Mono<Void> increment(int postId, String typeOfReaction, long delta) {
+        return increment(postId, new Update().inc("counts." + typeOfReaction, delta));
+    }
+
+    @Override
+    public Mono<Void> increment(int postId, Map<String, Long> deltas) {
+        Update update = new Update();
+        deltas.forEach((typeOfReaction, delta) -> update.inc("counts." + typeOfReaction, delta));
+        return increment(postId, update);
+    }
+
+    // No upsert, an increment would start the counts of a post with older reactions from zero
+    private Mono<Void> increment(int postId, Update update) {
+        return mongoOperations.updateFirst(query(where("_id").is(postId)), update, ReactionCountEntity.class)
+            .flatMap(result -> result.getMatchedCount() == 0 ? rebuild(postId).then() : Mono.empty());
+    }
+
+    @Override
+    public Mono<Void> bulkUpdate(Map<Integer, Map<String, Long>> deltas, Collection<Integer> deletedPostIds) {
+
+        List<WriteModel<Document>> writes = new ArrayList<>();
+        deltas.forEach((postId, counts) -> {
+            List<Bson> increments = counts.entrySet().stream()
+                .map(count -> Updates.inc("counts." + count.getKey(), count.getValue())).collect(toList());
+            writes.add(new UpdateOneModel<>(eq("_id", postId), Updates.combine(increments)));
+        });
+        if (!deletedPostIds.isEmpty()) {
+            writes.add(new DeleteManyModel<>(in("_id", deletedPostIds)));
+        }
+
+        if (writes.isEmpty()) {
+            return Mono.empty();
+        }
+
+        return mongoOperations.getCollection(mongoOperations.getCollectionName(ReactionCountEntity.class))
+            .flatMap(collection -> Mono.from(collection.bulkWrite(writes, new BulkWriteOptions().ordered(false))))
+            .flatMap(result -> result.getMatchedCount() == deltas.size() ? Mono.empty() : rebuildMissing(deltas.keySet()));
+    }
+
+    private Mono<Void> rebuildMissing(Set<Integer> postIds) {
+        return mongoOperations.find(query(where("_id").in(postIds)), ReactionCountEntity.class)
+            .map(ReactionCountEntity::getPostId).collect(toSet())
+            .flatMapMany(existing -> Flux.fromIterable(postIds).filter(postId -> !existing.contains(postId)))
+            .concatMap(this::rebuild).then();
+    }
+
+    @Override
+    public Mono<Map<String, Long>> rebuild(int postId) {
+
+        TypedAggregation<ReactionEntity> countByType = newAggregation(ReactionEntity.class,
+            match(where("postId").is(postId)), group("typeOfReaction").count().as("count"));
+
+        return mongoOperations.aggregate(countByType, Document.class)
+            .collectMap(result -> result.getString("_id"), result -> ((Number) result.get("count")).longValue())
+            .flatMap(counts -> {
+                // A post without reactions has nothing to count, so no counter document is written for it
+                if (counts.isEmpty()) {
+                    return mongoOperations.findById(postId, ReactionCountEntity.class)
+                        .map(ReactionCountEntity::getCounts).defaultIfEmpty(emptyMap());
+                }
+                Update update = new Update();
+                counts.forEach((typeOfReaction, count) -> update.max("counts." + typeOfReaction, count));
+                return mongoOperations.findAndModify(query(where("_id").is(postId)), update,
+                    options().upsert(true).returnNew(true), ReactionCountEntity.class)
+                    .map(ReactionCountEntity::getCounts);
+            });
+    }
+}
@@ -1,10 +1,21 @@
 package se.magnus.microservices.core.reaction.persistence;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.repository.reactive.ReactiveCrudRepository;
 import reactor.core.publisher.Flux;
 
+import java.util.Collection;
 import java.util.List;
 
-public interface ReactionRepository extends ReactiveCrudRepository<ReactionEntity, String> {
+public interface ReactionRepository extends ReactiveCrudRepository<ReactionEntity, String>, ReactionRepositoryCustom {
     Flux<ReactionEntity> findByPostId(int postId);
+
+    Flux<ReactionEntity> findByPostIdIn(Collection<Integer> postIds);
+
+    Flux<ReactionEntity> findByPostIdAndReactionIdIn(int postId, Collection<Integer> reactionIds);
+
+    // Keyset pagination, served by the unique (postId, reactionId) index
+    Flux<ReactionEntity> findByPostIdOrderByReactionIdAsc(int postId, Pageable pageable);
+
+    Flux<ReactionEntity> findByPostIdAndReactionIdGreaterThanOrderByReactionIdAsc(int postId, int reactionId, Pageable pageable);
 }
@@ -0,0 +1,17 @@
+package se.magnus.microservices.core.reaction.persistence;
+
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface ReactionRepositoryCustom {
+
+    /**
+     * Inserts the reactions and deletes the reactions of the posts with the
+     * given postIds in one unordered bulk write. Returns the indexes of the
+     * reactions to insert that could not be inserted, e.g. because of a
+     * duplicate key.
+     */
+    Mono<List<Integer>> bulkWrite(List<ReactionEntity> inserts, Collection<Integer> deletedPostIds);
+}
@@ -0,0 +1,61 @@
+package se.magnus.microservices.core.reaction.persistence;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.DeleteManyModel;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import static com.mongodb.client.model.Filters.in;
+import static java.util.stream.Collectors.toList;
+
+public class ReactionRepositoryCustomImpl implements ReactionRepositoryCustom {
+
+    private final ReactiveMongoOperations mongoOperations;
+
+    @Autowired
+    public ReactionRepositoryCustomImpl(ReactiveMongoOperations mongoOperations) {
+        this.mongoOperations = mongoOperations;
+    }
+
+    @Override
+    public Mono<List<Integer>> bulkWrite(List<ReactionEntity> inserts, Collection<Integer> deletedPostIds) {
+
+        // The inserts come first, so that the index of a write error is the index of the reaction
+        List<WriteModel<Document>> writes = new ArrayList<>();
+        inserts.forEach(entity -> writes.add(new InsertOneModel<>(toDocument(entity))));
+        if (!deletedPostIds.isEmpty()) {
+            writes.add(new DeleteManyModel<>(in("postId", deletedPostIds)));
+        }
+
+        if (writes.isEmpty()) {
+            return Mono.just(Collections.emptyList());
+        }
+
+        return mongoOperations.getCollection(mongoOperations.getCollectionName(ReactionEntity.class))
+            .flatMap(collection -> Mono.from(collection.bulkWrite(writes, new BulkWriteOptions().ordered(false))))
+            .map(result -> Collections.<Integer>emptyList())
+            .onErrorResume(MongoBulkWriteException.class, ex -> {
+                List<Integer> failed = ex.getWriteErrors().stream().map(BulkWriteError::getIndex).collect(toList());
+                return failed.stream().allMatch(index -> index < inserts.size()) ? Mono.just(failed) : Mono.error(ex);
+            });
+    }
+
+    // Sets the version the same way as a save of a new entity does
+    private Document toDocument(ReactionEntity entity) {
+        Document document = new Document();
+        mongoOperations.getConverter().write(entity, document);
+        document.putIfAbsent("version", 0);
+        return document;
+    }
+}
@@ -1,53 +1,369 @@
 package se.magnus.microservices.core.reaction.services;
 
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rabbitmq.client.Channel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.amqp.support.AmqpHeaders;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.cloud.stream.annotation.EnableBinding;
-import org.springframework.cloud.stream.annotation.StreamListener;
-import org.springframework.cloud.stream.messaging.Sink;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
 import se.magnus.api.core.reaction.Reaction;
-import se.magnus.api.core.reaction.ReactionService;
 import se.magnus.api.event.Event;
+import se.magnus.util.events.EventDeduplicator;
 import se.magnus.util.exceptions.EventProcessingException;
 
-@EnableBinding(Sink.class)
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
+import static se.magnus.api.event.Event.Type.BULK_CREATE;
+import static se.magnus.api.event.Event.Type.CREATE;
+import static se.magnus.api.event.Event.Type.DELETE;
+
+/**
+ * Consumes the reaction events as a stream, bound to "process-in-0".
+ *
+ * The events are spread over a fixed number of lanes by their key. Each lane
+ * processes its events one at a time, so that the events of a post are
+ * processed in order, while the lanes write to the database concurrently.
+ *
+ * A failed event is retried with a backoff, and when it still fails it is
+ * sent to the DLQ.
+ *
+ * With the manual acknowledge mode of RabbitMQ a message is only acknowledged
+ * when its event is written, so that the events in flight are redelivered
+ * if the instance stops. A failed message is rejected without requeue, and
+ * the broker moves it to the DLQ of the input. Without manual acknowledges,
+ * e.g. with Kafka, the failed message is emitted to "process-out-0", which
+ * is bound to the DLQ.
+ *
+ * In batch mode, app.event-processing.batch.enabled, each lane collects up
+ * to maxSize events or waits at most maxWaitMs, and writes the reactions of
+ * its CREATE and BULK_CREATE events and the deletes of its DELETE events in
+ * one bulk write. The reactions that fail in the bulk write are replayed per
+ * event afterwards, so that their event is retried and sent to the DLQ
+ * without the rest of the batch. If the whole bulk write fails the events of
+ * the batch are replayed one by one, and the reactions that the bulk write
+ * created before it failed are not counted as duplicates.
+ */
+@Configuration
 public class MessageProcessor {
 
     private static final Logger LOG = LoggerFactory.getLogger(MessageProcessor.class);
 
-    private final ReactionService reactionService;
+    private final ReactionServiceImpl reactionService;
+    private final EventDeduplicator deduplicator;
+    private final ObjectMapper mapper;
+    private final JavaType eventType;
+
+    private final int concurrency;
+    private final int maxAttempts;
+    private final Duration backOffInitialInterval;
+    private final Duration backOffMaxInterval;
+
+    private final boolean batchEnabled;
+    private final int batchMaxSize;
+    private final Duration batchMaxWait;
 
     @Autowired
-    public MessageProcessor(ReactionService reactionService) {
+    public MessageProcessor(ReactionServiceImpl reactionService, ObjectMapper mapper,
+        @Value("${app.event-deduplication.maxSize:10000}") int maxSize,
+        @Value("${app.event-deduplication.ttlSeconds:3600}") long ttlSeconds,
+        @Value("${app.event-processing.concurrency:8}") int concurrency,
+        @Value("${app.event-processing.maxAttempts:3}") int maxAttempts,
+        @Value("${app.event-processing.backOffInitialInterval:500}") long backOffInitialInterval,
+        @Value("${app.event-processing.backOffMaxInterval:1000}") long backOffMaxInterval,
+        @Value("${app.event-processing.batch.enabled:false}") boolean batchEnabled,
+        @Value("${app.event-processing.batch.maxSize:100}") int batchMaxSize,
+        @Value("${app.event-processing.batch.maxWaitMs:100}") long batchMaxWaitMs) {
         this.reactionService = reactionService;
+        this.deduplicator = new EventDeduplicator(maxSize, ttlSeconds);
+        this.mapper = mapper;
+        this.eventType = mapper.getTypeFactory().constructParametricType(Event.class, Integer.class, Reaction.class);
+        this.concurrency = concurrency;
+        this.maxAttempts = maxAttempts;
+        this.backOffInitialInterval = Duration.ofMillis(backOffInitialInterval);
+        this.backOffMaxInterval = Duration.ofMillis(backOffMaxInterval);
+        this.batchEnabled = batchEnabled;
+        this.batchMaxSize = batchMaxSize;
+        this.batchMaxWait = Duration.ofMillis(batchMaxWaitMs);
+    }
+
+    /**
+     * The messages are read as JSON here, since the function binding does
+     * not resolve the type of the data in an Event.
+     */
+    @Bean
+    public Function<Flux<Message<byte[]>>, Flux<Message<byte[]>>> process() {
+        return messages -> messages
+            .map(Delivery::new)
+            .groupBy(delivery -> Math.floorMod(Objects.hashCode(delivery.getKey()), concurrency))
+            .flatMap(lane -> batchEnabled
+                ? lane.bufferTimeout(batchMaxSize, batchMaxWait).concatMap(this::processBatch)
+                : lane.concatMap(this::processWithRetries), concurrency);
+    }
+
+    public boolean isProcessed(String eventId) {
+        return deduplicator.isProcessed(eventId);
+    }
+
+    private Flux<Message<byte[]>> processBatch(List<Delivery> batch) {
+        return Flux.fromIterable(segments(batch)).concatMap(this::processSegment);
+    }
+
+    /**
+     * Splits a batch where the reactions of a post are both created and
+     * deleted, since the writes of an unordered bulk write can be applied in
+     * any order.
+     */
+    private List<List<Delivery>> segments(List<Delivery> batch) {
+        List<List<Delivery>> segments = new ArrayList<>();
+        List<Delivery> segment = new ArrayList<>();
+        Map<Integer, Boolean> deleted = new HashMap<>();
+
+        for (Delivery delivery : batch) {
+            boolean delete = delivery.getType() == DELETE;
+            Boolean previous = deleted.putIfAbsent(delivery.getKey(), delete);
+            if (previous != null && previous != delete) {
+                segments.add(segment);
+                segment = new ArrayList<>();
+                deleted.clear();
+                deleted.put(delivery.getKey(), delete);
+            }
+            segment.add(delivery);
+        }
+        segments.add(segment);
+        return segments;
+    }
+
+    private Flux<Message<byte[]>> processSegment(List<Delivery> segment) {
+
+        List<Reaction> reactions = new ArrayList<>();
+        List<Delivery> owners = new ArrayList<>();
+        List<Delivery> creates = new ArrayList<>();
+        List<Delivery> deletes = new ArrayList<>();
+        List<Delivery> oneByOne = new ArrayList<>();
+
+        // Events that can not be read, are already processed or of another type are processed one by one
+        for (Delivery delivery : segment) {
+            Event<Integer, Reaction> event = delivery.event;
+            if (event == null || deduplicator.isProcessed(event.getEventId())) {
+                oneByOne.add(delivery);
+            } else if (event.getEventType() == CREATE && event.getData() != null) {
+                reactions.add(event.getData());
+                owners.add(delivery);
+                creates.add(delivery);
+            } else if (event.getEventType() == BULK_CREATE && event.getDataList() != null) {
+                event.getDataList().forEach(reaction -> {
+                    reactions.add(reaction);
+                    owners.add(delivery);
+                });
+                creates.add(delivery);
+            } else if (event.getEventType() == DELETE) {
+                deletes.add(delivery);
+            } else {
+                oneByOne.add(delivery);
+            }
+        }
+
+        List<Integer> postIds = deletes.stream().map(Delivery::getKey).collect(toList());
+
+        return reactionService.bulkWrite(reactions, postIds)
+            .map(failed -> {
+                LOG.info("Bulk write of {} events done, {} reactions failed", creates.size() + deletes.size(),
+                    failed.size());
+
+                // Only the failed reactions of an event are replayed, its other reactions are created
+                Map<Delivery, List<Reaction>> failedReactions = new LinkedHashMap<>();
+                failed.forEach(index -> failedReactions.computeIfAbsent(owners.get(index), delivery -> new ArrayList<>())
+                    .add(reactions.get(index)));
+                creates.stream().filter(delivery -> !failedReactions.containsKey(delivery))
+                    .forEach(this::processed);
+                deletes.forEach(this::processed);
+
+                return Flux.fromIterable(oneByOne).concatMap(this::processWithRetries)
+                    .concatWith(Flux.fromIterable(failedReactions.entrySet())
+                        .concatMap(failedCreate -> replayWithRetries(failedCreate.getKey(), failedCreate.getValue())));
+            })
+            .onErrorResume(ex -> {
+                // The bulk write may be partly applied, so the creates are replayed without their created reactions
+                LOG.warn("Bulk write failed, processes the events one by one: {}", ex.toString());
+                return Mono.just(Flux.fromIterable(segment).concatMap(delivery -> creates.contains(delivery)
+                    ? replayWithRetries(delivery, delivery.getReactions())
+                    : processWithRetries(delivery)));
+            })
+            .flatMapMany(remaining -> remaining);
+    }
+
+    private Mono<Message<byte[]>> processWithRetries(Delivery delivery) {
+        return processWithRetries(delivery, this::processEvent);
+    }
+
+    private Mono<Message<byte[]>> replayWithRetries(Delivery delivery, List<Reaction> reactions) {
+        return processWithRetries(delivery, event -> replayEvent(event, reactions));
+    }
+
+    private Mono<Message<byte[]>> processWithRetries(Delivery delivery,
+        Function<Event<Integer, Reaction>, Mono<Void>> processor) {
+        return delivery.getEvent()
+            .flatMap(event -> processor.apply(event)
+                .retryWhen(Retry.backoff(maxAttempts - 1, backOffInitialInterval).maxBackoff(backOffMaxInterval)
+                    .onRetryExhaustedThrow((spec, signal) -> signal.failure())))
+            .then(Mono.fromRunnable(delivery::ack))
+            .then(Mono.<Message<byte[]>>empty())
+            .onErrorResume(ex -> {
+                LOG.warn("Failed to process message, sends it to the DLQ: {}", ex.toString());
+                return delivery.deadLetter(ex);
+            });
     }
 
-    @StreamListener(target = Sink.INPUT)
-    public void process(Event<Integer, Reaction> event) {
+    private Mono<Void> processEvent(Event<Integer, Reaction> event) {
 
         LOG.info("Process message created at {}...", event.getEventCreatedAt());
 
+        // A redelivered event is acknowledged without touching the database
+        if (deduplicator.isProcessed(event.getEventId())) {
+            LOG.info("Skip event with ID: {}, it is already processed", event.getEventId());
+            return Mono.empty();
+        }
+
+        Mono<Void> result;
         switch (event.getEventType()) {
 
         case CREATE:
             Reaction reaction = event.getData();
             LOG.info("Create reaction with ID: {}/{}", reaction.getPostId(), reaction.getReactionId());
-            reactionService.createReaction(reaction);
+            result = reactionService.insertReaction(reaction).then();
+            break;
+
+        case BULK_CREATE:
+            List<Reaction> reactions = event.getDataList();
+            LOG.info("Create {} reactions with PostID: {}", reactions.size(), event.getKey());
+            result = reactionService.insertReactions(reactions).then();
             break;
 
         case DELETE:
             int postId = event.getKey();
             LOG.info("Delete reactions with PostID: {}", postId);
-            reactionService.deleteReactions(postId);
+            result = reactionService.removeReactions(postId);
             break;
 
         default:
-            String errorMessage = "Incorrect event type: " + event.getEventType() + ", expected a CREATE or DELETE event";
+            String errorMessage = "Incorrect event type: " + event.getEventType() + ", expected a CREATE, BULK_CREATE or DELETE event";
             LOG.warn(errorMessage);
-            throw new EventProcessingException(errorMessage);
+            result = Mono.error(new EventProcessingException(errorMessage));
+        }
+
+        return result.doOnSuccess(v -> {
+            deduplicator.markProcessed(event.getEventId());
+            LOG.info("Message processing done!");
+        });
+    }
+
+    /**
+     * Replays the reactions of a CREATE or BULK_CREATE event that a failed
+     * bulk write may not have created. The reactions of the event that the
+     * bulk write created are not duplicates of it.
+     */
+    private Mono<Void> replayEvent(Event<Integer, Reaction> event, List<Reaction> reactions) {
+
+        LOG.info("Replay {} reactions with PostID: {}", reactions.size(), event.getKey());
+        return reactionService.insertReactionsIfAbsent(reactions).then().doOnSuccess(v -> {
+            deduplicator.markProcessed(event.getEventId());
+            LOG.info("Message processing done!");
+        });
+    }
+
+    private void processed(Delivery delivery) {
+        deduplicator.markProcessed(delivery.event.getEventId());
+        delivery.ack();
+    }
+
+    private class Delivery {
+
+        private final Message<byte[]> message;
+        private final Event<Integer, Reaction> event;
+        private final IOException readError;
+
+        // Only set in the manual acknowledge mode of RabbitMQ
+        private final Channel channel;
+        private final Long deliveryTag;
+
+        Delivery(Message<byte[]> message) {
+            Event<Integer, Reaction> event = null;
+            IOException readError = null;
+            try {
+                event = mapper.readValue(message.getPayload(), eventType);
+            } catch (IOException e) {
+                readError = e;
+            }
+            this.message = message;
+            this.event = event;
+            this.readError = readError;
+            this.channel = message.getHeaders().get(AmqpHeaders.CHANNEL, Channel.class);
+            this.deliveryTag = message.getHeaders().get(AmqpHeaders.DELIVERY_TAG, Long.class);
+        }
+
+        // Messages that can not be read all go to the first lane
+        Integer getKey() {
+            return event == null ? null : event.getKey();
+        }
+
+        Event.Type getType() {
+            return event == null ? null : event.getEventType();
         }
 
-        LOG.info("Message processing done!");
+        List<Reaction> getReactions() {
+            return event.getEventType() == BULK_CREATE ? event.getDataList() : singletonList(event.getData());
+        }
+
+        Mono<Event<Integer, Reaction>> getEvent() {
+            return event == null ? Mono.error(readError) : Mono.just(event);
+        }
+
+        // A failed acknowledge leaves the message unacknowledged, and the broker redelivers it
+        void ack() {
+            if (channel == null) {
+                return;
+            }
+            try {
+                synchronized (channel) {
+                    channel.basicAck(deliveryTag, false);
+                }
+            } catch (IOException e) {
+                LOG.warn("Failed to acknowledge message {}: {}", deliveryTag, e.toString());
+            }
+        }
+
+        Mono<Message<byte[]>> deadLetter(Throwable ex) {
+            if (channel == null) {
+                return Mono.just(MessageBuilder.fromMessage(message).setHeader("x-exception-message", ex.getMessage())
+                    .build());
+            }
+            try {
+                synchronized (channel) {
+                    channel.basicNack(deliveryTag, false, false);
+                }
+            } catch (IOException e) {
+                LOG.warn("Failed to reject message {}: {}", deliveryTag, e.toString());
+            }
+            return Mono.empty();
+        }
     }
 }
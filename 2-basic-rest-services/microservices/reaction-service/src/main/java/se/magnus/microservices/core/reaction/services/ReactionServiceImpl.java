@@ -4,16 +4,32 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.web.bind.annotation.RestController;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import se.magnus.api.core.reaction.Reaction;
+import se.magnus.api.core.reaction.ReactionCounts;
 import se.magnus.api.core.reaction.ReactionService;
+import se.magnus.microservices.core.reaction.persistence.ReactionCountRepository;
 import se.magnus.microservices.core.reaction.persistence.ReactionEntity;
 import se.magnus.microservices.core.reaction.persistence.ReactionRepository;
 import se.magnus.util.exceptions.InvalidInputException;
 import se.magnus.util.http.ServiceUtil;
 
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.IntStream;
+
+import static java.util.stream.Collectors.counting;
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.toCollection;
+import static java.util.stream.Collectors.toList;
+
 @RestController
 public class ReactionServiceImpl implements ReactionService {
 
@@ -21,30 +37,164 @@ public class ReactionServiceImpl implements ReactionService {
 
 	private final ReactionRepository repository;
 
+	private final ReactionCountRepository countRepository;
+
 	private final ReactionMapper mapper;
 
 	private final ServiceUtil serviceUtil;
 
 	@Autowired
-	public ReactionServiceImpl(ReactionRepository repository, ReactionMapper mapper, ServiceUtil serviceUtil) {
+	public ReactionServiceImpl(ReactionRepository repository, ReactionCountRepository countRepository,
+			ReactionMapper mapper, ServiceUtil serviceUtil) {
 		this.repository = repository;
+		this.countRepository = countRepository;
 		this.mapper = mapper;
 		this.serviceUtil = serviceUtil;
 	}
 
 	@Override
 	public Reaction createReaction(Reaction body) {
+		return insertReaction(body).block();
+	}
+
+	/**
+	 * Creates the reaction without blocking, used by the
+	 * {@link MessageProcessor}.
+	 */
+	public Mono<Reaction> insertReaction(Reaction body) {
+		return Mono.defer(() -> {
+
+			validate(body);
+
+			// A duplicate may be the retry of a reaction that was saved but not counted, so the counts are rebuilt
+			ReactionEntity entity = mapper.apiToEntity(body);
+			return repository.save(entity).log()
+					.onErrorResume(DuplicateKeyException.class, ex -> countRepository.rebuild(body.getPostId())
+							.then(Mono.error(new InvalidInputException("Duplicate key, Post Id: " + body.getPostId()
+									+ ", Reaction Id:" + body.getReactionId()))))
+					.flatMap(e -> countRepository.increment(e.getPostId(), e.getTypeOfReaction(), 1).thenReturn(e))
+					.map(e -> mapper.entityToApi(e));
+		});
+	}
+
+	@Override
+	public List<Reaction> createReactions(List<Reaction> body) {
+		return insertReactions(body).block();
+	}
+
+	/**
+	 * Creates the reactions without blocking, used by the
+	 * {@link MessageProcessor}.
+	 */
+	public Mono<List<Reaction>> insertReactions(List<Reaction> body) {
+		return Mono.defer(() -> {
+
+			body.forEach(this::validate);
+
+			// All reactions are inserted in one bulk write, and the counters of each post are updated in one upsert
+			List<ReactionEntity> entities = body.stream().map(mapper::apiToEntity).collect(toList());
+
+			LOG.debug("createReactions: creates {} reaction entities", body.size());
+			return repository.saveAll(entities).log().collectList()
+					.onErrorResume(DuplicateKeyException.class, ex -> Flux.fromIterable(postIds(body))
+							.concatMap(countRepository::rebuild)
+							.then(Mono.error(new InvalidInputException("Duplicate key, Post Id: " + body.get(0).getPostId()
+									+ ", Reaction Ids:" + body.stream().map(Reaction::getReactionId).collect(toList())))))
+					.flatMap(saved -> Flux.fromIterable(saved.stream()
+							.collect(groupingBy(ReactionEntity::getPostId,
+									groupingBy(ReactionEntity::getTypeOfReaction, counting())))
+							.entrySet())
+							.concatMap(counts -> countRepository.increment(counts.getKey(), counts.getValue()))
+							.then(Mono.just(saved)))
+					.map(saved -> mapper.entityListToApiList(saved));
+		});
+	}
+
+	/**
+	 * Creates the reactions that do not exist yet, used by the
+	 * {@link MessageProcessor} to replay the events of a failed bulk write. A
+	 * reaction that exists with the same type of reaction was created by the
+	 * bulk write, which may have failed before it was counted, so the counts
+	 * of its post are rebuilt. A reaction that exists with another type of
+	 * reaction is a duplicate.
+	 */
+	public Mono<List<Reaction>> insertReactionsIfAbsent(List<Reaction> body) {
+		return Mono.defer(() -> {
+
+			body.forEach(this::validate);
+
+			return Flux.fromIterable(body.stream().collect(groupingBy(Reaction::getPostId)).entrySet())
+					.concatMap(reactions -> repository
+							.findByPostIdAndReactionIdIn(reactions.getKey(),
+									reactions.getValue().stream().map(Reaction::getReactionId).collect(toList()))
+							.collectMap(ReactionEntity::getReactionId, ReactionEntity::getTypeOfReaction)
+							.flatMap(existing -> insertAbsent(reactions.getKey(), reactions.getValue(), existing)))
+					.then(Mono.just(body));
+		});
+	}
+
+	private Mono<Void> insertAbsent(int postId, List<Reaction> reactions, Map<Integer, String> existing) {
+
+		List<Integer> duplicates = reactions.stream()
+				.filter(r -> existing.containsKey(r.getReactionId())
+						&& !existing.get(r.getReactionId()).equals(r.getTypeOfReaction()))
+				.map(Reaction::getReactionId).collect(toList());
+		if (!duplicates.isEmpty()) {
+			return Mono.error(new InvalidInputException("Duplicate key, Post Id: " + postId + ", Reaction Ids:" + duplicates));
+		}
+
+		List<Reaction> absent = reactions.stream().filter(r -> !existing.containsKey(r.getReactionId()))
+				.collect(toList());
+
+		LOG.debug("insertReactionsIfAbsent: {} of {} reactions of post {} already exist", existing.size(),
+				reactions.size(), postId);
+		Mono<Void> counts = existing.isEmpty() ? Mono.empty() : countRepository.rebuild(postId).then();
+		return absent.isEmpty() ? counts : insertReactions(absent).then(counts);
+	}
+
+	/**
+	 * Creates reactions and deletes the reactions of posts in one bulk write,
+	 * used by the {@link MessageProcessor} in batch mode. Only the reactions
+	 * that were created are counted. Returns the indexes of the reactions to
+	 * create that could not be created.
+	 */
+	public Mono<List<Integer>> bulkWrite(List<Reaction> creates, List<Integer> deletedPostIds) {
+		return Mono.defer(() -> {
+
+			creates.forEach(this::validate);
+			deletedPostIds.forEach(postId -> {
+				if (postId < 1)
+					throw new InvalidInputException("Invalid postId: " + postId);
+			});
+
+			List<ReactionEntity> entities = creates.stream().map(mapper::apiToEntity).collect(toList());
+
+			LOG.debug("bulkWrite: creates {} reactions and deletes the reactions of {} posts", creates.size(),
+					deletedPostIds.size());
+			return repository.bulkWrite(entities, deletedPostIds).flatMap(failed -> {
+				Set<Integer> failedIndexes = new HashSet<>(failed);
+				Map<Integer, Map<String, Long>> deltas = IntStream.range(0, entities.size())
+						.filter(index -> !failedIndexes.contains(index)).mapToObj(entities::get)
+						.collect(groupingBy(ReactionEntity::getPostId,
+								groupingBy(ReactionEntity::getTypeOfReaction, counting())));
+				return countRepository.bulkUpdate(deltas, deletedPostIds).thenReturn(failed);
+			});
+		});
+	}
+
+	private Set<Integer> postIds(List<Reaction> reactions) {
+		return reactions.stream().map(Reaction::getPostId).collect(toCollection(TreeSet::new));
+	}
+
+	private void validate(Reaction body) {
 
 		if (body.getPostId() < 1)
 			throw new InvalidInputException("Invalid postId: " + body.getPostId());
 
-		ReactionEntity entity = mapper.apiToEntity(body);
-		Mono<Reaction> newEntity = repository.save(entity).log()
-				.onErrorMap(DuplicateKeyException.class, ex -> new InvalidInputException(
-						"Duplicate key, Post Id: " + body.getPostId() + ", Reaction Id:" + body.getReactionId()))
-				.map(e -> mapper.entityToApi(e));
-
-		return newEntity.block();
+		// The type of reaction is used as a field name in the reaction counts document
+		String type = body.getTypeOfReaction();
+		if (type == null || type.isEmpty() || type.contains(".") || type.startsWith("$"))
+			throw new InvalidInputException("Invalid typeOfReaction: " + type);
 	}
 
 	@Override
@@ -60,12 +210,86 @@ public class ReactionServiceImpl implements ReactionService {
 	}
 
 	@Override
-	public void deleteReactions(int postId) {
+	public Flux<Reaction> getReactions(int postId, int limit, Integer after) {
+
+		if (postId < 1)
+			throw new InvalidInputException("Invalid postId: " + postId);
+
+		if (limit < 1)
+			throw new InvalidInputException("Invalid limit: " + limit);
+
+		Pageable page = PageRequest.of(0, limit);
+		Flux<ReactionEntity> entities = (after == null) ? repository.findByPostIdOrderByReactionIdAsc(postId, page)
+				: repository.findByPostIdAndReactionIdGreaterThanOrderByReactionIdAsc(postId, after, page);
+
+		return entities.log().map(e -> mapper.entityToApi(e)).map(e -> {
+			e.setServiceAddress(serviceUtil.getServiceAddress());
+			return e;
+		});
+	}
+
+	@Override
+	public Flux<Reaction> getReactions(List<Integer> postIds) {
+
+		postIds.forEach(postId -> {
+			if (postId < 1)
+				throw new InvalidInputException("Invalid postId: " + postId);
+		});
+
+		return repository.findByPostIdIn(postIds).log().map(e -> mapper.entityToApi(e)).map(e -> {
+			e.setServiceAddress(serviceUtil.getServiceAddress());
+			return e;
+		});
+	}
+
+	@Override
+	public Flux<Reaction> getReactions(List<Integer> postIds, int limit) {
+
+		postIds.forEach(postId -> {
+			if (postId < 1)
+				throw new InvalidInputException("Invalid postId: " + postId);
+		});
+
+		if (limit < 1)
+			throw new InvalidInputException("Invalid limit: " + limit);
+
+		// One keyset query per post, so that each post returns its first page and not all of its reactions
+		Pageable page = PageRequest.of(0, limit);
+		return Flux.fromIterable(new TreeSet<>(postIds))
+				.concatMap(postId -> repository.findByPostIdOrderByReactionIdAsc(postId, page)).log()
+				.map(e -> mapper.entityToApi(e)).map(e -> {
+					e.setServiceAddress(serviceUtil.getServiceAddress());
+					return e;
+				});
+	}
+
+	@Override
+	public Mono<ReactionCounts> getReactionCounts(int postId) {
 
 		if (postId < 1)
 			throw new InvalidInputException("Invalid postId: " + postId);
 
+		// Posts with reactions from before the counters existed get their counts rebuilt on the first read
+		return countRepository.findById(postId).log().map(e -> e.getCounts())
+				.switchIfEmpty(Mono.defer(() -> countRepository.rebuild(postId)))
+				.map(counts -> new ReactionCounts(postId, counts, serviceUtil.getServiceAddress()));
+	}
+
+	@Override
+	public void deleteReactions(int postId) {
+		removeReactions(postId).block();
+	}
+
+	/**
+	 * Deletes the reactions of a post without blocking, used by the
+	 * {@link MessageProcessor}.
+	 */
+	public Mono<Void> removeReactions(int postId) {
+
+		if (postId < 1)
+			return Mono.error(new InvalidInputException("Invalid postId: " + postId));
+
 		LOG.debug("deleteReactions: tries to delete reactions for the post with postId: {}", postId);
-		repository.deleteAll(repository.findByPostId(postId)).block();
+		return repository.deleteAll(repository.findByPostId(postId)).then(countRepository.deleteById(postId));
 	}
 }
@@ -0,0 +1,125 @@
+package se.magnus.microservices.core.reaction;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.GenericMessage;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import se.magnus.api.core.reaction.Reaction;
+import se.magnus.api.event.Event;
+import se.magnus.microservices.core.reaction.services.MessageProcessor;
+import se.magnus.microservices.core.reaction.services.ReactionServiceImpl;
+import se.magnus.util.exceptions.InvalidInputException;
+
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static se.magnus.api.event.Event.Type.CREATE;
+
+public class MessageProcessorTests {
+
+	private final ObjectMapper mapper = Jackson2ObjectMapperBuilder.json().build();
+
+	private final ReactionServiceImpl reactionService = mock(ReactionServiceImpl.class);
+
+	// One lane, to get all events in the same batch
+	private final MessageProcessor batchProcessor = new MessageProcessor(reactionService, mapper, 100, 60, 1, 3, 1, 1,
+			true, 10, 50);
+
+	@Test
+	public void sendsTheBulkCreateEventOfAFailedReactionToTheDlq() throws JsonProcessingException {
+
+		// The reactions are 0: 1/1, 1: 2/1 and 2: 2/2, the last one is a duplicate
+		when(reactionService.bulkWrite(anyList(), anyList())).thenReturn(Mono.just(singletonList(2)));
+		when(reactionService.insertReactionsIfAbsent(any()))
+				.thenReturn(Mono.error(new InvalidInputException("Duplicate key, Post Id: 2, Reaction Ids:[2]")));
+
+		Event<Integer, Reaction> create = new Event<>(CREATE, 1, reaction(1, 1));
+		Event<Integer, Reaction> bulkCreate = Event.bulkCreate(2, asList(reaction(2, 1), reaction(2, 2)));
+
+		List<Message<byte[]>> deadLetters = batchProcessor.process()
+				.apply(Flux.just(message(create), message(bulkCreate))).collectList().block();
+
+		verify(reactionService, times(1)).bulkWrite(anyList(), anyList());
+		verify(reactionService, never()).insertReaction(any());
+		verify(reactionService, never()).insertReactions(any());
+		verify(reactionService, times(1)).insertReactionsIfAbsent(argThat(reactions -> reactions.size() == 1));
+
+		assertEquals(1, deadLetters.size());
+		assertEquals("Duplicate key, Post Id: 2, Reaction Ids:[2]",
+				deadLetters.get(0).getHeaders().get("x-exception-message"));
+
+		assertTrue(batchProcessor.isProcessed(create.getEventId()));
+		assertFalse(batchProcessor.isProcessed(bulkCreate.getEventId()));
+	}
+
+	@Test
+	public void replaysOnlyTheFailedReactionsOfABulkCreateEvent() throws JsonProcessingException {
+
+		// The reactions are 0: 1/1, 1: 2/1, 2: 2/2 and 3: 2/3, the write of 2/2 failed
+		when(reactionService.bulkWrite(anyList(), anyList())).thenReturn(Mono.just(singletonList(2)));
+		when(reactionService.insertReactionsIfAbsent(any())).thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+
+		Event<Integer, Reaction> create = new Event<>(CREATE, 1, reaction(1, 1));
+		Event<Integer, Reaction> bulkCreate = Event.bulkCreate(2,
+				asList(reaction(2, 1), reaction(2, 2), reaction(2, 3)));
+
+		List<Message<byte[]>> deadLetters = batchProcessor.process()
+				.apply(Flux.just(message(create), message(bulkCreate))).collectList().block();
+
+		verify(reactionService, times(1))
+				.insertReactionsIfAbsent(argThat(reactions -> reactions.size() == 1 && reactions.get(0).getPostId() == 2
+						&& reactions.get(0).getReactionId() == 2));
+		verify(reactionService, never()).insertReactions(any());
+
+		assertTrue(deadLetters.isEmpty());
+		assertTrue(batchProcessor.isProcessed(create.getEventId()));
+		assertTrue(batchProcessor.isProcessed(bulkCreate.getEventId()));
+	}
+
+	@Test
+	public void replaysTheCreatesOfAFailedBulkWriteWithoutDuplicates() throws JsonProcessingException {
+
+		// The reactions were created, but the update of their counts failed
+		when(reactionService.bulkWrite(anyList(), anyList())).thenReturn(Mono.error(new RuntimeException("Counts failed")));
+		when(reactionService.insertReactionsIfAbsent(any())).thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+
+		Event<Integer, Reaction> create = new Event<>(CREATE, 1, reaction(1, 1));
+		Event<Integer, Reaction> bulkCreate = Event.bulkCreate(2, asList(reaction(2, 1), reaction(2, 2)));
+
+		List<Message<byte[]>> deadLetters = batchProcessor.process()
+				.apply(Flux.just(message(create), message(bulkCreate))).collectList().block();
+
+		verify(reactionService, times(1)).insertReactionsIfAbsent(argThat(reactions -> reactions.size() == 1));
+		verify(reactionService, times(1)).insertReactionsIfAbsent(argThat(reactions -> reactions.size() == 2));
+		verify(reactionService, never()).insertReaction(any());
+		verify(reactionService, never()).insertReactions(any());
+
+		assertTrue(deadLetters.isEmpty());
+		assertTrue(batchProcessor.isProcessed(create.getEventId()));
+		assertTrue(batchProcessor.isProcessed(bulkCreate.getEventId()));
+	}
+
+	private Reaction reaction(int postId, int reactionId) {
+		return new Reaction(postId, reactionId, "like", "SA");
+	}
+
+	private Message<byte[]> message(Event<Integer, Reaction> event) throws JsonProcessingException {
+		return new GenericMessage<>(mapper.writeValueAsBytes(event));
+	}
+}
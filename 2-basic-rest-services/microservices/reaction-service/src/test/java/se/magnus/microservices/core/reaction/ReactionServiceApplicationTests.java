@@ -3,22 +3,37 @@ package se.magnus.microservices.core.reaction;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.test.context.SpringBootTest;
-import org.springframework.cloud.stream.messaging.Sink;
+import org.springframework.cloud.stream.test.binder.MessageCollector;
 import org.springframework.http.HttpStatus;
-import org.springframework.integration.channel.AbstractMessageChannel;
-import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
 import org.springframework.messaging.support.GenericMessage;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.reactive.server.WebTestClient;
-import se.magnus.api.core.post.Post;
 import se.magnus.api.core.reaction.Reaction;
 import se.magnus.api.event.Event;
+import se.magnus.microservices.core.reaction.persistence.ReactionCountRepository;
+import se.magnus.microservices.core.reaction.persistence.ReactionEntity;
 import se.magnus.microservices.core.reaction.persistence.ReactionRepository;
+import se.magnus.microservices.core.reaction.services.MessageProcessor;
+import se.magnus.microservices.core.reaction.services.ReactionServiceImpl;
 import se.magnus.util.exceptions.InvalidInputException;
 
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Arrays.asList;
+import static java.util.Arrays.stream;
+import static java.util.stream.Collectors.toList;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
 import static org.springframework.http.HttpStatus.*;
@@ -28,7 +43,9 @@ import static se.magnus.api.event.Event.Type.DELETE;
 
 @RunWith(SpringRunner.class)
 @SpringBootTest(webEnvironment = RANDOM_PORT, properties = { "spring.data.mongodb.port: 0",
-		"eureka.client.enabled=false", "spring.cloud.config.enabled=false", "server.error.include-message=always" })
+		"eureka.client.enabled=false", "spring.cloud.config.enabled=false", "server.error.include-message=always",
+		"spring.cloud.function.definition=process", "app.event-processing.backOffInitialInterval=10",
+		"app.event-processing.backOffMaxInterval=10" })
 public class ReactionServiceApplicationTests {
 
 	@Autowired
@@ -38,14 +55,32 @@ public class ReactionServiceApplicationTests {
 	private ReactionRepository repository;
 
 	@Autowired
-	private Sink channels;
+	private ReactionCountRepository countRepository;
+
+	@Autowired
+	@Qualifier("process-in-0")
+	private MessageChannel input;
+
+	@Autowired
+	@Qualifier("process-out-0")
+	private MessageChannel deadLetters;
+
+	@Autowired
+	private MessageCollector collector;
+
+	@Autowired
+	private MessageProcessor processor;
 
-	private AbstractMessageChannel input = null;
+	@Autowired
+	private ObjectMapper mapper;
+
+	@Autowired
+	private ReactionServiceImpl reactionService;
 
 	@Before
 	public void setupDb() {
-		input = (AbstractMessageChannel) channels.input();
 		repository.deleteAll().block();
+		countRepository.deleteAll().block();
 	}
 
 	@Test
@@ -64,7 +99,52 @@ public class ReactionServiceApplicationTests {
 	}
 
 	@Test
-	public void duplicateError() {
+	public void getReactionsByPostIds() {
+
+		sendCreateReactionEvent(1, 1);
+		sendCreateReactionEvent(1, 2);
+		sendCreateReactionEvent(2, 1);
+		sendCreateReactionEvent(3, 1);
+
+		client.get().uri("/reaction?postIds=1,2").accept(APPLICATION_JSON).exchange().expectStatus().isEqualTo(OK)
+				.expectHeader().contentType(APPLICATION_JSON).expectBody().jsonPath("$.length()").isEqualTo(3);
+	}
+
+	@Test
+	public void getReactionsByPostIdsPageByPage() {
+
+		sendCreateReactionEvent(1, 3);
+		sendCreateReactionEvent(1, 1);
+		sendCreateReactionEvent(1, 2);
+		sendCreateReactionEvent(2, 1);
+
+		client.get().uri("/reaction?postIds=2,1&limit=2").accept(APPLICATION_JSON).exchange().expectStatus()
+				.isEqualTo(OK).expectBody().jsonPath("$.length()").isEqualTo(3).jsonPath("$[0].postId").isEqualTo(1)
+				.jsonPath("$[0].reactionId").isEqualTo(1).jsonPath("$[1].reactionId").isEqualTo(2).jsonPath("$[2].postId")
+				.isEqualTo(2);
+
+		client.get().uri("/reaction?postIds=1&limit=0").accept(APPLICATION_JSON).exchange().expectStatus()
+				.isEqualTo(UNPROCESSABLE_ENTITY).expectBody().jsonPath("$.message").isEqualTo("Invalid limit: 0");
+	}
+
+	@Test
+	public void getReactionsPageByPage() {
+
+		int postId = 1;
+
+		sendCreateReactionEvent(postId, 3);
+		sendCreateReactionEvent(postId, 1);
+		sendCreateReactionEvent(postId, 2);
+
+		getAndVerifyReactionsByPostId("?postId=" + postId + "&limit=2", OK).jsonPath("$.length()").isEqualTo(2)
+				.jsonPath("$[0].reactionId").isEqualTo(1).jsonPath("$[1].reactionId").isEqualTo(2);
+
+		getAndVerifyReactionsByPostId("?postId=" + postId + "&limit=2&after=2", OK).jsonPath("$.length()")
+				.isEqualTo(1).jsonPath("$[0].reactionId").isEqualTo(3);
+	}
+
+	@Test
+	public void duplicateError() throws InterruptedException {
 
 		int postId = 1;
 		int reactionId = 1;
@@ -73,17 +153,12 @@ public class ReactionServiceApplicationTests {
 
 		assertEquals(1, (long) repository.count().block());
 
-		try {
-			sendCreateReactionEvent(postId, reactionId);
-			fail("Expected a MessagingException here!");
-		} catch (MessagingException me) {
-			if (me.getCause() instanceof InvalidInputException) {
-				InvalidInputException iie = (InvalidInputException) me.getCause();
-				assertEquals("Duplicate key, Post Id: 1, Reaction Id:1", iie.getMessage());
-			} else {
-				fail("Expected a InvalidInputException as the root cause!");
-			}
-		}
+		// The event is retried and then sent to the DLQ
+		input.send(message(createReactionEvent(postId, reactionId)));
+
+		Message<?> deadLetter = collector.forChannel(deadLetters).poll(5, TimeUnit.SECONDS);
+		assertNotNull("Expected a message on the DLQ here!", deadLetter);
+		assertEquals("Duplicate key, Post Id: 1, Reaction Id:1", deadLetter.getHeaders().get("x-exception-message"));
 
 		assertEquals(1, (long) repository.count().block());
 	}
@@ -103,6 +178,79 @@ public class ReactionServiceApplicationTests {
 		sendDeleteReactionEvent(postId);
 	}
 
+	@Test
+	public void getReactionCounts() {
+
+		int postId = 1;
+
+		client.get().uri("/reaction/count?postId=" + postId).accept(APPLICATION_JSON).exchange().expectStatus()
+				.isEqualTo(OK).expectBody().jsonPath("$.postId").isEqualTo(postId).jsonPath("$.counts").isEmpty();
+
+		// The read of a post without reactions does not write a counter document
+		assertFalse(countRepository.existsById(postId).block());
+
+		sendCreateReactionEvent(postId, 1);
+		sendCreateReactionEvent(postId, 2);
+
+		client.get().uri("/reaction/count?postId=" + postId).accept(APPLICATION_JSON).exchange().expectStatus()
+				.isEqualTo(OK).expectBody().jsonPath("$.counts['Heart <3']").isEqualTo(2);
+
+		sendDeleteReactionEvent(postId);
+
+		assertFalse(countRepository.existsById(postId).block());
+	}
+
+	@Test
+	public void createReactionsInBulk() {
+
+		int postId = 1;
+
+		sendBulkCreateReactionEvent(postId, 1, 2, 3);
+		assertEquals(3, (long) repository.findByPostId(postId).count().block());
+
+		client.get().uri("/reaction/count?postId=" + postId).accept(APPLICATION_JSON).exchange().expectStatus()
+				.isEqualTo(OK).expectBody().jsonPath("$.counts['Heart <3']").isEqualTo(3);
+	}
+
+	@Test
+	public void rebuildsTheCountsOfAPostWithoutACounter() {
+
+		int postId = 1;
+
+		// Reactions from before the counters existed
+		repository.saveAll(asList(new ReactionEntity(postId, 1, "Heart <3"), new ReactionEntity(postId, 2, "Heart <3"),
+				new ReactionEntity(postId, 3, "Like"))).blockLast();
+
+		client.get().uri("/reaction/count?postId=" + postId).accept(APPLICATION_JSON).exchange().expectStatus()
+				.isEqualTo(OK).expectBody().jsonPath("$.counts['Heart <3']").isEqualTo(2).jsonPath("$.counts.Like")
+				.isEqualTo(1);
+
+		sendCreateReactionEvent(postId, 4);
+
+		client.get().uri("/reaction/count?postId=" + postId).accept(APPLICATION_JSON).exchange().expectStatus()
+				.isEqualTo(OK).expectBody().jsonPath("$.counts['Heart <3']").isEqualTo(3);
+	}
+
+	@Test
+	public void rebuildsTheCountsOnTheRetryOfAnUncountedReaction() {
+
+		int postId = 1;
+
+		sendCreateReactionEvent(postId, 1);
+
+		// The reaction was saved but its increment failed, the retry of the event hits a duplicate key
+		repository.save(new ReactionEntity(postId, 2, "Heart <3")).block();
+		try {
+			reactionService.insertReaction(new Reaction(postId, 2, "Heart <3", "SA")).block();
+			fail("Expected an InvalidInputException");
+		} catch (InvalidInputException ex) {
+			assertEquals("Duplicate key, Post Id: 1, Reaction Id:2", ex.getMessage());
+		}
+
+		client.get().uri("/reaction/count?postId=" + postId).accept(APPLICATION_JSON).exchange().expectStatus()
+				.isEqualTo(OK).expectBody().jsonPath("$.counts['Heart <3']").isEqualTo(2);
+	}
+
 	@Test
 	public void getReactionsMissingParameter() {
 
@@ -142,13 +290,45 @@ public class ReactionServiceApplicationTests {
 	}
 
 	private void sendCreateReactionEvent(int postId, int reactionId) {
-		Reaction reaction = new Reaction(postId, reactionId, "Heart <3", "SA");
-		Event<Integer, Post> event = new Event(CREATE, postId, reaction);
-		input.send(new GenericMessage<>(event));
+		sendAndWait(createReactionEvent(postId, reactionId));
 	}
 
 	private void sendDeleteReactionEvent(int postId) {
-		Event<Integer, Post> event = new Event(DELETE, postId, null);
-		input.send(new GenericMessage<>(event));
+		Event<Integer, Reaction> event = new Event(DELETE, postId, null);
+		sendAndWait(event);
+	}
+
+	private void sendBulkCreateReactionEvent(int postId, int... reactionIds) {
+		List<Reaction> reactions = stream(reactionIds)
+				.mapToObj(reactionId -> new Reaction(postId, reactionId, "Heart <3", "SA")).collect(toList());
+		Event<Integer, Reaction> event = Event.bulkCreate(postId, reactions);
+		sendAndWait(event);
+	}
+
+	private Event<Integer, Reaction> createReactionEvent(int postId, int reactionId) {
+		Reaction reaction = new Reaction(postId, reactionId, "Heart <3", "SA");
+		return new Event(CREATE, postId, reaction);
+	}
+
+	private Message<byte[]> message(Event<Integer, Reaction> event) {
+		try {
+			return new GenericMessage<>(mapper.writeValueAsBytes(event));
+		} catch (JsonProcessingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	// The events are processed asynchronously, after the message is sent
+	private void sendAndWait(Event<Integer, Reaction> event) {
+		input.send(message(event));
+
+		for (int i = 0; i < 100 && !processor.isProcessed(event.getEventId()); i++) {
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		assertTrue("Event " + event.getEventId() + " was not processed", processor.isProcessed(event.getEventId()));
 	}
-}
\ No newline at end of file
+}
@@ -219,15 +219,15 @@ function testCircuitBreaker() {
         assertEqual "Did not observe any item or terminal signal within 2000ms" "${message:0:57}"
     done
 
-    # Verify that the circuit breaker now is open by running the slow call again, verify it gets 200 back, i.e. fail fast works, and a response from the fallback method.
+    # Verify that the circuit breaker now is open by running the slow call again, verify it gets 200 back, i.e. fail fast works, and the last-known-good post from the fallback method.
     assertCurl 200 "curl -k https://$HOST:$PORT/post-composite/$POST_ID_REA_COMM_IMG?delay=3 $AUTH -s"
-    assertEqual "Fallback post2" "$(echo "$RESPONSE" | jq -r .typeOfPost)"
+    assertEqual "instagram post" "$(echo "$RESPONSE" | jq -r .typeOfPost)"
 
-    # Also, verify that the circuit breaker is open by running a normal call, verify it also gets 200 back and a response from the fallback method.
+    # Also, verify that the circuit breaker is open by running a normal call, verify it also gets 200 back and the last-known-good post.
     assertCurl 200 "curl -k https://$HOST:$PORT/post-composite/$POST_ID_REA_COMM_IMG $AUTH -s"
-    assertEqual "Fallback post2" "$(echo "$RESPONSE" | jq -r .typeOfPost)"
+    assertEqual "instagram post" "$(echo "$RESPONSE" | jq -r .typeOfPost)"
 
-    # Verify that a 404 (Not Found) error is returned for a non existing postId ($PROD_ID_NOT_FOUND) from the fallback method.
+    # Verify that a 404 (Not Found) error is returned for a postId that never was read ($PROD_ID_NOT_FOUND) from the fallback method.
     assertCurl 404 "curl -k https://$HOST:$PORT/post-composite/$PROD_ID_NOT_FOUND $AUTH -s"
     assertEqual "Post Id: $PROD_ID_NOT_FOUND not found in fallback cache!" "$(echo $RESPONSE | jq -r .message)"
 
@@ -313,6 +313,19 @@ assertEqual 3 $(echo $RESPONSE | jq ".reactions | length")
 assertEqual 3 $(echo $RESPONSE | jq ".comments | length")
 assertEqual 0 $(echo $RESPONSE | jq ".images | length")
 
+# Verify that several composite posts can be fetched in one request, in the requested order and without the unknown postId
+assertCurl 200 "curl -k 'https://$HOST:$PORT/post-composite?postIds=$POST_ID_NO_IMG,$POST_ID_REA_COMM_IMG,$POST_ID_NOT_FOUND' $AUTH -s"
+assertEqual 2 $(echo $RESPONSE | jq "length")
+assertEqual $POST_ID_NO_IMG $(echo $RESPONSE | jq ".[0].postId")
+assertEqual 0 $(echo $RESPONSE | jq ".[0].images | length")
+assertEqual $POST_ID_REA_COMM_IMG $(echo $RESPONSE | jq ".[1].postId")
+assertEqual 3 $(echo $RESPONSE | jq ".[1].reactions | length")
+
+# Verify that a composite post can be streamed section by section, with the post section first
+assertCurl 200 "curl -k https://$HOST:$PORT/post-composite/$POST_ID_REA_COMM_IMG/stream -H \"Accept: application/stream+json\" $AUTH -s"
+assertEqual 4 $(echo "$RESPONSE" | jq -s "length")
+assertEqual "\"POST\"" "$(echo "$RESPONSE" | jq -s ".[0].section")"
+
 # Verify that a 422 (Unprocessable Entity) error is returned for a postId that is out of range (-1)
 assertCurl 422 "curl -k https://$HOST:$PORT/post-composite/-1 $AUTH -s"
 assertEqual "\"Invalid postId: -1\"" "$(echo $RESPONSE | jq .message)"
@@ -0,0 +1,112 @@
+package se.magnus.util.chaos;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The faults that the {@link ChaosWebFilter} injects, one rule per endpoint,
+ * e.g.:
+ *
+ * <pre>
+ * app.chaos:
+ *   enabled: true
+ *   rules:
+ *   - method: GET
+ *     path: /post/{postId}
+ *     delayMs: 1000
+ *     errorPercent: 10
+ *     errorStatus: 503
+ *     partialResponsePercent: 5
+ * </pre>
+ *
+ * The path is a WebFlux path pattern and a rule without a method applies to
+ * all methods. The first rule that matches a request is used.
+ */
+@Component
+@ConfigurationProperties(prefix = "app.chaos")
+public class ChaosProperties {
+
+	private boolean enabled = false;
+	private List<Rule> rules = new ArrayList<>();
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public List<Rule> getRules() {
+		return rules;
+	}
+
+	public void setRules(List<Rule> rules) {
+		this.rules = rules;
+	}
+
+	public static class Rule {
+
+		private String method;
+		private String path;
+		private long delayMs = 0;
+		private int errorPercent = 0;
+		private int errorStatus = 500;
+		private int partialResponsePercent = 0;
+
+		public String getMethod() {
+			return method;
+		}
+
+		public void setMethod(String method) {
+			this.method = method;
+		}
+
+		public String getPath() {
+			return path;
+		}
+
+		public void setPath(String path) {
+			this.path = path;
+		}
+
+		public long getDelayMs() {
+			return delayMs;
+		}
+
+		public void setDelayMs(long delayMs) {
+			this.delayMs = delayMs;
+		}
+
+		public int getErrorPercent() {
+			return errorPercent;
+		}
+
+		public void setErrorPercent(int errorPercent) {
+			this.errorPercent = errorPercent;
+		}
+
+		public int getErrorStatus() {
+			return errorStatus;
+		}
+
+		public void setErrorStatus(int errorStatus) {
+			this.errorStatus = errorStatus;
+		}
+
+		/**
+		 * The percentage of the responses that are cut off halfway through
+		 * the body, after which the connection is closed.
+		 */
+		public int getPartialResponsePercent() {
+			return partialResponsePercent;
+		}
+
+		public void setPartialResponsePercent(int partialResponsePercent) {
+			this.partialResponsePercent = partialResponsePercent;
+		}
+	}
+}
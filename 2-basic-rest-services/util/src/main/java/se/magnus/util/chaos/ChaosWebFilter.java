@@ -0,0 +1,109 @@
+package se.magnus.util.chaos;
+
+import org.reactivestreams.Publisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Injects the faults of {@link ChaosProperties} into the requests of the
+ * endpoints that match its rules: a delay before the request is handled, an
+ * error response instead of the real one, or a response that is cut off
+ * halfway through the body.
+ *
+ * Only registered when app.chaos.enabled is true.
+ */
+@Component
+@ConditionalOnProperty(prefix = "app.chaos", name = "enabled", havingValue = "true")
+public class ChaosWebFilter implements WebFilter {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ChaosWebFilter.class);
+
+	private final List<MatchingRule> rules;
+
+	@Autowired
+	public ChaosWebFilter(ChaosProperties properties) {
+		PathPatternParser parser = new PathPatternParser();
+		this.rules = properties.getRules().stream()
+				.map(rule -> new MatchingRule(rule, parser.parse(rule.getPath()))).collect(toList());
+	}
+
+	@Override
+	public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+
+		Optional<ChaosProperties.Rule> match = rules.stream().filter(rule -> rule.matches(exchange)).findFirst()
+				.map(rule -> rule.rule);
+
+		if (!match.isPresent()) {
+			return chain.filter(exchange);
+		}
+
+		ChaosProperties.Rule rule = match.get();
+		ServerWebExchange faulty = FaultInjector.isBadLuck(rule.getPartialResponsePercent())
+				? exchange.mutate().response(new PartialResponse(exchange)).build()
+				: exchange;
+
+		return FaultInjector.injectFaults(Mono.defer(() -> chain.filter(faulty)),
+				Duration.ofMillis(rule.getDelayMs()), rule.getErrorPercent(),
+				() -> new ResponseStatusException(HttpStatus.valueOf(rule.getErrorStatus()), "Injected fault"));
+	}
+
+	private static class MatchingRule {
+
+		private final ChaosProperties.Rule rule;
+		private final PathPattern pattern;
+
+		MatchingRule(ChaosProperties.Rule rule, PathPattern pattern) {
+			this.rule = rule;
+			this.pattern = pattern;
+		}
+
+		boolean matches(ServerWebExchange exchange) {
+			return (rule.getMethod() == null || exchange.getRequest().getMethodValue().equals(rule.getMethod()))
+					&& pattern.matches(exchange.getRequest().getPath().pathWithinApplication());
+		}
+	}
+
+	/**
+	 * Writes the first half of the body and then fails, which closes the
+	 * connection before the client got the whole response.
+	 */
+	private static class PartialResponse extends ServerHttpResponseDecorator {
+
+		PartialResponse(ServerWebExchange exchange) {
+			super(exchange.getResponse());
+		}
+
+		@Override
+		public Mono<Void> writeWith(Publisher<? extends DataBuffer> body) {
+			return DataBufferUtils.join(body).flatMap(buffer -> {
+				byte[] half = new byte[buffer.readableByteCount() / 2];
+				buffer.read(half);
+				DataBufferUtils.release(buffer);
+
+				LOG.debug("Cuts off the response after {} bytes", half.length);
+				return super.writeWith(Mono.just(bufferFactory().wrap(half)))
+						.then(Mono.error(new IllegalStateException("Injected partial response")));
+			});
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package se.magnus.util.chaos;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * Injects delays and errors into a Mono without blocking the calling thread.
+ * The delay runs on a timer, so the Netty event loop serves other requests
+ * meanwhile.
+ */
+public final class FaultInjector {
+
+	private static final Logger LOG = LoggerFactory.getLogger(FaultInjector.class);
+
+	private FaultInjector() {
+	}
+
+	public static <T> Mono<T> injectFaults(Mono<T> mono, Duration delay, int faultPercent) {
+		return injectFaults(mono, delay, faultPercent, () -> new RuntimeException("Something went wrong..."));
+	}
+
+	/**
+	 * Waits for the delay, then fails with the error in faultPercent percent
+	 * of the subscriptions, and subscribes to the mono otherwise.
+	 */
+	public static <T> Mono<T> injectFaults(Mono<T> mono, Duration delay, int faultPercent,
+			Supplier<? extends Throwable> error) {
+
+		Mono<T> faulty = faultPercent > 0 ? Mono.defer(() -> isBadLuck(faultPercent) ? Mono.error(error.get()) : mono)
+				: mono;
+
+		if (delay.isZero() || delay.isNegative()) {
+			return faulty;
+		}
+		return Mono.delay(delay).doOnSubscribe(s -> LOG.debug("Delays for {} ms...", delay.toMillis()))
+				.then(faulty);
+	}
+
+	public static boolean isBadLuck(int percent) {
+		if (percent <= 0) {
+			return false;
+		}
+		int randomThreshold = ThreadLocalRandom.current().nextInt(1, 101);
+		if (percent < randomThreshold) {
+			LOG.debug("We got lucky, no error occurred, {} < {}", percent, randomThreshold);
+			return false;
+		}
+		LOG.debug("Bad luck, an error occurred, {} >= {}", percent, randomThreshold);
+		return true;
+	}
+}
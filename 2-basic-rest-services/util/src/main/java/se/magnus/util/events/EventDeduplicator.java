@@ -0,0 +1,74 @@
+package se.magnus.util.events;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Remembers the IDs of the events a consumer has processed, so that an event
+ * that the broker redelivers, e.g. after a lost acknowledge or a republish
+ * from the DLQ, can be acknowledged without being processed again.
+ *
+ * The IDs are kept in memory for ttlSeconds and at most maxSize of them are
+ * kept, the oldest ones are forgotten first. An event is only marked as
+ * processed when its processing succeeded, so that a failed attempt is still
+ * retried.
+ */
+public class EventDeduplicator {
+
+	private final int maxSize;
+	private final long ttlNanos;
+	private final LongSupplier nanoClock;
+
+	// In insertion order, i.e. the oldest ID first
+	private final LinkedHashMap<String, Long> processedAt = new LinkedHashMap<>();
+
+	public EventDeduplicator(int maxSize, long ttlSeconds) {
+		this(maxSize, ttlSeconds, System::nanoTime);
+	}
+
+	EventDeduplicator(int maxSize, long ttlSeconds, LongSupplier nanoClock) {
+		this.maxSize = maxSize;
+		this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+		this.nanoClock = nanoClock;
+	}
+
+	/**
+	 * Events without an ID are never considered processed.
+	 */
+	public synchronized boolean isProcessed(String eventId) {
+		if (eventId == null) {
+			return false;
+		}
+		expire();
+		return processedAt.containsKey(eventId);
+	}
+
+	public synchronized void markProcessed(String eventId) {
+		if (eventId == null) {
+			return;
+		}
+		expire();
+		processedAt.put(eventId, nanoClock.getAsLong());
+		if (processedAt.size() > maxSize) {
+			Iterator<String> oldest = processedAt.keySet().iterator();
+			oldest.next();
+			oldest.remove();
+		}
+	}
+
+	public synchronized int size() {
+		expire();
+		return processedAt.size();
+	}
+
+	private void expire() {
+		long now = nanoClock.getAsLong();
+		Iterator<Map.Entry<String, Long>> it = processedAt.entrySet().iterator();
+		while (it.hasNext() && now - it.next().getValue() >= ttlNanos) {
+			it.remove();
+		}
+	}
+}
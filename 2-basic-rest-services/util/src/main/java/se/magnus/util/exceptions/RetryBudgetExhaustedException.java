@@ -0,0 +1,18 @@
+package se.magnus.util.exceptions;
+
+public class RetryBudgetExhaustedException extends RuntimeException {
+    public RetryBudgetExhaustedException() {
+    }
+
+    public RetryBudgetExhaustedException(String message) {
+        super(message);
+    }
+
+    public RetryBudgetExhaustedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public RetryBudgetExhaustedException(Throwable cause) {
+        super(cause);
+    }
+}
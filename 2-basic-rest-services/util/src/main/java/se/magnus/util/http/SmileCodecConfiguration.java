@@ -0,0 +1,23 @@
+package se.magnus.util.http;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.codec.ServerCodecConfigurer;
+import org.springframework.http.codec.json.Jackson2SmileDecoder;
+import org.springframework.http.codec.json.Jackson2SmileEncoder;
+import org.springframework.web.reactive.config.WebFluxConfigurer;
+
+/**
+ * Adds the binary Smile format, "application/x-jackson-smile", to the JSON
+ * format of the WebFlux endpoints. Endpoints that list it in their produces
+ * attribute return Smile to clients that ask for it in the Accept header,
+ * all other clients get JSON as before.
+ */
+@Configuration
+public class SmileCodecConfiguration implements WebFluxConfigurer {
+
+    @Override
+    public void configureHttpMessageCodecs(ServerCodecConfigurer configurer) {
+        configurer.customCodecs().register(new Jackson2SmileEncoder());
+        configurer.customCodecs().register(new Jackson2SmileDecoder());
+    }
+}
@@ -0,0 +1,90 @@
+package se.magnus.util.persistence;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManagerFactory;
+
+/**
+ * Raises the row of a table of entities in the id generator table above the
+ * ids in the table at startup, before any entity is inserted.
+ *
+ * Databases created before the ids were reserved from the id generator table
+ * have ids from hibernate_sequence, and the new row would start at 1 and hand
+ * out ids that are taken. A pooled block starts up to allocationSize - 1 below
+ * the value of the row, so the row is raised to max(id) + allocationSize + 1.
+ * The row is never lowered, so later starts leave it as it is.
+ *
+ * It is not a component, as the services without a relational database scan
+ * this package as well. Each JPA service declares one for each of its tables.
+ */
+public class IdGeneratorSeeder {
+
+	private static final Logger LOG = LoggerFactory.getLogger(IdGeneratorSeeder.class);
+
+	private final JdbcTemplate jdbcTemplate;
+	private final EntityManagerFactory entityManagerFactory;
+	private final String table;
+	private final String generatorTable;
+	private final String segment;
+	private final int allocationSize;
+
+	/**
+	 * @param table          the table of the entities, with an id column
+	 * @param generatorTable the table the ids are reserved from
+	 * @param segment        the sequence_name of the row of the entities in
+	 *                       the generator table
+	 * @param allocationSize the number of ids reserved at a time
+	 */
+	public IdGeneratorSeeder(JdbcTemplate jdbcTemplate, EntityManagerFactory entityManagerFactory, String table,
+			String generatorTable, String segment, int allocationSize) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.entityManagerFactory = entityManagerFactory;
+		this.table = table;
+		this.generatorTable = generatorTable;
+		this.segment = segment;
+		this.allocationSize = allocationSize;
+	}
+
+	@PostConstruct
+	public void seed() {
+
+		// Waits for the schema update, that creates the generator table and may run in the background
+		entityManagerFactory.getMetamodel();
+
+		Long maxId = jdbcTemplate.queryForObject("select max(id) from " + table, Long.class);
+		if (maxId == null) {
+			return;
+		}
+
+		long nextVal = maxId + allocationSize + 1;
+		if (raise(nextVal) == 0 && !exists()) {
+			try {
+				jdbcTemplate.update("insert into " + generatorTable + " (sequence_name, next_val) values (?, ?)",
+						segment, nextVal);
+				LOG.info("Seeded the {} ids of {} at {}", segment, generatorTable, nextVal);
+			} catch (DuplicateKeyException e) {
+				// Inserted by another instance, or by Hibernate, since the row was looked for
+				raise(nextVal);
+			}
+		}
+	}
+
+	private int raise(long nextVal) {
+		int updated = jdbcTemplate.update(
+				"update " + generatorTable + " set next_val = ? where sequence_name = ? and next_val < ?", nextVal,
+				segment, nextVal);
+		if (updated > 0) {
+			LOG.info("Raised the {} ids of {} to {}", segment, generatorTable, nextVal);
+		}
+		return updated;
+	}
+
+	private boolean exists() {
+		return jdbcTemplate.queryForObject("select count(*) from " + generatorTable + " where sequence_name = ?",
+				Integer.class, segment) > 0;
+	}
+}